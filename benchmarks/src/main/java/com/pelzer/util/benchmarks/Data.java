@@ -0,0 +1,49 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.benchmarks;
+
+import java.util.Random;
+
+/** Test data shared by the benchmarks. */
+final class Data {
+  private static final String WORDS[] = { "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "timecode", "property", "logging", "merge" };
+
+  private Data() {
+  }
+
+  /**
+   * @return roughly length chars of space separated words, with one of the special chars dropped
+   *         in every 40 chars on average. Seeded, so every run sees the same text.
+   */
+  static String text(Random random, int length, String specials) {
+    StringBuilder out = new StringBuilder(length + 16);
+    while (out.length() < length) {
+      out.append(WORDS[random.nextInt(WORDS.length)]);
+      if (specials.length() > 0 && random.nextInt(8) == 0)
+        out.append(specials.charAt(random.nextInt(specials.length())));
+      out.append(' ');
+    }
+    out.setLength(length);
+    return out.toString();
+  }
+
+  /** @return count random bytes. */
+  static byte[] bytes(Random random, int count) {
+    byte bytes[] = new byte[count];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
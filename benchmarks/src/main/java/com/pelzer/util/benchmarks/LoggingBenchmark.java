@@ -0,0 +1,79 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pelzer.util.Logging;
+
+/**
+ * Turning one record into a line of text, with both of the built-in formatters. The records are
+ * made once, so this is the formatter alone and not the cost of getting a record to it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dpelzer.mute=true", "-Dpelzer.log.mute=true" })
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+  private final Logging.LogFormatter text = new Logging.LogFormatter();
+  private final Logging.JSONFormatter json = new Logging.JSONFormatter();
+  private LogRecord message;
+  private LogRecord exception;
+
+  @Setup
+  public void setup() {
+    message = new LogRecord(Level.CONFIG, "Processed 1234 records for account 'acme' in 56ms, 3 retries");
+    message.setLoggerName("com.example.batch.RecordProcessor");
+    exception = new LogRecord(Level.WARNING, "Unable to reach the inventory service, will retry");
+    exception.setLoggerName("com.example.inventory.InventoryClient");
+    exception.setThrown(new IllegalStateException("Connection refused", new java.io.IOException("connect timed out")));
+  }
+
+  @Benchmark
+  public String formatText() {
+    return text.format(message);
+  }
+
+  @Benchmark
+  public String formatTextException() {
+    return text.format(exception);
+  }
+
+  @Benchmark
+  public String formatJSON() {
+    return json.format(message);
+  }
+
+  @Benchmark
+  public String formatJSONException() {
+    return json.format(exception);
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pelzer.util.mp3.MP3AudioOnlyInputStream;
+import com.pelzer.util.mp3.MP3RetaggingInputStream;
+
+/**
+ * Streaming a whole in-memory MP3 through the tag stripping and retagging streams, reading 8KB at a
+ * time the way a servlet copying it to a response would. The file is random audio bytes between a
+ * 4KB ID3v2 tag and an ID3v1 tag.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dpelzer.mute=true", "-Dpelzer.log.mute=true" })
+@State(Scope.Benchmark)
+public class MP3StreamBenchmark {
+  /** Bytes of audio in the file. */
+  @Param({ "262144" })
+  public int size;
+
+  private byte file[];
+  private byte newTag[];
+  private final byte buffer[] = new byte[8192];
+
+  @Setup
+  public void setup() throws IOException {
+    Random random = new Random(38);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(size + 8192);
+    out.write(id3v2(Data.bytes(random, 4096)));
+    out.write(Data.bytes(random, size));
+    byte id3v1[] = new byte[128];
+    id3v1[0] = 'T';
+    id3v1[1] = 'A';
+    id3v1[2] = 'G';
+    out.write(id3v1);
+    file = out.toByteArray();
+    newTag = id3v2(Data.bytes(random, 1024));
+  }
+
+  /** @return an ID3v2.3 header with the given body and its syncsafe length. */
+  private static byte[] id3v2(byte body[]) {
+    byte tag[] = new byte[10 + body.length];
+    tag[0] = 'I';
+    tag[1] = 'D';
+    tag[2] = '3';
+    tag[3] = 3;
+    tag[6] = (byte) ((body.length >> 21) & 0x7f);
+    tag[7] = (byte) ((body.length >> 14) & 0x7f);
+    tag[8] = (byte) ((body.length >> 7) & 0x7f);
+    tag[9] = (byte) (body.length & 0x7f);
+    System.arraycopy(body, 0, tag, 10, body.length);
+    return tag;
+  }
+
+  private long drain(InputStream in) throws IOException {
+    long total = 0;
+    for (int read = in.read(buffer); read >= 0; read = in.read(buffer))
+      total += read;
+    in.close();
+    return total;
+  }
+
+  @Benchmark
+  public long audioOnly() throws IOException {
+    return drain(new MP3AudioOnlyInputStream(new ByteArrayInputStream(file)));
+  }
+
+  @Benchmark
+  public long retag() throws IOException {
+    return drain(new MP3RetaggingInputStream(new ByteArrayInputStream(file), newTag));
+  }
+}
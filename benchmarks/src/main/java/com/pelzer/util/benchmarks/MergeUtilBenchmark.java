@@ -0,0 +1,90 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pelzer.util.merge.LogicalComparator;
+import com.pelzer.util.merge.MergeResult;
+import com.pelzer.util.merge.MergeUtil;
+
+/**
+ * Merging a list of stored keys against a list of incoming ids, where 90% of them match, 10% are
+ * new and 10% have gone away, both in a shuffled order.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dpelzer.mute=true", "-Dpelzer.log.mute=true" })
+@State(Scope.Benchmark)
+public class MergeUtilBenchmark {
+  @Param({ "100", "1000" })
+  public int size;
+
+  private List<String> stored;
+  private List<Integer> incoming;
+  private List<String> incomingKeys;
+  private final LogicalComparator<String, Integer> comparator = new LogicalComparator<String, Integer>() {
+    public boolean equivalent(String key, Integer id) {
+      return key.equals(id.toString());
+    }
+  };
+
+  @Setup
+  public void setup() {
+    Random random = new Random(38);
+    stored = new ArrayList<String>();
+    incoming = new ArrayList<Integer>();
+    incomingKeys = new ArrayList<String>();
+    int removed = size / 10;
+    for (int i = 0; i < size; i++)
+      stored.add(Integer.toString(i));
+    for (int i = removed; i < size + removed; i++) {
+      incoming.add(i);
+      incomingKeys.add(Integer.toString(i));
+    }
+    Collections.shuffle(stored, random);
+    Collections.shuffle(incoming, random);
+    Collections.shuffle(incomingKeys, random);
+  }
+
+  @Benchmark
+  public MergeResult<String, Integer> mergeComparator() {
+    return MergeUtil.merge(stored, incoming, comparator);
+  }
+
+  @Benchmark
+  public MergeResult<String, String> mergeEquals() {
+    return MergeUtil.merge(stored, incomingKeys, null);
+  }
+}
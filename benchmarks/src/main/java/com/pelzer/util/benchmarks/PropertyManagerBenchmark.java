@@ -0,0 +1,65 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pelzer.util.PropertyManager;
+
+/** Property lookups that hit an override, fall back to a default, and miss entirely. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dpelzer.mute=true", "-Dpelzer.log.mute=true" })
+@State(Scope.Benchmark)
+public class PropertyManagerBenchmark {
+  @Setup
+  public void setup() {
+    PropertyManager.override("com.example.benchmark.url", "http://www.example.com/login/");
+  }
+
+  @Benchmark
+  public String getProperty() {
+    return PropertyManager.getProperty("com.example.benchmark.url");
+  }
+
+  @Benchmark
+  public String getPropertyNamespace() {
+    return PropertyManager.getProperty("com.example.benchmark", "url");
+  }
+
+  @Benchmark
+  public String getPropertyDefault() {
+    return PropertyManager.getProperty("com.example.benchmark", "missing", "default");
+  }
+
+  @Benchmark
+  public String getPropertyMissing() {
+    return PropertyManager.getProperty("com.example.benchmark.missing");
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pelzer.util.StringMan;
+
+/**
+ * StringMan's text munging, over English-ish text of the given size with a markup character every
+ * 40 or so chars and the odd accented letter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dpelzer.mute=true", "-Dpelzer.log.mute=true" })
+@State(Scope.Benchmark)
+public class StringManBenchmark {
+  @Param({ "256", "16384" })
+  public int size;
+
+  private String text;
+  private String cleanText;
+  private Map<String, String> entities;
+
+  @Setup
+  public void setup() {
+    text = Data.text(new Random(38), size, "&<>\"'éü");
+    cleanText = Data.text(new Random(38), size, "");
+    entities = new LinkedHashMap<String, String>();
+    entities.put("&", "&amp;");
+    entities.put("<", "&lt;");
+    entities.put(">", "&gt;");
+    entities.put("\"", "&quot;");
+    entities.put("'", "&apos;");
+  }
+
+  @Benchmark
+  public String replace() {
+    return StringMan.replace(text, "&", "&amp;");
+  }
+
+  @Benchmark
+  public String replaceNoMatch() {
+    return StringMan.replace(cleanText, "&", "&amp;");
+  }
+
+  @Benchmark
+  public String replaceMap() {
+    return StringMan.replace(text, entities);
+  }
+
+  @Benchmark
+  public String escapeForXML() {
+    return StringMan.escapeForXML(text);
+  }
+
+  @Benchmark
+  public String escapeForXMLClean() {
+    return StringMan.escapeForXML(cleanText);
+  }
+
+  @Benchmark
+  public String getUS7ASCIIEquiv() {
+    return StringMan.getUS7ASCIIEquiv(text);
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pelzer.util.Timecode;
+
+/** Parsing and printing HH:MM:SS:FF codes, and converting from seconds. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dpelzer.mute=true", "-Dpelzer.log.mute=true" })
+@State(Scope.Benchmark)
+public class TimecodeBenchmark {
+  private Timecode code;
+
+  @Setup
+  public void setup() throws Exception {
+    code = new Timecode("01:02:03:04", Timecode.Type.TYPE_VIDEO_NTSC);
+  }
+
+  @Benchmark
+  public Timecode parse() throws Exception {
+    return new Timecode("01:02:03:04", Timecode.Type.TYPE_VIDEO_NTSC);
+  }
+
+  @Benchmark
+  public String format() {
+    return code.getCode();
+  }
+
+  @Benchmark
+  public Timecode fromSeconds() {
+    return new Timecode(3723.5F, Timecode.Type.TYPE_VIDEO_PAL);
+  }
+
+  @Benchmark
+  public double toFrames() {
+    return code.toFrames();
+  }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link SafeSemaphore} that works out its own number of permits from how
+ * long they're held and how often the work under them fails, so that it
+ * admits as much concurrency as whatever's downstream can take, and backs off
+ * when it slows down. It's a drop-in for a SafeSemaphore, with one addition:
+ * call {@link SafeSemaphore.Permit#failed()} when the work fails or times out,
+ * before releasing.
+ *
+ * <pre>
+ * SafeSemaphore limiter = AdaptiveLimiter.gradient(10, 1, 200);
+ * try (SafeSemaphore.Permit permit = limiter.acquire()) {
+ *   try {
+ *     callDownstream();
+ *   } catch (IOException ex) {
+ *     permit.failed();
+ *     throw ex;
+ *   }
+ * }
+ * </pre>
+ *
+ * Every release is a sample for the {@link Algorithm}, which returns the new
+ * limit. Shrinking the limit doesn't interrupt anybody, it just holds back new
+ * acquires until enough permits have come back.
+ */
+public class AdaptiveLimiter extends SafeSemaphore {
+  private final Algorithm algorithm;
+  private volatile int limit;
+
+  /** Decides the next limit from each sample. Called with the limiter locked, so implementations needn't be thread safe. */
+  public interface Algorithm {
+    /**
+     * @param limit
+     *          the current limit.
+     * @param inFlight
+     *          the permits that were held when the work finished, including
+     *          this sample's.
+     * @param heldNanos
+     *          how long this sample's permits were held.
+     * @param failed
+     *          true if the work failed, timed out or the permit leaked.
+     * @return the new limit.
+     */
+    int update(int limit, int inFlight, long heldNanos, boolean failed);
+  }
+
+  /**
+   * Additive increase, multiplicative decrease: the limit goes up by one for
+   * every success while the limiter is at least half full, and is cut by the
+   * backoff ratio for every failure or sample slower than the timeout. Simple
+   * and steady, but only reacts once things actually fail.
+   */
+  public static class Aimd implements Algorithm {
+    private final int minLimit, maxLimit;
+    private final double backoffRatio;
+    private final long timeoutNanos;
+
+    /** Backs off to 90% on failures, with no timeout. */
+    public Aimd(int minLimit, int maxLimit) {
+      this(minLimit, maxLimit, 0.9, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    public Aimd(int minLimit, int maxLimit, double backoffRatio, long timeout, TimeUnit unit) {
+      if (backoffRatio <= 0 || backoffRatio >= 1)
+        throw new IllegalArgumentException("backoffRatio must be between 0 and 1: " + backoffRatio);
+      this.minLimit = minLimit;
+      this.maxLimit = maxLimit;
+      this.backoffRatio = backoffRatio;
+      this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    public int update(int limit, int inFlight, long heldNanos, boolean failed) {
+      if (failed || heldNanos > timeoutNanos)
+        return Math.max(minLimit, Math.min(limit - 1, (int) (limit * backoffRatio)));
+      if (inFlight * 2 >= limit)
+        return Math.min(maxLimit, limit + 1);
+      return limit;
+    }
+  }
+
+  /**
+   * Vegas style: compares each sample with the fastest one seen recently, on
+   * the basis that anything slower than that is time spent queueing
+   * downstream. The limit is scaled by that ratio (no more than halved per
+   * sample), plus the square root of the limit as headroom to probe for more,
+   * and smoothed. Reacts to latency before things fail. The fastest sample is
+   * forgotten every so often, in case the downstream has got slower for good.
+   */
+  public static class Gradient implements Algorithm {
+    private final int minLimit, maxLimit;
+    private final double smoothing;
+    private final int probeInterval;
+    private double estimate = -1;
+    private long minNanos = Long.MAX_VALUE;
+    private int samples = 0;
+
+    /** Smooths by 0.2, and forgets the fastest sample every 1000. */
+    public Gradient(int minLimit, int maxLimit) {
+      this(minLimit, maxLimit, 0.2, 1000);
+    }
+
+    public Gradient(int minLimit, int maxLimit, double smoothing, int probeInterval) {
+      if (smoothing <= 0 || smoothing > 1)
+        throw new IllegalArgumentException("smoothing must be above 0 and at most 1: " + smoothing);
+      this.minLimit = minLimit;
+      this.maxLimit = maxLimit;
+      this.smoothing = smoothing;
+      this.probeInterval = probeInterval;
+    }
+
+    public int update(int limit, int inFlight, long heldNanos, boolean failed) {
+      if (estimate < 0)
+        estimate = limit;
+      if (++samples % probeInterval == 0)
+        minNanos = Long.MAX_VALUE;
+      heldNanos = Math.max(1, heldNanos);
+      if (!failed && heldNanos < minNanos)
+        minNanos = heldNanos;
+
+      double gradient = failed ? 0.5 : Math.max(0.5, Math.min(1, (double) minNanos / heldNanos));
+      double target = limit * gradient + Math.sqrt(limit);
+      // Don't grow on the back of a limiter that isn't being used
+      if (inFlight * 2 < limit)
+        target = Math.min(target, limit);
+      estimate = (1 - smoothing) * estimate + smoothing * target;
+      estimate = Math.max(minLimit, Math.min(maxLimit, estimate));
+      return (int) estimate;
+    }
+  }
+
+  /** Creates a limiter starting at initialLimit, that leaves it to the algorithm from then on. */
+  public AdaptiveLimiter(int initialLimit, Algorithm algorithm) {
+    super(initialLimit);
+    this.limit = initialLimit;
+    this.algorithm = algorithm;
+  }
+
+  /** @return a limiter using {@link Aimd} between minLimit and maxLimit. */
+  public static AdaptiveLimiter aimd(int initialLimit, int minLimit, int maxLimit) {
+    return new AdaptiveLimiter(initialLimit, new Aimd(minLimit, maxLimit));
+  }
+
+  /** @return a limiter using {@link Gradient} between minLimit and maxLimit. */
+  public static AdaptiveLimiter gradient(int initialLimit, int minLimit, int maxLimit) {
+    return new AdaptiveLimiter(initialLimit, new Gradient(minLimit, maxLimit));
+  }
+
+  /** @return the number of permits the limiter currently allows out at once. */
+  public int getLimit() {
+    return limit;
+  }
+
+  @Override
+  protected void released(int permits, long heldNanos, boolean failed) {
+    synchronized (this) {
+      int newLimit = Math.max(1, algorithm.update(limit, getInFlight() + permits, heldNanos, failed));
+      if (newLimit != limit) {
+        adjustPermits(newLimit - limit);
+        limit = newLimit;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "limit=" + getLimit() + " inFlight=" + getInFlight() + " queued=" + getQueueLength();
+  }
+}
@@ -0,0 +1,356 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.pelzer.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+/**
+ * A binary sink for loggers on latency-critical paths. Instead of formatting
+ * the message, a binary logger writes the template's id, a System.nanoTime()
+ * timestamp and the raw replacement values into a buffer owned by the calling
+ * thread, which is only copied to the file when it fills up, when something at
+ * WARN or above is logged, or on {@link #flush()}. Each logger name, template
+ * and thread is written out in full once, the first time it's seen.
+ * <p>
+ * Turn it on with -Dpelzer.log.binary=/path/to/file (or {@link #open(File)}),
+ * then pick the loggers that should use it with
+ * <code>com.pelzer.util.Logging.&lt;node&gt;.binary=true</code> in the
+ * properties or {@link Logging.Logger#setBinary(boolean)}. Everything else keeps
+ * logging text as usual. Read the file back with {@link BinaryLogDecoder}.
+ * <p>
+ * Ints, longs, shorts, bytes, doubles, floats, booleans and chars are written
+ * as raw values, nulls as a single tag, and everything else as its toString().
+ * Opening or closing the log while other threads are logging to it may lose
+ * those threads' events, so do it at startup and shutdown.
+ */
+public final class BinaryLog{
+  /** "PZBL" */
+  static final int MAGIC = 0x505a424c;
+  static final int VERSION = 1;
+
+  static final byte THREAD = 1;
+  static final byte LOGGER = 2;
+  static final byte TEMPLATE = 3;
+  static final byte EVENT = 4;
+
+  static final byte NULL = 'N';
+  static final byte STRING = 'S';
+  static final byte INT = 'I';
+  static final byte LONG = 'J';
+  static final byte SHORT = 's';
+  static final byte BYTE = 'B';
+  static final byte DOUBLE = 'D';
+  static final byte FLOAT = 'F';
+  static final byte BOOLEAN = 'Z';
+  static final byte CHAR = 'C';
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** Bytes a thread buffers before copying them to the file. */
+  private static final int FLUSH_THRESHOLD = 32768;
+
+  private static final Object lock = new Object();
+  private static volatile OutputStream out = null;
+  private static volatile int generation = 0;
+  private static int nextThreadId = 0;
+  private static boolean shutdownHookAdded = false;
+  private static final ConcurrentMap<String, Integer> loggerIds = new ConcurrentHashMap<String, Integer>();
+  private static final ConcurrentMap<String, Integer> templateIds = new ConcurrentHashMap<String, Integer>();
+  private static final List<Buffer> buffers = new ArrayList<Buffer>();
+  private static final ThreadLocal<Buffer> localBuffer = new ThreadLocal<Buffer>(){
+    @Override
+    protected Buffer initialValue(){
+      return new Buffer();
+    }
+  };
+
+  private BinaryLog(){
+  }
+
+  /**
+   * Starts writing binary events to the given file, replacing its contents.
+   * Closes whatever file was open before.
+   */
+  public static void open(final File file) throws IOException{
+    close();
+    synchronized(lock){
+      final Buffer header = new Buffer();
+      header.putInt(MAGIC);
+      header.putInt(VERSION);
+      header.putLong(System.currentTimeMillis());
+      header.putLong(System.nanoTime());
+      out = new BufferedOutputStream(new FileOutputStream(file), FLUSH_THRESHOLD);
+      header.writeTo(out);
+      generation++;
+      if(!shutdownHookAdded){
+        Runtime.getRuntime().addShutdownHook(new Thread("pelzer-binary-log-shutdown"){
+          @Override
+          public void run(){
+            close();
+          }
+        });
+        shutdownHookAdded = true;
+      }
+    }
+  }
+
+  /** @return true if binary loggers currently have somewhere to write to. */
+  public static boolean isOpen(){
+    return out != null;
+  }
+
+  /** Copies every thread's buffered events to the file and flushes it. */
+  public static void flush(){
+    final Buffer snapshot[];
+    synchronized(lock){
+      snapshot = buffers.toArray(new Buffer[buffers.size()]);
+    }
+    // Always lock the buffer before the file, the same as write() does
+    for(final Buffer buffer : snapshot)
+      synchronized(buffer){
+        drain(buffer);
+      }
+    synchronized(lock){
+      try{
+        if(out != null)
+          out.flush();
+      }catch(final IOException ex){
+        failed(ex);
+      }
+    }
+  }
+
+  /** Flushes and closes the file. Binary loggers go back to writing text. */
+  public static void close(){
+    flush();
+    synchronized(lock){
+      if(out == null)
+        return;
+      try{
+        out.close();
+      }catch(final IOException ex){
+        failed(ex);
+      }
+      out = null;
+      loggerIds.clear();
+      templateIds.clear();
+      buffers.clear();
+      nextThreadId = 0;
+    }
+  }
+
+  /**
+   * Writes one event into the calling thread's buffer. Called by
+   * {@link Logging.Logger} once it has decided the event should be written.
+   */
+  static void write(final String loggerName, final Level level, final String template, final Throwable thrown, final Object... replacements){
+    final long nanos = System.nanoTime();
+    final Buffer buffer = localBuffer.get();
+    synchronized(buffer){
+      try{
+        if(buffer.generation != generation && !register(buffer))
+          return;
+        final int loggerId = idFor(loggerIds, LOGGER, loggerName);
+        final int templateId = idFor(templateIds, TEMPLATE, template);
+        buffer.putByte(EVENT);
+        buffer.putInt(buffer.threadId);
+        buffer.putInt(loggerId);
+        buffer.putInt(level.intValue());
+        buffer.putInt(templateId);
+        buffer.putLong(nanos);
+        final int count = replacements == null ? 0 : replacements.length;
+        buffer.putInt(count);
+        for(int i = 0; i < count; i++)
+          buffer.putValue(replacements[i]);
+        if(thrown == null)
+          buffer.putByte(NULL);
+        else{
+          final StringWriter trace = new StringWriter();
+          thrown.printStackTrace(new PrintWriter(trace));
+          buffer.putByte(STRING);
+          buffer.putString(trace.toString());
+        }
+      }catch(final IOException ex){
+        failed(ex);
+        return;
+      }
+      if(buffer.count >= FLUSH_THRESHOLD || level.intValue() >= Level.INFO.intValue())
+        drain(buffer);
+    }
+  }
+
+  /** Gives the buffer's thread an id in the current file. Caller holds the buffer. */
+  private static boolean register(final Buffer buffer) throws IOException{
+    synchronized(lock){
+      if(out == null)
+        return false;
+      buffer.count = 0;
+      buffer.threadId = nextThreadId++;
+      buffer.generation = generation;
+      buffers.add(buffer);
+      final Buffer definition = new Buffer();
+      definition.putByte(THREAD);
+      definition.putInt(buffer.threadId);
+      definition.putString(Thread.currentThread().getName());
+      definition.writeTo(out);
+      return true;
+    }
+  }
+
+  /**
+   * @return the id of the given logger name or template, writing its
+   *         definition straight to the file the first time it's seen so that
+   *         it always comes before any event that uses it.
+   */
+  private static int idFor(final ConcurrentMap<String, Integer> ids, final byte type, final String name) throws IOException{
+    final String key = name == null ? "null" : name;
+    Integer id = ids.get(key);
+    if(id != null)
+      return id;
+    synchronized(lock){
+      id = ids.get(key);
+      if(id == null){
+        id = ids.size();
+        if(out != null){
+          final Buffer definition = new Buffer();
+          definition.putByte(type);
+          definition.putInt(id);
+          definition.putString(key);
+          definition.writeTo(out);
+        }
+        ids.put(key, id);
+      }
+    }
+    return id;
+  }
+
+  /** Copies the buffer to the file. Caller holds the buffer. */
+  private static void drain(final Buffer buffer){
+    if(buffer.count == 0)
+      return;
+    synchronized(lock){
+      try{
+        if(out != null && buffer.generation == generation)
+          buffer.writeTo(out);
+      }catch(final IOException ex){
+        failed(ex);
+      }
+      buffer.count = 0;
+    }
+  }
+
+  private static void failed(final IOException ex){
+    Logging.getMetrics().recordDropped();
+    System.out.println("ERROR: Unable to write binary log: " + ex.getMessage());
+  }
+
+  /** A growable byte array with big-endian puts, owned by one thread. */
+  static final class Buffer{
+    byte bytes[] = new byte[1024];
+    int count = 0;
+    int threadId = -1;
+    int generation = -1;
+
+    private void ensure(final int extra){
+      if(count + extra > bytes.length){
+        final byte grown[] = new byte[Math.max(bytes.length * 2, count + extra)];
+        System.arraycopy(bytes, 0, grown, 0, count);
+        bytes = grown;
+      }
+    }
+
+    void putByte(final int value){
+      ensure(1);
+      bytes[count++] = (byte) value;
+    }
+
+    void putShort(final int value){
+      ensure(2);
+      bytes[count++] = (byte) (value >>> 8);
+      bytes[count++] = (byte) value;
+    }
+
+    void putInt(final int value){
+      ensure(4);
+      bytes[count++] = (byte) (value >>> 24);
+      bytes[count++] = (byte) (value >>> 16);
+      bytes[count++] = (byte) (value >>> 8);
+      bytes[count++] = (byte) value;
+    }
+
+    void putLong(final long value){
+      putInt((int) (value >>> 32));
+      putInt((int) value);
+    }
+
+    void putString(final String value){
+      final byte utf8[] = value.getBytes(UTF8);
+      putInt(utf8.length);
+      ensure(utf8.length);
+      System.arraycopy(utf8, 0, bytes, count, utf8.length);
+      count += utf8.length;
+    }
+
+    void putValue(final Object value){
+      if(value == null)
+        putByte(NULL);
+      else if(value instanceof Integer){
+        putByte(INT);
+        putInt((Integer) value);
+      }else if(value instanceof Long){
+        putByte(LONG);
+        putLong((Long) value);
+      }else if(value instanceof Double){
+        putByte(DOUBLE);
+        putLong(Double.doubleToRawLongBits((Double) value));
+      }else if(value instanceof Boolean){
+        putByte(BOOLEAN);
+        putByte((Boolean) value ? 1 : 0);
+      }else if(value instanceof Float){
+        putByte(FLOAT);
+        putInt(Float.floatToRawIntBits((Float) value));
+      }else if(value instanceof Short){
+        putByte(SHORT);
+        putShort((Short) value);
+      }else if(value instanceof Byte){
+        putByte(BYTE);
+        putByte((Byte) value);
+      }else if(value instanceof Character){
+        putByte(CHAR);
+        putShort((Character) value);
+      }else{
+        putByte(STRING);
+        putString(value.toString());
+      }
+    }
+
+    void writeTo(final OutputStream out) throws IOException{
+      out.write(bytes, 0, count);
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.pelzer.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+
+/**
+ * Turns a file written by {@link BinaryLog} back into text, in the same format
+ * as {@link Logging.LogFormatter}. From the command line:
+ *
+ * <pre>
+ * java com.pelzer.util.BinaryLogDecoder binary.log [output.txt]
+ * </pre>
+ *
+ * The output goes to stdout if no output file is given.
+ */
+public class BinaryLogDecoder{
+  private final Formatter formatter;
+
+  /** Decodes to the usual {@link Logging.LogFormatter} text. */
+  public BinaryLogDecoder(){
+    this(new Logging.LogFormatter());
+  }
+
+  /** Decodes with the given formatter, for instance a {@link Logging.JSONFormatter}. */
+  public BinaryLogDecoder(final Formatter formatter){
+    this.formatter = formatter;
+  }
+
+  /**
+   * Reads events from in until the end of the stream, writing each one to out.
+   * A file cut short by a crash decodes up to its last complete event.
+   *
+   * @return the number of events decoded.
+   */
+  public int decode(final InputStream in, final Writer out) throws IOException{
+    final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    if(data.readInt() != BinaryLog.MAGIC)
+      throw new IOException("Not a binary log file.");
+    final int version = data.readInt();
+    if(version != BinaryLog.VERSION)
+      throw new IOException("Unsupported binary log version " + version);
+    final long startMillis = data.readLong();
+    final long startNanos = data.readLong();
+
+    final Map<Integer, String> threads = new HashMap<Integer, String>();
+    final Map<Integer, String> loggers = new HashMap<Integer, String>();
+    final Map<Integer, String> templates = new HashMap<Integer, String>();
+    int events = 0;
+    try{
+      while(true){
+        final int type = data.read();
+        if(type < 0)
+          break;
+        switch(type){
+          case BinaryLog.THREAD:
+            threads.put(data.readInt(), readString(data));
+            break;
+          case BinaryLog.LOGGER:
+            loggers.put(data.readInt(), readString(data));
+            break;
+          case BinaryLog.TEMPLATE:
+            templates.put(data.readInt(), readString(data));
+            break;
+          case BinaryLog.EVENT:
+            final String threadName = threads.get(data.readInt());
+            final String loggerName = loggers.get(data.readInt());
+            final Level level = Level.parse(Integer.toString(data.readInt()));
+            final String template = templates.get(data.readInt());
+            final long nanos = data.readLong();
+            final Object replacements[] = new Object[data.readInt()];
+            for(int i = 0; i < replacements.length; i++)
+              replacements[i] = readValue(data);
+            final Object trace = readValue(data);
+            final Throwable thrown = trace == null ? null : new RecordedThrowable(trace.toString());
+
+            final Logging.LogEvent event = new Logging.LogEvent(level, loggerName, template, replacements, thrown, threadName, DiagnosticContext.EMPTY);
+            event.setMillis(startMillis + (nanos - startNanos) / 1000000);
+            out.write(formatter.format(event));
+            events++;
+            break;
+          default:
+            throw new IOException("Corrupt binary log, unknown record type " + type + " after " + events + " events.");
+        }
+      }
+    }catch(final EOFException ex){
+      // Truncated last record, keep what we have
+    }
+    out.flush();
+    return events;
+  }
+
+  private static String readString(final DataInputStream data) throws IOException{
+    final byte utf8[] = new byte[data.readInt()];
+    data.readFully(utf8);
+    return new String(utf8, BinaryLog.UTF8);
+  }
+
+  private static Object readValue(final DataInputStream data) throws IOException{
+    final int tag = data.readByte();
+    switch(tag){
+      case BinaryLog.NULL:
+        return null;
+      case BinaryLog.STRING:
+        return readString(data);
+      case BinaryLog.INT:
+        return data.readInt();
+      case BinaryLog.LONG:
+        return data.readLong();
+      case BinaryLog.DOUBLE:
+        return Double.longBitsToDouble(data.readLong());
+      case BinaryLog.BOOLEAN:
+        return data.readByte() != 0;
+      case BinaryLog.FLOAT:
+        return Float.intBitsToFloat(data.readInt());
+      case BinaryLog.SHORT:
+        return data.readShort();
+      case BinaryLog.BYTE:
+        return data.readByte();
+      case BinaryLog.CHAR:
+        return data.readChar();
+    }
+    throw new IOException("Corrupt binary log, unknown value tag " + tag);
+  }
+
+  /** Stands in for the original exception, printing the trace that was recorded. */
+  private static final class RecordedThrowable extends Throwable{
+    private static final long serialVersionUID = 1L;
+    private final String trace;
+
+    RecordedThrowable(final String trace){
+      super(trace);
+      this.trace = trace;
+    }
+
+    @Override
+    public void printStackTrace(final PrintWriter writer){
+      writer.print(trace);
+    }
+
+    @Override
+    public void printStackTrace(final PrintStream stream){
+      stream.print(trace);
+    }
+  }
+
+  public static void main(final String args[]) throws IOException{
+    if(args.length < 1 || args.length > 2){
+      System.out.println("Usage: java " + BinaryLogDecoder.class.getName() + " binary.log [output.txt]");
+      System.exit(-1);
+    }
+    // Keep Logging's own startup chatter out of the decoded output
+    if(System.getProperty("pelzer.log.mute") == null)
+      System.setProperty("pelzer.log.mute", "true");
+    final InputStream in = new FileInputStream(args[0]);
+    final Writer out = new OutputStreamWriter(args.length > 1 ? new FileOutputStream(args[1]) : System.out, "UTF-8");
+    try{
+      new BinaryLogDecoder().decode(in, out);
+    }finally{
+      in.close();
+      if(args.length > 1)
+        out.close();
+      else
+        out.flush();
+    }
+  }
+}
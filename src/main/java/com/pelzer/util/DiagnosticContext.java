@@ -0,0 +1,324 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.pelzer.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An immutable set of key/value Strings attached to the current thread and
+ * included in every logged statement, for things like request ids, user names
+ * or job names. Since a context never changes once built, handing it to
+ * another thread is just passing a reference: use the wrap() methods to carry
+ * the caller's context over to an executor, a Runnable or a Callable, for
+ * instance:
+ *
+ * <pre>
+ * DiagnosticContext.put(&quot;request&quot;, requestId);
+ * executor = DiagnosticContext.wrap(executor);
+ * executor.submit(task); // task logs with request=...
+ * </pre>
+ *
+ * Keys keep the order they were first added in. The value set by
+ * {@link Logging#setLocalProperty(String)} is stored under
+ * {@link #LOCAL_PROPERTY_KEY} and is written without its key.
+ */
+public final class DiagnosticContext{
+  /** The key that {@link Logging#setLocalProperty(String)} stores its value under. */
+  public static final String LOCAL_PROPERTY_KEY = "localProperty";
+  /** A context with no keys. */
+  public static final DiagnosticContext EMPTY = new DiagnosticContext(new String[0], new String[0]);
+
+  private static final ThreadLocal<DiagnosticContext> current = new ThreadLocal<DiagnosticContext>();
+
+  private final String keys[];
+  private final String values[];
+
+  private DiagnosticContext(final String keys[], final String values[]){
+    this.keys = keys;
+    this.values = values;
+  }
+
+  /** @return the context attached to this thread, never null. */
+  public static DiagnosticContext current(){
+    final DiagnosticContext context = current.get();
+    return context == null ? EMPTY : context;
+  }
+
+  /** Attaches the given context to this thread. null is the same as {@link #EMPTY}. */
+  public static void set(final DiagnosticContext context){
+    if(context == null || context.isEmpty())
+      current.remove();
+    else
+      current.set(context);
+  }
+
+  /**
+   * Replaces this thread's context with one that has the given key set to the
+   * given value. A null value removes the key.
+   */
+  public static void put(final String key, final String value){
+    set(current().with(key, value));
+  }
+
+  /** Replaces this thread's context with one that doesn't have the given key. */
+  public static void remove(final String key){
+    set(current().without(key));
+  }
+
+  /** Removes every key from this thread's context. */
+  public static void clear(){
+    current.remove();
+  }
+
+  /**
+   * @return a context with the given key set to the given value, leaving this
+   *         one untouched. A null value is the same as {@link #without(String)}.
+   */
+  public DiagnosticContext with(final String key, final String value){
+    if(key == null)
+      throw new IllegalArgumentException("key cannot be null");
+    if(value == null)
+      return without(key);
+    final int index = indexOf(key);
+    if(index >= 0){
+      if(value.equals(values[index]))
+        return this;
+      final String newValues[] = values.clone();
+      newValues[index] = value;
+      return new DiagnosticContext(keys, newValues);
+    }
+    final String newKeys[] = new String[keys.length + 1];
+    final String newValues[] = new String[values.length + 1];
+    System.arraycopy(keys, 0, newKeys, 0, keys.length);
+    System.arraycopy(values, 0, newValues, 0, values.length);
+    newKeys[keys.length] = key;
+    newValues[values.length] = value;
+    return new DiagnosticContext(newKeys, newValues);
+  }
+
+  /** @return a context without the given key, leaving this one untouched. */
+  public DiagnosticContext without(final String key){
+    final int index = indexOf(key);
+    if(index < 0)
+      return this;
+    if(keys.length == 1)
+      return EMPTY;
+    final String newKeys[] = new String[keys.length - 1];
+    final String newValues[] = new String[values.length - 1];
+    System.arraycopy(keys, 0, newKeys, 0, index);
+    System.arraycopy(values, 0, newValues, 0, index);
+    System.arraycopy(keys, index + 1, newKeys, index, keys.length - index - 1);
+    System.arraycopy(values, index + 1, newValues, index, values.length - index - 1);
+    return new DiagnosticContext(newKeys, newValues);
+  }
+
+  /** @return the value for the given key, or null if it isn't set. */
+  public String get(final String key){
+    final int index = indexOf(key);
+    return index < 0 ? null : values[index];
+  }
+
+  public int size(){
+    return keys.length;
+  }
+
+  public boolean isEmpty(){
+    return keys.length == 0;
+  }
+
+  /** @return the index'th key, in the order the keys were added. */
+  public String getKey(final int index){
+    return keys[index];
+  }
+
+  /** @return the index'th value, in the order the keys were added. */
+  public String getValue(final int index){
+    return values[index];
+  }
+
+  private int indexOf(final String key){
+    for(int i = 0; i < keys.length; i++)
+      if(keys[i].equals(key))
+        return i;
+    return -1;
+  }
+
+  /**
+   * Writes the context as "value, key=value, key=value", where the first value
+   * is the local property if there is one.
+   */
+  public void appendTo(final Appendable out) throws IOException{
+    for(int i = 0; i < keys.length; i++){
+      if(i > 0)
+        out.append(", ");
+      if(!LOCAL_PROPERTY_KEY.equals(keys[i]))
+        out.append(keys[i]).append('=');
+      out.append(values[i]);
+    }
+  }
+
+  /** Same as {@link #appendTo(Appendable)}, for StringBuilders that can't throw. */
+  public void appendTo(final StringBuilder out){
+    for(int i = 0; i < keys.length; i++){
+      if(i > 0)
+        out.append(", ");
+      if(!LOCAL_PROPERTY_KEY.equals(keys[i]))
+        out.append(keys[i]).append('=');
+      out.append(values[i]);
+    }
+  }
+
+  @Override
+  public String toString(){
+    final StringBuilder out = new StringBuilder();
+    appendTo(out);
+    return out.toString();
+  }
+
+  /**
+   * @return a Runnable that runs the given task with this thread's current
+   *         context attached, then puts back whatever context the running
+   *         thread had before.
+   */
+  public static Runnable wrap(final Runnable task){
+    final DiagnosticContext captured = current();
+    return new Runnable(){
+      public void run(){
+        final DiagnosticContext previous = current.get();
+        set(captured);
+        try{
+          task.run();
+        }finally{
+          current.set(previous);
+        }
+      }
+    };
+  }
+
+  /** Same as {@link #wrap(Runnable)}, but for Callables. */
+  public static <T> Callable<T> wrap(final Callable<T> task){
+    final DiagnosticContext captured = current();
+    return new Callable<T>(){
+      public T call() throws Exception{
+        final DiagnosticContext previous = current.get();
+        set(captured);
+        try{
+          return task.call();
+        }finally{
+          current.set(previous);
+        }
+      }
+    };
+  }
+
+  /**
+   * @return an Executor that wraps every task with {@link #wrap(Runnable)} as
+   *         it is submitted, so tasks run with the submitting thread's context.
+   */
+  public static Executor wrap(final Executor executor){
+    return new Executor(){
+      public void execute(final Runnable command){
+        executor.execute(wrap(command));
+      }
+    };
+  }
+
+  /**
+   * @return an ExecutorService that wraps every task as it is submitted, so
+   *         tasks run with the submitting thread's context. Lifecycle calls go
+   *         straight through to the given service.
+   */
+  public static ExecutorService wrap(final ExecutorService executor){
+    return new ContextExecutorService(executor);
+  }
+
+  private static <T> List<Callable<T>> wrapAll(final Collection<? extends Callable<T>> tasks){
+    final List<Callable<T>> wrapped = new ArrayList<Callable<T>>(tasks.size());
+    for(final Callable<T> task : tasks)
+      wrapped.add(wrap(task));
+    return wrapped;
+  }
+
+  private static final class ContextExecutorService implements ExecutorService{
+    private final ExecutorService executor;
+
+    ContextExecutorService(final ExecutorService executor){
+      this.executor = executor;
+    }
+
+    public void execute(final Runnable command){
+      executor.execute(wrap(command));
+    }
+
+    public <T> Future<T> submit(final Callable<T> task){
+      return executor.submit(wrap(task));
+    }
+
+    public <T> Future<T> submit(final Runnable task, final T result){
+      return executor.submit(wrap(task), result);
+    }
+
+    public Future<?> submit(final Runnable task){
+      return executor.submit(wrap(task));
+    }
+
+    public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks) throws InterruptedException{
+      return executor.invokeAll(wrapAll(tasks));
+    }
+
+    public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks, final long timeout, final TimeUnit unit) throws InterruptedException{
+      return executor.invokeAll(wrapAll(tasks), timeout, unit);
+    }
+
+    public <T> T invokeAny(final Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException{
+      return executor.invokeAny(wrapAll(tasks));
+    }
+
+    public <T> T invokeAny(final Collection<? extends Callable<T>> tasks, final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException{
+      return executor.invokeAny(wrapAll(tasks), timeout, unit);
+    }
+
+    public void shutdown(){
+      executor.shutdown();
+    }
+
+    public List<Runnable> shutdownNow(){
+      return executor.shutdownNow();
+    }
+
+    public boolean isShutdown(){
+      return executor.isShutdown();
+    }
+
+    public boolean isTerminated(){
+      return executor.isTerminated();
+    }
+
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException{
+      return executor.awaitTermination(timeout, unit);
+    }
+  }
+}
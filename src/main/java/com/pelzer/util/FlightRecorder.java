@@ -0,0 +1,221 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.pelzer.util;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Keeps a small per-thread history of the logging events that were suppressed
+ * because their logger's priority was too low (DEBUG, VERBOSE, INFO, etc), so
+ * that when something goes wrong the lead-up can still be seen. Nothing is
+ * formatted when an event is recorded: the template, the replacement objects
+ * and the exception are simply held by reference in a fixed-size ring. When an
+ * ERROR or FATAL is logged on the same thread, or {@link #dump()} is called,
+ * the history is formatted through the normal handlers and cleared.
+ * <p>
+ * Enable it with <code>-Dpelzer.log.flightrecorder=200</code> (the number of
+ * events to keep per thread) or by calling {@link #enable(int)}. Since the
+ * replacement objects are held by reference, mutable objects will be rendered
+ * as they are at dump time, not as they were when the event was recorded.
+ */
+public final class FlightRecorder{
+  /** Events below this priority are never recorded. */
+  private static final Level LOWEST_RECORDED = Logging.Priority.VERBOSE.getLevel();
+  /** Events at or above this priority trigger a dump of the thread's history. */
+  private static final Level TRIGGER = Logging.Priority.ERROR.getLevel();
+
+  private static volatile int capacity = 0;
+  /** Bumped by {@link #disable()}, rings from an earlier generation are never replayed. */
+  private static volatile int generation = 0;
+  private static final LogRecord NO_RECORDS[] = new LogRecord[0];
+  private static final ThreadLocal<Ring> rings = new ThreadLocal<Ring>();
+  /**
+   * Every thread's ring, so disable() can clear them. Weak, so rings go with
+   * their threads. Rings are only touched by other threads under their own lock.
+   */
+  private static final Map<Thread, Ring> allRings = new WeakHashMap<Thread, Ring>();
+
+  private FlightRecorder(){
+  }
+
+  /**
+   * Starts recording up to the given number of suppressed events per thread.
+   * Calling with 0 is the same as calling {@link #disable()}.
+   */
+  public static void enable(final int eventsPerThread){
+    if(eventsPerThread < 0)
+      throw new IllegalArgumentException("eventsPerThread must be >= 0: " + eventsPerThread);
+    if(eventsPerThread == 0)
+      disable();
+    else
+      capacity = eventsPerThread;
+  }
+
+  /**
+   * Stops recording, and drops every thread's history so the objects in it
+   * can be collected. Nothing recorded before now is replayed, even if the
+   * recorder is enabled again.
+   */
+  public static void disable(){
+    synchronized(allRings){
+      capacity = 0;
+      generation++;
+      for(final Ring ring : allRings.values())
+        ring.clear();
+      allRings.clear();
+    }
+  }
+
+  /** @return true if suppressed events are currently being recorded. */
+  public static boolean isEnabled(){
+    return capacity > 0;
+  }
+
+  /**
+   * Writes out this thread's recorded history (oldest first) through the
+   * logging handlers, then clears it. Does nothing if there is no history.
+   */
+  public static void dump(){
+    final Ring ring = rings.get();
+    if(ring == null)
+      return;
+    // Taken out under the ring's lock, so disable() can't clear it half way,
+    // and published outside it
+    final LogRecord records[] = ring.drain(Thread.currentThread().getName());
+    if(records.length == 0)
+      return;
+    Logging.publishDirect(new Logging.LogEvent(Logging.Priority.WARN.getLevel(), FlightRecorder.class.getName(), "Flight recorder: replaying {} suppressed event(s) from this thread.", new Object[]{records.length}, null));
+    for(final LogRecord record : records)
+      Logging.publishDirect(record);
+  }
+
+  /** Throws away this thread's recorded history without writing it. */
+  public static void clear(){
+    final Ring ring = rings.get();
+    if(ring != null)
+      ring.clear();
+  }
+
+  static boolean isTrigger(final Logging.Priority priority){
+    return priority.getLevel().intValue() >= TRIGGER.intValue();
+  }
+
+  /**
+   * Called by {@link Logging.Logger} for each event that was suppressed by its
+   * priority. Doesn't format or copy anything.
+   */
+  static void record(final Logging.Logger logger, final String template, final Throwable ex, final Logging.Priority priority, final Object[] replacements){
+    final int currentCapacity = capacity;
+    if(currentCapacity <= 0 || priority.getLevel().intValue() < LOWEST_RECORDED.intValue())
+      return;
+    Ring ring = rings.get();
+    if(ring == null || ring.capacity() != currentCapacity || ring.generation != generation){
+      synchronized(allRings){
+        ring = new Ring(currentCapacity, generation);
+        allRings.put(Thread.currentThread(), ring);
+      }
+      rings.set(ring);
+    }
+    ring.add(System.currentTimeMillis(), logger.getName(), template, ex, priority, replacements, DiagnosticContext.current());
+  }
+
+  /**
+   * Fixed-size history kept as parallel arrays, so recording an event is a
+   * handful of array stores rather than an allocation. Synchronized, since
+   * {@link FlightRecorder#disable()} clears it from another thread; the lock
+   * is otherwise only ever taken by the owning thread, so it's uncontended.
+   */
+  private static final class Ring{
+    final long millis[];
+    final String loggerNames[];
+    final String templates[];
+    final Throwable thrown[];
+    final Logging.Priority priorities[];
+    final Object replacements[][];
+    final DiagnosticContext contexts[];
+    final int generation;
+    int next = 0;
+    int size = 0;
+
+    Ring(final int capacity, final int generation){
+      this.generation = generation;
+      millis = new long[capacity];
+      loggerNames = new String[capacity];
+      templates = new String[capacity];
+      thrown = new Throwable[capacity];
+      priorities = new Logging.Priority[capacity];
+      replacements = new Object[capacity][];
+      contexts = new DiagnosticContext[capacity];
+    }
+
+    int capacity(){
+      return millis.length;
+    }
+
+    synchronized void add(final long time, final String loggerName, final String template, final Throwable ex, final Logging.Priority priority, final Object[] objects, final DiagnosticContext context){
+      millis[next] = time;
+      loggerNames[next] = loggerName;
+      templates[next] = template;
+      thrown[next] = ex;
+      priorities[next] = priority;
+      replacements[next] = objects;
+      contexts[next] = context;
+      next = (next + 1) % capacity();
+      if(size < capacity())
+        size++;
+    }
+
+    /**
+     * @return the history as log records, oldest first, and clears it. Empty if
+     *         the recorder has been disabled since the ring was made.
+     */
+    synchronized LogRecord[] drain(final String threadName){
+      if(size == 0)
+        return NO_RECORDS;
+      if(generation != FlightRecorder.generation){
+        // Recorded as the recorder was being disabled
+        clear();
+        return NO_RECORDS;
+      }
+      final LogRecord records[] = new LogRecord[size];
+      int index = (next - size + capacity()) % capacity();
+      for(int i = 0; i < records.length; i++){
+        records[i] = new Logging.LogEvent(priorities[index].getLevel(), loggerNames[index], templates[index], replacements[index], thrown[index], threadName, contexts[index]);
+        records[i].setMillis(millis[index]);
+        index = (index + 1) % capacity();
+      }
+      clear();
+      return records;
+    }
+
+    /** Drops all references so recorded objects can be collected. */
+    synchronized void clear(){
+      for(int i = 0; i < capacity(); i++){
+        loggerNames[i] = null;
+        templates[i] = null;
+        thrown[i] = null;
+        priorities[i] = null;
+        replacements[i] = null;
+        contexts[i] = null;
+      }
+      next = 0;
+      size = 0;
+    }
+  }
+}
@@ -0,0 +1,479 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Table-driven hex encoding (00-FF, two uppercase chars per byte) and decoding (either case),
+ * between byte arrays, ByteBuffers, char arrays and CharSequences, without intermediate Strings.
+ * Also does the run-length compression used by {@link StringMan#compressHexString(String)} in the
+ * same pass as the encoding or decoding, and has stream wrappers for payloads too big to hold as
+ * text.
+ * <p>
+ * This class only depends on the JDK, so it's safe to use during static initialization (see
+ * {@link ObfuscationManager}).
+ */
+public final class HexCodec {
+  private static final char DIGITS[] = "0123456789ABCDEF".toCharArray();
+  /** The two hex chars for each byte value. */
+  private static final char HIGH[] = new char[256];
+  private static final char LOW[] = new char[256];
+  /** The value of each hex char, or -1. */
+  private static final byte NIBBLE[] = new byte[128];
+
+  /** The escape that starts a compressed run: '^', the repeated char, then the run length. */
+  static final char RUN = '^';
+  /** Run lengths, by index. The second '0' can't be reached, but is kept for compatibility. */
+  private static final String COUNT_CHARS = "abcdefghijklmnopqrstuvwxyz01234567890";
+  private static final int MAX_RUN = 35;
+  /** Runs shorter than this are written out as is. */
+  private static final int MIN_COMPRESSED_RUN = 4;
+  private static final byte COUNT_VALUE[] = new byte[128];
+
+  static {
+    for (int b = 0; b < 256; b++) {
+      HIGH[b] = DIGITS[b >>> 4];
+      LOW[b] = DIGITS[b & 0x0f];
+    }
+    Arrays.fill(NIBBLE, (byte) -1);
+    for (int i = 0; i < 10; i++)
+      NIBBLE['0' + i] = (byte) i;
+    for (int i = 0; i < 6; i++) {
+      NIBBLE['a' + i] = (byte) (10 + i);
+      NIBBLE['A' + i] = (byte) (10 + i);
+    }
+    Arrays.fill(COUNT_VALUE, (byte) -1);
+    for (int i = COUNT_CHARS.length() - 1; i >= 0; i--)
+      COUNT_VALUE[COUNT_CHARS.charAt(i)] = (byte) i;
+  }
+
+  private HexCodec() {
+  }
+
+  /** @return the value of the hex char c. */
+  public static int nibble(char c) {
+    int value = c < 128 ? NIBBLE[c] : -1;
+    if (value < 0)
+      throw new IllegalArgumentException("Invalid hex character: " + c);
+    return value;
+  }
+
+  // ---------------------------------------------------------------- encoding
+
+  /** @return the bytes as a hex string, two chars per byte. */
+  public static String encode(byte bytes[]) {
+    return encode(bytes, 0, bytes.length);
+  }
+
+  public static String encode(byte bytes[], int offset, int length) {
+    char out[] = new char[length * 2];
+    encode(bytes, offset, length, out, 0);
+    return new String(out);
+  }
+
+  /**
+   * Writes length * 2 hex chars into out, starting at outOffset.
+   *
+   * @return the index in out just past the last char written.
+   */
+  public static int encode(byte bytes[], int offset, int length, char out[], int outOffset) {
+    int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      int b = bytes[i] & 0xff;
+      out[outOffset++] = HIGH[b];
+      out[outOffset++] = LOW[b];
+    }
+    return outOffset;
+  }
+
+  /** Appends the bytes to out as hex. */
+  public static void encode(byte bytes[], int offset, int length, Appendable out) throws IOException {
+    if (out instanceof StringBuilder) {
+      StringBuilder builder = (StringBuilder) out;
+      builder.ensureCapacity(builder.length() + length * 2);
+      int end = offset + length;
+      for (int i = offset; i < end; i++) {
+        int b = bytes[i] & 0xff;
+        builder.append(HIGH[b]).append(LOW[b]);
+      }
+      return;
+    }
+    // Encode through a small buffer so Writers get a few big writes
+    char buffer[] = new char[Math.min(length, 512) * 2];
+    while (length > 0) {
+      int chunk = Math.min(length, buffer.length / 2);
+      encode(bytes, offset, chunk, buffer, 0);
+      append(out, buffer, chunk * 2);
+      offset += chunk;
+      length -= chunk;
+    }
+  }
+
+  /** Appends the start of the char array without making a String, where out allows it. */
+  private static void append(Appendable out, char chars[], int length) throws IOException {
+    if (out instanceof Writer)
+      ((Writer) out).write(chars, 0, length);
+    else if (out instanceof StringBuilder)
+      ((StringBuilder) out).append(chars, 0, length);
+    else
+      out.append(new CharArray(chars, length));
+  }
+
+  /** Appends the remaining bytes in the buffer to out as hex, leaving the buffer at its limit. */
+  public static void encode(ByteBuffer in, Appendable out) throws IOException {
+    if (in.hasArray()) {
+      encode(in.array(), in.arrayOffset() + in.position(), in.remaining(), out);
+      in.position(in.limit());
+      return;
+    }
+    byte chunk[] = new byte[Math.min(in.remaining(), 512)];
+    while (in.hasRemaining()) {
+      int length = Math.min(in.remaining(), chunk.length);
+      in.get(chunk, 0, length);
+      encode(chunk, 0, length, out);
+    }
+  }
+
+  // ---------------------------------------------------------------- decoding
+
+  /** @return the bytes for an uncompressed hex string. */
+  public static byte[] decode(CharSequence hex) {
+    return decode(hex, 0, hex.length());
+  }
+
+  public static byte[] decode(CharSequence hex, int start, int end) {
+    byte out[] = new byte[checkEven(end - start) / 2];
+    decode(hex, start, end, out, 0);
+    return out;
+  }
+
+  /**
+   * Decodes the hex chars from start to end into out, starting at outOffset.
+   *
+   * @return the index in out just past the last byte written.
+   */
+  public static int decode(CharSequence hex, int start, int end, byte out[], int outOffset) {
+    checkEven(end - start);
+    for (int i = start; i < end; i += 2)
+      out[outOffset++] = (byte) ((nibble(hex.charAt(i)) << 4) | nibble(hex.charAt(i + 1)));
+    return outOffset;
+  }
+
+  /** Same as {@link #decode(CharSequence, int, int, byte[], int)}, for char arrays. */
+  public static int decode(char hex[], int offset, int length, byte out[], int outOffset) {
+    checkEven(length);
+    int end = offset + length;
+    for (int i = offset; i < end; i += 2)
+      out[outOffset++] = (byte) ((nibble(hex[i]) << 4) | nibble(hex[i + 1]));
+    return outOffset;
+  }
+
+  /** Decodes the hex chars from start to end, putting the bytes into out. */
+  public static void decode(CharSequence hex, int start, int end, ByteBuffer out) {
+    checkEven(end - start);
+    if (out.hasArray()) {
+      int position = out.position();
+      if (out.remaining() < (end - start) / 2)
+        throw new BufferOverflowException();
+      decode(hex, start, end, out.array(), out.arrayOffset() + position);
+      out.position(position + (end - start) / 2);
+      return;
+    }
+    for (int i = start; i < end; i += 2)
+      out.put((byte) ((nibble(hex.charAt(i)) << 4) | nibble(hex.charAt(i + 1))));
+  }
+
+  private static int checkEven(int length) {
+    if ((length & 1) != 0)
+      throw new IllegalArgumentException("Hex strings need two characters per byte, got " + length + " characters.");
+    return length;
+  }
+
+  // ------------------------------------------------------------- compression
+
+  /**
+   * Very simplistic compression that encodes repeating characters into a smaller character, so
+   * '0000000000' becomes '^0j' where the '^' escapes the next two characters, '0' is the repeating
+   * character, and j encodes 10 repetitions. Runs of up to 3 are left alone, and runs longer than
+   * 35 are split.
+   */
+  public static String compress(CharSequence hex) {
+    StringBuilder out = new StringBuilder(hex.length());
+    RunLengthEncoder encoder = new RunLengthEncoder(out);
+    try {
+      for (int i = 0; i < hex.length(); i++)
+        encoder.put(hex.charAt(i));
+      encoder.finish();
+    } catch (IOException ex) {
+      // StringBuilders don't throw IOExceptions
+      throw new RuntimeException(ex);
+    }
+    return out.toString();
+  }
+
+  /** @return the bytes as hex, compressed as by {@link #compress(CharSequence)}, in one pass. */
+  public static String encodeCompressed(byte bytes[]) {
+    StringBuilder out = new StringBuilder(bytes.length * 2);
+    try {
+      encodeCompressed(bytes, 0, bytes.length, out);
+    } catch (IOException ex) {
+      // StringBuilders don't throw IOExceptions
+      throw new RuntimeException(ex);
+    }
+    return out.toString();
+  }
+
+  /** Appends the bytes to out as compressed hex, in one pass. */
+  public static void encodeCompressed(byte bytes[], int offset, int length, Appendable out) throws IOException {
+    RunLengthEncoder encoder = new RunLengthEncoder(out);
+    int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      int b = bytes[i] & 0xff;
+      encoder.put(HIGH[b]);
+      encoder.put(LOW[b]);
+    }
+    encoder.finish();
+  }
+
+  /** @return the result of expanding every run in a string made by {@link #compress(CharSequence)}. */
+  public static String decompress(CharSequence compressed) {
+    StringBuilder out = new StringBuilder(compressed.length() * 2);
+    int end = compressed.length();
+    for (int i = 0; i < end; i++) {
+      char c = compressed.charAt(i);
+      if (c != RUN)
+        out.append(c);
+      else {
+        c = compressed.charAt(i + 1);
+        for (int count = runLength(compressed.charAt(i + 2)); count > 0; count--)
+          out.append(c);
+        i += 2;
+      }
+    }
+    return out.toString();
+  }
+
+  /** @return the number of chars {@link #decompress(CharSequence)} would return. */
+  public static int decompressedLength(CharSequence compressed) {
+    int length = 0;
+    int end = compressed.length();
+    for (int i = 0; i < end; i++) {
+      if (compressed.charAt(i) != RUN)
+        length++;
+      else {
+        length += Math.max(0, runLength(compressed.charAt(i + 2)));
+        i += 2;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * @return the bytes for a hex string that may have been compressed by
+   *         {@link #compress(CharSequence)}, decompressing and decoding in the same pass.
+   */
+  public static byte[] decodeCompressed(CharSequence compressed) {
+    byte out[] = new byte[checkEven(decompressedLength(compressed)) / 2];
+    int high = -1;
+    int j = 0;
+    int end = compressed.length();
+    for (int i = 0; i < end; i++) {
+      char c = compressed.charAt(i);
+      int count = 1;
+      if (c == RUN) {
+        c = compressed.charAt(i + 1);
+        count = runLength(compressed.charAt(i + 2));
+        i += 2;
+      }
+      if (count <= 0)
+        continue;
+      int value = nibble(c);
+      for (; count > 0; count--) {
+        if (high < 0)
+          high = value;
+        else {
+          out[j++] = (byte) ((high << 4) | value);
+          high = -1;
+        }
+      }
+    }
+    return out;
+  }
+
+  /** Unknown run length chars count as 0, as they always have. */
+  private static int runLength(char c) {
+    return c < 128 ? COUNT_VALUE[c] : -1;
+  }
+
+  /** Groups repeated chars as they're put, writing each group out once it ends. */
+  private static final class RunLengthEncoder {
+    private final Appendable out;
+    private char last = ' ';
+    private int count = 0;
+
+    RunLengthEncoder(Appendable out) {
+      this.out = out;
+    }
+
+    void put(char c) throws IOException {
+      if (c == last && count < MAX_RUN) {
+        count++;
+        return;
+      }
+      if (count >= MIN_COMPRESSED_RUN)
+        out.append(RUN).append(last).append(COUNT_CHARS.charAt(count));
+      else
+        for (int j = 0; j < count; j++)
+          out.append(last);
+      count = 1;
+      last = c;
+    }
+
+    /**
+     * The original implementation ended its input with a '^' and dropped the last group, which
+     * was the '^' itself unless the input ended in '^'s. Doing the same keeps the output identical
+     * for every input.
+     */
+    void finish() throws IOException {
+      put(RUN);
+    }
+  }
+
+  // ----------------------------------------------------------------- streams
+
+  /** Writes every byte written to it as two hex chars on the given Appendable (a Writer, say). */
+  public static class EncodingOutputStream extends OutputStream {
+    private final Appendable out;
+    private final char pair[] = new char[2];
+
+    public EncodingOutputStream(Appendable out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      b &= 0xff;
+      pair[0] = HIGH[b];
+      pair[1] = LOW[b];
+      append(out, pair, 2);
+    }
+
+    @Override
+    public void write(byte bytes[], int offset, int length) throws IOException {
+      encode(bytes, offset, length, out);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (out instanceof Flushable)
+        ((Flushable) out).flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+      if (out instanceof Closeable)
+        ((Closeable) out).close();
+    }
+  }
+
+  /** Reads uncompressed hex chars from the given Reader and returns them as bytes. */
+  public static class DecodingInputStream extends InputStream {
+    private final Reader in;
+    private final char buffer[] = new char[1024];
+
+    public DecodingInputStream(Reader in) {
+      this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int high = in.read();
+      if (high < 0)
+        return -1;
+      int low = in.read();
+      if (low < 0)
+        throw new IOException("Hex stream ended halfway through a byte.");
+      return (nibble((char) high) << 4) | nibble((char) low);
+    }
+
+    @Override
+    public int read(byte bytes[], int offset, int length) throws IOException {
+      if (length == 0)
+        return 0;
+      int wanted = Math.min(length, buffer.length / 2) * 2;
+      int read = 0;
+      while (read < wanted) {
+        int count = in.read(buffer, read, wanted - read);
+        if (count < 0)
+          break;
+        read += count;
+        // Stop as soon as we have whole bytes, rather than blocking for more
+        if ((read & 1) == 0)
+          break;
+      }
+      if (read == 0)
+        return -1;
+      if ((read & 1) != 0)
+        throw new IOException("Hex stream ended halfway through a byte.");
+      decode(buffer, 0, read, bytes, offset);
+      return read / 2;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /** A CharSequence view over the start of a char array, for Appendable.append(). */
+  private static final class CharArray implements CharSequence {
+    private final char chars[];
+    private final int length;
+
+    CharArray(char chars[], int length) {
+      this.chars = chars;
+      this.length = length;
+    }
+
+    public int length() {
+      return length;
+    }
+
+    public char charAt(int index) {
+      return chars[index];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+      return new String(chars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      return new String(chars, 0, length);
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A separate limit on concurrency for every key, such as a customer, host or
+ * file, without keeping a {@link SafeSemaphore} around for every key ever
+ * seen. Each key's semaphore is made when somebody first asks for it, and
+ * dropped again as soon as nobody holds or is waiting for one of its permits,
+ * so memory follows the keys in use rather than the keys seen.
+ *
+ * <pre>
+ * KeyedSemaphore&lt;String&gt; perHost = new KeyedSemaphore&lt;String&gt;(4);
+ * try (SafeSemaphore.Permit permit = perHost.acquire(url.getHost())) {
+ *   fetch(url);
+ * }
+ * </pre>
+ *
+ * The permits are ordinary {@link SafeSemaphore.Permit}s, with the same leak
+ * protection. Each key's semaphore counts its users with an atomic reference
+ * count, so taking a free permit is a map lookup and a couple of
+ * compare-and-sets, with no locking. The per-key semaphores don't keep the
+ * acquire counts or wait histogram a plain SafeSemaphore does, so making one
+ * for an idle key is a few small objects.
+ */
+public class KeyedSemaphore<K> {
+  private final ConcurrentMap<K, KeySemaphore> semaphores = new ConcurrentHashMap<K, KeySemaphore>();
+  private final int permitsPerKey;
+  private volatile double leakSampleRate = -1;
+
+  /** @param permitsPerKey how many permits each key has. */
+  public KeyedSemaphore(int permitsPerKey) {
+    if (permitsPerKey <= 0)
+      throw new IllegalArgumentException("permitsPerKey must be positive: " + permitsPerKey);
+    this.permitsPerKey = permitsPerKey;
+  }
+
+  /** Wait until a permit is available for the key, and take one. */
+  public SafeSemaphore.Permit acquire(K key) throws InterruptedException {
+    return acquire(key, 1);
+  }
+
+  /** Wait until the given number of permits are available for the key, and take them all. */
+  public SafeSemaphore.Permit acquire(K key, int permits) throws InterruptedException {
+    KeySemaphore semaphore = enter(key);
+    SafeSemaphore.Permit permit = null;
+    try {
+      permit = semaphore.acquire(permits);
+      return permit;
+    } finally {
+      if (permit == null)
+        semaphore.leave();
+    }
+  }
+
+  /** Same as {@link #acquire(Object)}, but won't throw an InterruptedException. */
+  public SafeSemaphore.Permit acquireUninterruptibly(K key) {
+    KeySemaphore semaphore = enter(key);
+    SafeSemaphore.Permit permit = null;
+    try {
+      permit = semaphore.acquireUninterruptibly();
+      return permit;
+    } finally {
+      if (permit == null)
+        semaphore.leave();
+    }
+  }
+
+  /** @return a permit for the key if one is available right now, otherwise null. */
+  public SafeSemaphore.Permit tryAcquire(K key) {
+    KeySemaphore semaphore = enter(key);
+    SafeSemaphore.Permit permit = semaphore.tryAcquire();
+    if (permit == null)
+      semaphore.leave();
+    return permit;
+  }
+
+  /** @return a permit for the key, or null if none became available within the timeout. */
+  public SafeSemaphore.Permit tryAcquire(K key, long timeout, TimeUnit unit) throws InterruptedException {
+    return tryAcquire(key, 1, timeout, unit);
+  }
+
+  /** Same as {@link #tryAcquire(Object, long, TimeUnit)}, for the given number of permits. */
+  public SafeSemaphore.Permit tryAcquire(K key, int permits, long timeout, TimeUnit unit) throws InterruptedException {
+    KeySemaphore semaphore = enter(key);
+    SafeSemaphore.Permit permit = null;
+    try {
+      permit = semaphore.tryAcquire(permits, timeout, unit);
+      return permit;
+    } finally {
+      if (permit == null)
+        semaphore.leave();
+    }
+  }
+
+  /** @return the permits available for the key right now, which is all of them for a key nobody is using. */
+  public int availablePermits(K key) {
+    KeySemaphore semaphore = semaphores.get(key);
+    return semaphore == null ? permitsPerKey : semaphore.availablePermits();
+  }
+
+  /** @return the number of keys with permits held or waited for. */
+  public int size() {
+    return semaphores.size();
+  }
+
+  public int getPermitsPerKey() {
+    return permitsPerKey;
+  }
+
+  /** Sets the leak sample rate of every key's semaphore made from now on, see {@link SafeSemaphore#setLeakSampleRate(double)}. */
+  public void setLeakSampleRate(double rate) {
+    leakSampleRate = rate;
+  }
+
+  /** @return the key's semaphore, with this thread counted as one of its users. */
+  private KeySemaphore enter(K key) {
+    while (true) {
+      KeySemaphore semaphore = semaphores.get(key);
+      if (semaphore == null) {
+        KeySemaphore created = new KeySemaphore(key);
+        semaphore = semaphores.putIfAbsent(key, created);
+        if (semaphore == null)
+          semaphore = created;
+      }
+      if (semaphore.retain())
+        return semaphore;
+      // It emptied out and is being removed, make another
+    }
+  }
+
+  /**
+   * One key's semaphore. The count of its users goes up before anybody waits
+   * on it and down as each permit comes back, and when it gets to zero the
+   * semaphore is marked dead and taken out of the map, so it's never handed
+   * out again.
+   */
+  private final class KeySemaphore extends SafeSemaphore {
+    private static final int DEAD = -1;
+    private final K key;
+    private final AtomicInteger users = new AtomicInteger();
+
+    KeySemaphore(K key) {
+      super(permitsPerKey, false);
+      this.key = key;
+      double rate = leakSampleRate;
+      if (rate >= 0)
+        setLeakSampleRate(rate);
+    }
+
+    boolean retain() {
+      while (true) {
+        int count = users.get();
+        if (count == DEAD)
+          return false;
+        if (users.compareAndSet(count, count + 1))
+          return true;
+      }
+    }
+
+    void leave() {
+      if (users.decrementAndGet() == 0 && users.compareAndSet(0, DEAD))
+        semaphores.remove(key, this);
+    }
+
+    @Override
+    protected void released(int permits, long heldNanos, boolean failed) {
+      leave();
+    }
+  }
+}
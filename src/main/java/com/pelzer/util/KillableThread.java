@@ -15,6 +15,9 @@
  */
 package com.pelzer.util;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 /** There is no built-in mechanism for stopping threads in Java, so this class is a simple 
  * fix for the issue. Any thread that you need another thread to be able to signal to 
  * shut down should have a run() method that looks something like this:
@@ -23,18 +26,58 @@ package com.pelzer.util;
  *  run(){
  *  	while(!die){
  *  		doSomething();
- *  		sleep(...);
+ *  		pause(...);
  *  	}
  *  }</pre>
  *  
  *  Another thread can then request the killable thread shut down gracefully by doing the following:
  *  
  *  <pre>
- *  killableThread.die = true;
+ *  killableThread.kill();
  *  killableThread.waitFor();
  *  </pre>
+ *  
+ *  Loops that sleep() rather than pause() still work, but only notice they've been killed once 
+ *  the sleep is over. New code should extend {@link Worker} instead, which does the looping 
+ *  itself, can be handed work with a {@link QueueWorker}, and can be stopped alongside others 
+ *  with a {@link WorkerGroup}.
  */
 public abstract class KillableThread extends Thread {
   /** Implementing classes should watch this value, and terminate gracefully if it ever becomes true. */
   public volatile boolean die = false;
+
+  public KillableThread() {
+    super();
+  }
+
+  public KillableThread(String name) {
+    super(name);
+  }
+
+  /** Sets {@link #die}, and wakes the thread if it's in {@link #pause(long)}. Returns without waiting. */
+  public void kill() {
+    die = true;
+    LockSupport.unpark(this);
+  }
+
+  /** Waits for the thread to finish. */
+  public void waitFor() throws InterruptedException {
+    join();
+  }
+
+  /** @return true if the thread finished within the timeout. */
+  public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+    unit.timedJoin(this, timeout);
+    return !isAlive();
+  }
+
+  /**
+   * Use in place of sleep(): waits for the given number of millis, but
+   * returns as soon as the thread is killed or interrupted.
+   */
+  protected void pause(long millis) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    for (long remaining; !die && !isInterrupted() && (remaining = deadline - System.nanoTime()) > 0;)
+      LockSupport.parkNanos(this, remaining);
+  }
 }
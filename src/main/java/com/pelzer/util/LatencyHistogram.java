@@ -0,0 +1,185 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.pelzer.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of non-negative long values (usually nanoseconds),
+ * for percentiles like p50/p99/p999 without keeping the samples around.
+ * Buckets are log-linear in the style of HdrHistogram: values below
+ * 2^precisionBits each get their own bucket, and every power of two above that
+ * is split into 2^(precisionBits-1) equal buckets, so any recorded value is
+ * reported to within 1/2^(precisionBits-1) of itself. With the default of 6
+ * bits that's about 3%, in 1920 buckets covering the whole range of a long.
+ * <p>
+ * Recording never allocates and is safe from any number of threads. Reads
+ * taken while other threads are recording are not an atomic snapshot.
+ */
+public class LatencyHistogram{
+  public static final int DEFAULT_PRECISION_BITS = 6;
+
+  private final int precisionBits;
+  private final int subBucketCount;
+  private final int subBucketHalfCount;
+  private final AtomicLongArray counts;
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong max = new AtomicLong(0);
+
+  /** Creates a histogram with {@link #DEFAULT_PRECISION_BITS}. */
+  public LatencyHistogram(){
+    this(DEFAULT_PRECISION_BITS);
+  }
+
+  /**
+   * @param precisionBits
+   *          between 2 and 16. Each extra bit halves the reporting error and
+   *          doubles the memory used.
+   */
+  public LatencyHistogram(final int precisionBits){
+    if(precisionBits < 2 || precisionBits > 16)
+      throw new IllegalArgumentException("precisionBits must be between 2 and 16: " + precisionBits);
+    this.precisionBits = precisionBits;
+    subBucketCount = 1 << precisionBits;
+    subBucketHalfCount = subBucketCount >> 1;
+    counts = new AtomicLongArray(subBucketCount + (64 - precisionBits) * subBucketHalfCount);
+  }
+
+  public int getPrecisionBits(){
+    return precisionBits;
+  }
+
+  /** Records the given value. Negative values are recorded as 0. */
+  public void record(long value){
+    if(value < 0)
+      value = 0;
+    counts.getAndIncrement(indexFor(value));
+    sum.getAndAdd(value);
+    long current;
+    while(value > (current = max.get()) && !max.compareAndSet(current, value)){
+    }
+    while(value < (current = min.get()) && !min.compareAndSet(current, value)){
+    }
+  }
+
+  private int indexFor(final long value){
+    if(value < subBucketCount)
+      return (int) value;
+    final int shift = 64 - Long.numberOfLeadingZeros(value) - precisionBits;
+    return subBucketCount + (shift - 1) * subBucketHalfCount + (int) (value >>> shift) - subBucketHalfCount;
+  }
+
+  /** @return the largest value that falls in the given bucket. */
+  private long highestValueAt(final int index){
+    if(index < subBucketCount)
+      return index;
+    final int offset = index - subBucketCount;
+    final int shift = offset / subBucketHalfCount + 1;
+    final long top = offset % subBucketHalfCount + subBucketHalfCount;
+    return ((top + 1) << shift) - 1;
+  }
+
+  /** @return the number of values recorded. */
+  public long getCount(){
+    long count = 0;
+    for(int i = 0; i < counts.length(); i++)
+      count += counts.get(i);
+    return count;
+  }
+
+  /** @return the sum of all values recorded. */
+  public long getSum(){
+    return sum.get();
+  }
+
+  /** @return the mean of all values recorded, or 0 if there are none. */
+  public double getMean(){
+    final long count = getCount();
+    return count == 0 ? 0 : (double) sum.get() / count;
+  }
+
+  /** @return the smallest value recorded (exact), or 0 if there are none. */
+  public long getMin(){
+    final long value = min.get();
+    return value == Long.MAX_VALUE ? 0 : value;
+  }
+
+  /** @return the largest value recorded (exact), or 0 if there are none. */
+  public long getMax(){
+    return max.get();
+  }
+
+  /**
+   * @param percentile
+   *          0 to 100, so 99.9 for the p999
+   * @return the value that the given percentage of recorded values are less
+   *         than or equal to, to within this histogram's precision. 0 if
+   *         nothing has been recorded.
+   */
+  public long getPercentile(final double percentile){
+    final long count = getCount();
+    if(count == 0)
+      return 0;
+    final double clamped = Math.min(100, Math.max(0, percentile));
+    final long target = Math.max(1, (long) Math.ceil(clamped / 100 * count));
+    long seen = 0;
+    for(int i = 0; i < counts.length(); i++){
+      seen += counts.get(i);
+      if(seen >= target)
+        return Math.min(highestValueAt(i), getMax());
+    }
+    return getMax();
+  }
+
+  /**
+   * Adds everything recorded in other into this histogram. Both must have the
+   * same precision.
+   */
+  public void add(final LatencyHistogram other){
+    if(other.precisionBits != precisionBits)
+      throw new IllegalArgumentException("Cannot add a histogram with " + other.precisionBits + " precision bits to one with " + precisionBits);
+    for(int i = 0; i < counts.length(); i++){
+      final long count = other.counts.get(i);
+      if(count != 0)
+        counts.getAndAdd(i, count);
+    }
+    sum.getAndAdd(other.sum.get());
+    long current;
+    final long otherMax = other.max.get();
+    while(otherMax > (current = max.get()) && !max.compareAndSet(current, otherMax)){
+    }
+    final long otherMin = other.min.get();
+    while(otherMin < (current = min.get()) && !min.compareAndSet(current, otherMin)){
+    }
+  }
+
+  /** Forgets everything recorded so far. */
+  public void reset(){
+    for(int i = 0; i < counts.length(); i++)
+      counts.set(i, 0);
+    sum.set(0);
+    min.set(Long.MAX_VALUE);
+    max.set(0);
+  }
+
+  /** @return count, mean, p50, p99, p999 and max, in the recorded units. */
+  @Override
+  public String toString(){
+    return "count=" + getCount() + " mean=" + Math.round(getMean()) + " p50=" + getPercentile(50) + " p99=" + getPercentile(99) + " p999=" + getPercentile(99.9) + " max=" + getMax();
+  }
+}
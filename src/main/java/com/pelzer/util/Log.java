@@ -13,6 +13,8 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.HashMap;
+import java.util.Map;
 
 @java.lang.annotation.Documented
 @Retention(RetentionPolicy.SOURCE)
@@ -29,6 +31,15 @@ public @interface Log{
 
     private static final ClassNode LOGGING_CLASSNODE = ClassHelper.make(com.pelzer.util.Logging.class);
     private static final ClassNode LOGGER_CLASSNODE = ClassHelper.make(com.pelzer.util.Logging.Logger.class);
+    /** Each logging method, and the Logger method that says whether it's enabled. */
+    private static final Map<String, String> GUARDS = new HashMap<String, String>();
+    static{
+      GUARDS.put("debug", "isDebugEnabled");
+      GUARDS.put("info", "isInfoEnabled");
+      GUARDS.put("warn", "isWarnEnabled");
+      GUARDS.put("error", "isErrorEnabled");
+      GUARDS.put("fatal", "isFatalEnabled");
+    }
 
     protected PelzerUtilLoggingStrategy(final GroovyClassLoader loader){
       super(loader);
@@ -49,20 +60,39 @@ public @interface Log{
     }
 
     public boolean isLoggingMethod(String methodName){
-      return methodName.matches("fatal|error|warn|info|debug");
+      return GUARDS.containsKey(methodName);
     }
 
+    /**
+     * Wraps every logging call in its isXxxEnabled() check, so nothing in the
+     * call (GStrings included) is evaluated when the level is off. A call whose
+     * only argument is a GString becomes <code>log.xxx("{}", gstring)</code>, so
+     * the GString is only turned into a String if the event is written.
+     */
     public Expression wrapLoggingMethodCall(Expression logVariable, String methodName, Expression originalExpression){
-      if("debug".equals(methodName)){
-        MethodCallExpression mce = new MethodCallExpression(logVariable, "isDebugEnabled", ArgumentListExpression.EMPTY_ARGUMENTS);
-        mce.setImplicitThis(false);
-        return new TernaryExpression(new BooleanExpression(mce), originalExpression, ConstantExpression.EMPTY_EXPRESSION);
-      }else if("info".equals(methodName)){
-        MethodCallExpression mce = new MethodCallExpression(logVariable, "isInfoEnabled", ArgumentListExpression.EMPTY_ARGUMENTS);
-        mce.setImplicitThis(false);
-        return new TernaryExpression(new BooleanExpression(mce), originalExpression, ConstantExpression.EMPTY_EXPRESSION);
-      }else
+      final String guard = GUARDS.get(methodName);
+      if(guard == null)
         return originalExpression;
+      MethodCallExpression mce = new MethodCallExpression(logVariable, guard, ArgumentListExpression.EMPTY_ARGUMENTS);
+      mce.setImplicitThis(false);
+      return new TernaryExpression(new BooleanExpression(mce), makeLazy(originalExpression), ConstantExpression.EMPTY_EXPRESSION);
+    }
+
+    private static Expression makeLazy(Expression expression){
+      if(!(expression instanceof MethodCallExpression))
+        return expression;
+      final MethodCallExpression call = (MethodCallExpression) expression;
+      if(!(call.getArguments() instanceof ArgumentListExpression))
+        return expression;
+      final ArgumentListExpression arguments = (ArgumentListExpression) call.getArguments();
+      if(arguments.getExpressions().size() != 1 || !(arguments.getExpression(0) instanceof GStringExpression))
+        return expression;
+      final MethodCallExpression lazy = new MethodCallExpression(call.getObjectExpression(), call.getMethod(), new ArgumentListExpression(new ConstantExpression("{}"), arguments.getExpression(0)));
+      lazy.setImplicitThis(call.isImplicitThis());
+      lazy.setSafe(call.isSafe());
+      lazy.setSpreadSafe(call.isSpreadSafe());
+      lazy.setSourcePosition(call);
+      return lazy;
     }
   }
 }
@@ -1,5 +1,8 @@
 package com.pelzer.util;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import com.pelzer.util.Logging.Logger;
 import com.pelzer.util.Logging.Priority;
 
@@ -52,10 +55,28 @@ public class Log4JConfigurer {
         return null;
       }
 
+      /** Our logger for each log4j category, so we only look each one up once. */
+      private final ConcurrentMap<String, Logger> loggers = new ConcurrentHashMap<String, Logger>();
+
+      /**
+       * Checks the level before touching the message, and hands the message
+       * over as a replacement so it's only rendered if it actually gets written.
+       */
       @Override
       public void doAppend(org.apache.log4j.spi.LoggingEvent event) {
-        Logger logger = Logging.getLogger(event.getLoggerName());
-        logger.genericLog(event.getMessage() + "", event.getThrowableInformation() == null ? null : event.getThrowableInformation().getThrowable(), convertPriority(event.getLevel()));
+        final String category = event.getLoggerName();
+        Logger logger = loggers.get(category);
+        if (logger == null) {
+          logger = Logging.getLogger(category);
+          loggers.put(category, logger);
+        }
+        final Priority priority = convertPriority(event.getLevel());
+        if (!FlightRecorder.isEnabled() && !logger.logger.isLoggable(priority.getLevel())) {
+          Logging.getMetrics().recordSuppressed();
+          return;
+        }
+        final org.apache.log4j.spi.ThrowableInformation throwable = event.getThrowableInformation();
+        logger.genericLog("{}", throwable == null ? null : throwable.getThrowable(), priority, event.getMessage());
       }
 
       private Priority convertPriority(org.apache.log4j.Level level) {
@@ -15,26 +15,31 @@
  */
 package com.pelzer.util;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.*;
 
+import javax.management.ObjectName;
+
 /**
  * The Logging system is used to output informational and logging messages to
  * the console. Uses the java.util.logging system.
  */
 public final class Logging{
+  private static final LoggingMetrics metrics = new LoggingMetrics();
   private static Logger loggingLogger = new Logger(java.util.logging.Logger.getLogger(Logging.class.getName()));
   static java.util.logging.Logger rootLogger = java.util.logging.Logger.getLogger("");
   private static volatile boolean mute = false;
   private static boolean logMethodNames = false;
-  private static StreamHandler streamHandler = new StreamHandler(System.out, new LogFormatter());
-  private static ThreadLocal<String> localProperty = new ThreadLocal<String>();
+  private static StreamHandler streamHandler = new StreamHandler(System.out, createFormatter());
   private static Map<String, Logging.Logger> loggerCache = new WeakHashMap<String, Logger>();
 
   static{
@@ -44,12 +49,31 @@ public final class Logging{
     // Enable method-name logging?
     logMethodNames = StringMan.isStringTrue(System.getProperty("pelzer.log.methods"));
 
+    // Keep a per-thread history of suppressed events to replay on errors?
+    final String flightRecorderEvents = System.getProperty("pelzer.log.flightrecorder");
+    if(flightRecorderEvents != null)
+      try{
+        FlightRecorder.enable(Integer.parseInt(flightRecorderEvents.trim()));
+      }catch(final NumberFormatException ex){
+        System.out.println("Ignoring pelzer.log.flightrecorder='" + flightRecorderEvents + "', expected a number of events.");
+      }
+
+    // Write binary events for the loggers that ask for it?
+    final String binaryLog = System.getProperty("pelzer.log.binary");
+    if(binaryLog != null)
+      try{
+        BinaryLog.open(new File(binaryLog));
+        System.out.println("Binary loggers will now write to '" + binaryLog + "'");
+      }catch(final IOException ex){
+        System.out.println("IOException while opening '" + binaryLog + "' for binary logging, binary loggers will write text instead.");
+      }
+
     // Set up a rolling log file?
     final String logfile = System.getProperty("pelzer.log");
     if(logfile != null)
       try{
         final FileHandler fileHandler = new FileHandler(logfile, 2000000000, 5, false);
-        fileHandler.setFormatter(new LogFormatter());
+        fileHandler.setFormatter(createFormatter());
         fileHandler.setErrorManager(new SimpleErrorManager());
         // If we got this far, the file got opened correctly to set our only
         // handler to be the fileHandler.
@@ -68,7 +92,7 @@ public final class Logging{
 
     // Set up our own formatter...
     streamHandler.setLevel(Priority.ALL.getLevel());
-    rootLogger.addHandler(streamHandler);
+    rootLogger.addHandler(new MeteredHandler(streamHandler));
     java.util.logging.Logger.getLogger("com.pelzer").setLevel(Priority.ALL.getLevel());
 
     if(StringMan.isStringTrue(PropertyManager.getProperty("pelzer.log.configurelog4j"))){
@@ -80,23 +104,92 @@ public final class Logging{
       }
     }
     loggingLogger.info("Build Info: Build #" + PropertyManager.getBuildNumber() + " - " + PropertyManager.getProperty("", "build.date") + " (" + PropertyManager.getProperty("", "build.user") + ")");
+
+    // Publish the metrics to JMX, and optionally log them every so often
+    try{
+      ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("com.pelzer.util:type=Logging"));
+    }catch(final Exception ex){
+      loggingLogger.warn("Unable to register logging metrics with JMX.", ex);
+    }
+    final String metricsInterval = System.getProperty("pelzer.log.metrics.interval");
+    if(metricsInterval != null)
+      try{
+        metrics.reportEvery(Long.parseLong(metricsInterval.trim()));
+      }catch(final NumberFormatException ex){
+        loggingLogger.warn("Ignoring pelzer.log.metrics.interval='{}', expected a number of seconds.", metricsInterval);
+      }
     loggingLogger.info("Logging is now initialized.");
   }
 
+  /**
+   * @return the counters and latency histograms for the logging system
+   *         itself. The same object is registered in JMX as
+   *         <code>com.pelzer.util:type=Logging</code>.
+   */
+  public static LoggingMetrics getMetrics(){
+    return metrics;
+  }
+
+  /**
+   * @return the local property set on this thread, or null. Shortcut for
+   *         <code>DiagnosticContext.current().get(DiagnosticContext.LOCAL_PROPERTY_KEY)</code>
+   */
   public static String getLocalProperty(){
-    return localProperty.get();
+    return DiagnosticContext.current().get(DiagnosticContext.LOCAL_PROPERTY_KEY);
   }
 
   /**
    * Sets a threadlocal String that will be included in logged statements when non-null. Clear this by setting to null.
+   * This is stored in the thread's {@link DiagnosticContext}, which can hold any number of other keys as well.
    */
   public static void setLocalProperty(String localProperty){
-    Logging.localProperty.set(localProperty);
+    DiagnosticContext.put(DiagnosticContext.LOCAL_PROPERTY_KEY, localProperty);
   }
 
   private Logging(){
   }
 
+  /**
+   * @return a {@link JSONFormatter} if -Dpelzer.log.format=json, otherwise the
+   *         usual text {@link LogFormatter}.
+   */
+  private static Formatter createFormatter(){
+    if("json".equalsIgnoreCase(System.getProperty("pelzer.log.format")))
+      return new JSONFormatter();
+    return new LogFormatter();
+  }
+
+  /**
+   * Replaces each "{}" in the message with the next replacement object, the
+   * same way the Logger methods do.
+   */
+  static String formatMessage(final String message, final Object... objects){
+    if(objects == null || objects.length == 0)
+      return message;
+    final String replacements[] = new String[objects.length];
+    for(int i = 0; i < objects.length; i++)
+      replacements[i] = (objects[i] == null) ? "null" : objects[i].toString();
+    return StringMan.replace(message, "{}", replacements);
+  }
+
+  /**
+   * Hands the record straight to the root handlers, bypassing the level checks
+   * of the logger it names. Used to replay history from the
+   * {@link FlightRecorder}.
+   */
+  static void publishDirect(final LogRecord record){
+    for(final Handler handler : rootLogger.getHandlers())
+      handler.publish(record);
+    flush();
+  }
+
+  /** Flushes the stream handler, timing it into the metrics. */
+  private static void flush(){
+    final long start = System.nanoTime();
+    streamHandler.flush();
+    metrics.recordFlush(System.nanoTime() - start);
+  }
+
   /**
    * This is the new, official way to get a logger from the Logging system.
    * Returns a custom wrapper class that allows the normal debug(), info(),
@@ -198,6 +291,7 @@ public final class Logging{
       }
 
       log = new Logging.Logger(logger);
+      log.binary = StringMan.isStringTrue(PropertyManager.getProperty(logPath + node, "binary"));
       loggerCache.put(node, log);
     }
 
@@ -214,6 +308,7 @@ public final class Logging{
     java.util.logging.Logger logger;
 
     private Level unmutedLevel = null;
+    private transient volatile boolean binary = false;
 
     /**
      * Mutes this particular logger. Has no effect if already muted (safe to
@@ -239,6 +334,19 @@ public final class Logging{
       this.logger = logger;
     }
 
+    /**
+     * Sends this logger's events to the {@link BinaryLog} instead of
+     * formatting them, whenever the binary log is open. Can also be set with
+     * <code>com.pelzer.util.Logging.&lt;node&gt;.binary=true</code>.
+     */
+    public void setBinary(final boolean binary){
+      this.binary = binary;
+    }
+
+    public boolean isBinary(){
+      return binary;
+    }
+
     /**
      * Since our underlying logging architecture is not serializable, we have to
      * manually serialize this object... We only send the name of this node,
@@ -250,7 +358,9 @@ public final class Logging{
     }
 
     private void readObject(final java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException{
-      logger = Logging.getLogger(in.readObject().toString()).logger;
+      final Logger cached = Logging.getLogger(in.readObject().toString());
+      logger = cached.logger;
+      binary = cached.binary;
     }
 
     public boolean isDebugEnabled(){
@@ -261,18 +371,49 @@ public final class Logging{
       return logger.isLoggable(Priority.INFO.getLevel());
     }
 
-    void genericLog(String message, final Throwable ex, final Priority priority, final Object... objects){
-      if(!mute){
-        final String replacements[] = new String[objects.length];
-        for(int i = 0; i < objects.length; i++)
-          replacements[i] = (objects[i] == null) ? "null" : objects[i].toString();
-        message = StringMan.replace(message, "{}", replacements);
-        if(ex == null)
-          logger.log(priority.getLevel(), message);
-        else
-          logger.log(priority.getLevel(), message, ex);
-        streamHandler.flush();
+    public boolean isWarnEnabled(){
+      return logger.isLoggable(Priority.WARN.getLevel());
+    }
+
+    public boolean isErrorEnabled(){
+      return logger.isLoggable(Priority.ERROR.getLevel());
+    }
+
+    public boolean isFatalEnabled(){
+      return logger.isLoggable(Priority.FATAL.getLevel());
+    }
+
+    /**
+     * Single funnel for every logging call. Events below this logger's level
+     * are handed to the {@link FlightRecorder} (when it is enabled) without
+     * being formatted, and an ERROR or FATAL replays the recorder's history for
+     * this thread before the event itself is written. Binary loggers hand the
+     * unformatted event to the {@link BinaryLog} while it's open.
+     */
+    void genericLog(final String message, final Throwable ex, final Priority priority, final Object... objects){
+      if(mute){
+        metrics.recordDropped();
+        return;
+      }
+      if(!logger.isLoggable(priority.getLevel())){
+        metrics.recordSuppressed();
+        if(FlightRecorder.isEnabled())
+          FlightRecorder.record(this, message, ex, priority, objects);
+        return;
       }
+      if(FlightRecorder.isEnabled() && FlightRecorder.isTrigger(priority))
+        FlightRecorder.dump();
+      if(binary && BinaryLog.isOpen()){
+        BinaryLog.write(logger.getName(), priority.getLevel(), message, ex, objects);
+        metrics.recordWritten(priority.getLevel());
+        return;
+      }
+      logger.log(new LogEvent(priority.getLevel(), logger.getName(), message, objects, ex));
+      flush();
+    }
+
+    String getName(){
+      return logger.getName();
     }
 
     /**
@@ -298,8 +439,6 @@ public final class Logging{
      * </pre>
      */
     public void debug(final String message, final Object... replacementTokens){
-      if(!isDebugEnabled())
-        return;
       genericLog(message, null, Priority.DEBUG, replacementTokens);
     }
 
@@ -326,8 +465,6 @@ public final class Logging{
      * </pre>
      */
     public void debug(final String message, final Throwable ex, final Object... replacementTokens){
-      if(!isDebugEnabled())
-        return;
       genericLog(message, ex, Priority.DEBUG, replacementTokens);
     }
 
@@ -354,8 +491,6 @@ public final class Logging{
      * </pre>
      */
     public void info(final String message, final Object... replacementTokens){
-      if(!isInfoEnabled())
-        return;
       genericLog(message, null, Priority.INFO, replacementTokens);
     }
 
@@ -382,8 +517,6 @@ public final class Logging{
      * </pre>
      */
     public void info(final String message, final Throwable ex, final Object... replacementTokens){
-      if(!isInfoEnabled())
-        return;
       genericLog(message, ex, Priority.INFO, replacementTokens);
     }
 
@@ -547,21 +680,66 @@ public final class Logging{
   private static final class SimpleErrorManager extends ErrorManager{
     @Override
     public synchronized void error(final String msg, final Exception ex, final int code){
+      metrics.recordDropped();
       System.out.println("ERROR: " + msg);
     }
   }
 
+  /**
+   * Sits between the root logger and the stream handler, counting what gets
+   * written and timing how long each thread waits for its turn to write.
+   */
+  private static final class MeteredHandler extends Handler{
+    private final Handler handler;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    MeteredHandler(final Handler handler){
+      this.handler = handler;
+      setLevel(handler.getLevel());
+    }
+
+    @Override
+    public void publish(final LogRecord record){
+      if(lock.tryLock())
+        metrics.recordLockWait(0);
+      else{
+        final long start = System.nanoTime();
+        lock.lock();
+        metrics.recordLockWait(System.nanoTime() - start);
+      }
+      try{
+        handler.publish(record);
+      }finally{
+        lock.unlock();
+      }
+      metrics.recordWritten(record.getLevel());
+    }
+
+    @Override
+    public void flush(){
+      handler.flush();
+    }
+
+    @Override
+    public void close(){
+      handler.close();
+    }
+  }
+
   public static final class LogFormatter extends Formatter{
     @Override
     public final String format(final LogRecord record){
       final StringBuilder buffer = new StringBuilder(512);
       final StringBuilder header = new StringBuilder(100);
-      final String localProperty = Logging.getLocalProperty();
+      final DiagnosticContext context = getContext(record);
 
       header.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS").format(new Date(record.getMillis())));
-      header.append(" [").append(Thread.currentThread().getName()).append("] ");
-      if(localProperty != null)
-        header.append("{").append(localProperty).append("} ");
+      header.append(" [").append(getThreadName(record)).append("] ");
+      if(!context.isEmpty()){
+        header.append("{");
+        context.appendTo(header);
+        header.append("} ");
+      }
       header.append(getDescriptionForLevel(record.getLevel()));
       header.append(" ");
       header.append(record.getLoggerName());
@@ -596,6 +774,7 @@ public final class Logging{
           buffer.append("ERROR PRINTING STACK TRACE! ").append(ex.getMessage()).append("\n");
         }
 
+      metrics.recordCharacters(buffer.length());
       return buffer.toString();
     }
 
@@ -631,7 +810,7 @@ public final class Logging{
       return "";
     }
 
-    private String getDescriptionForLevel(final Level level){
+    private static String getDescriptionForLevel(final Level level){
       // Put the three most likely levels first
       if(level == Level.FINE)
         return "DEBUG";
@@ -655,6 +834,339 @@ public final class Logging{
     }
   }
 
+  /** @return the thread name captured by a {@link LogEvent}, or the current thread's name. */
+  static String getThreadName(final LogRecord record){
+    if(record instanceof LogEvent)
+      return ((LogEvent) record).getThreadName();
+    return Thread.currentThread().getName();
+  }
+
+  /** @return the context captured by a {@link LogEvent}, or the current thread's. */
+  static DiagnosticContext getContext(final LogRecord record){
+    if(record instanceof LogEvent)
+      return ((LogEvent) record).getContext();
+    return DiagnosticContext.current();
+  }
+
+  /**
+   * The LogRecord created for every event that makes it past a Logger's
+   * priority check. It keeps the original "{}" template and replacement objects
+   * so structured formatters can write them out as-is, and only builds the
+   * replaced message the first time {@link #getMessage()} is called. The
+   * thread name and {@link DiagnosticContext} are captured when the event is
+   * created.
+   */
+  public static final class LogEvent extends LogRecord{
+    private static final long serialVersionUID = 1L;
+    private final String template;
+    private final transient Object arguments[];
+    private final String threadName;
+    private final DiagnosticContext context;
+    private boolean formatted = false;
+
+    LogEvent(final Level level, final String loggerName, final String template, final Object arguments[], final Throwable thrown){
+      this(level, loggerName, template, arguments, thrown, Thread.currentThread().getName(), DiagnosticContext.current());
+    }
+
+    LogEvent(final Level level, final String loggerName, final String template, final Object arguments[], final Throwable thrown, final String threadName, final DiagnosticContext context){
+      super(level, template);
+      this.template = template;
+      this.arguments = arguments;
+      this.threadName = threadName;
+      this.context = context;
+      setLoggerName(loggerName);
+      setThrown(thrown);
+    }
+
+    /** @return the message with its "{}" tokens still in place. */
+    public String getTemplate(){
+      return template;
+    }
+
+    /** @return the replacement objects, unformatted. Do not modify. */
+    public Object[] getArguments(){
+      return arguments;
+    }
+
+    public String getThreadName(){
+      return threadName;
+    }
+
+    public DiagnosticContext getContext(){
+      return context;
+    }
+
+    @Override
+    public String getMessage(){
+      if(!formatted){
+        super.setMessage(formatMessage(template, arguments));
+        formatted = true;
+      }
+      return super.getMessage();
+    }
+
+    @Override
+    public void setMessage(final String message){
+      super.setMessage(message);
+      formatted = true;
+    }
+  }
+
+  /**
+   * Writes one JSON object per record, one record per line, for log shippers
+   * that would otherwise have to pick apart the {@link LogFormatter} text. The
+   * fields are timestamp (ISO-8601, UTC), thread, context (the thread's
+   * {@link DiagnosticContext}, when not empty), level, logger, template, arguments and exception (with its
+   * frames and causes). Select it for the built-in handler with
+   * -Dpelzer.log.format=json, or set it on any other Handler with
+   * handler.setFormatter(new Logging.JSONFormatter()).
+   * <p>
+   * Handlers that own a Writer can call {@link #format(LogRecord, Appendable)}
+   * directly, which streams the record without building any intermediate
+   * Strings for the fixed fields.
+   */
+  public static final class JSONFormatter extends Formatter{
+    private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>(){
+      @Override
+      protected StringBuilder initialValue(){
+        return new StringBuilder(512);
+      }
+    };
+    private static final int MAX_CAUSES = 16;
+
+    @Override
+    public String format(final LogRecord record){
+      final StringBuilder buffer = buffers.get();
+      buffer.setLength(0);
+      try{
+        format(record, buffer);
+      }catch(final IOException ex){
+        // StringBuilder doesn't throw IOExceptions
+        throw new RuntimeException(ex);
+      }
+      final String line = buffer.toString();
+      if(buffer.capacity() > 65536)
+        buffers.remove();
+      metrics.recordCharacters(line.length());
+      return line;
+    }
+
+    /** Streams the given record to out as a single line of JSON, including the trailing '\n'. */
+    public void format(final LogRecord record, final Appendable out) throws IOException{
+      out.append("{\"timestamp\":\"");
+      appendTimestamp(record.getMillis(), out);
+      out.append("\",\"thread\":");
+      appendString(getThreadName(record), out);
+      final DiagnosticContext context = getContext(record);
+      if(!context.isEmpty()){
+        out.append(",\"context\":{");
+        for(int i = 0; i < context.size(); i++){
+          if(i > 0)
+            out.append(',');
+          appendString(context.getKey(i), out);
+          out.append(':');
+          appendString(context.getValue(i), out);
+        }
+        out.append('}');
+      }
+      out.append(",\"level\":");
+      appendString(LogFormatter.getDescriptionForLevel(record.getLevel()), out);
+      out.append(",\"logger\":");
+      appendString(record.getLoggerName(), out);
+      out.append(",\"template\":");
+      final Object arguments[];
+      if(record instanceof LogEvent){
+        appendString(((LogEvent) record).getTemplate(), out);
+        arguments = ((LogEvent) record).getArguments();
+      }else{
+        appendString(record.getMessage(), out);
+        arguments = record.getParameters();
+      }
+      if(arguments != null && arguments.length > 0){
+        out.append(",\"arguments\":[");
+        for(int i = 0; i < arguments.length; i++){
+          if(i > 0)
+            out.append(',');
+          appendValue(arguments[i], out);
+        }
+        out.append(']');
+      }
+      if(record.getThrown() != null){
+        out.append(",\"exception\":");
+        appendThrowable(record.getThrown(), out);
+      }
+      out.append("}\n");
+    }
+
+    private void appendThrowable(final Throwable thrown, final Appendable out) throws IOException{
+      Throwable current = thrown;
+      int depth = 0;
+      while(current != null && depth < MAX_CAUSES){
+        if(depth > 0)
+          out.append(",\"cause\":");
+        out.append("{\"class\":");
+        appendString(current.getClass().getName(), out);
+        if(current.getMessage() != null){
+          out.append(",\"message\":");
+          appendString(current.getMessage(), out);
+        }
+        out.append(",\"frames\":[");
+        final StackTraceElement frames[] = current.getStackTrace();
+        for(int i = 0; i < frames.length; i++){
+          if(i > 0)
+            out.append(',');
+          appendFrame(frames[i], out);
+        }
+        out.append(']');
+        final Throwable cause = current.getCause();
+        current = (cause == current) ? null : cause;
+        depth++;
+      }
+      for(int i = 0; i < depth; i++)
+        out.append('}');
+    }
+
+    /** Writes the frame the same way StackTraceElement.toString() would, but without the String. */
+    private void appendFrame(final StackTraceElement frame, final Appendable out) throws IOException{
+      out.append('"');
+      appendEscaped(frame.getClassName(), out);
+      out.append('.');
+      appendEscaped(frame.getMethodName(), out);
+      out.append('(');
+      if(frame.isNativeMethod())
+        out.append("Native Method");
+      else if(frame.getFileName() == null)
+        out.append("Unknown Source");
+      else{
+        appendEscaped(frame.getFileName(), out);
+        if(frame.getLineNumber() >= 0){
+          out.append(':');
+          appendLong(frame.getLineNumber(), out);
+        }
+      }
+      out.append(")\"");
+    }
+
+    private void appendValue(final Object value, final Appendable out) throws IOException{
+      if(value == null)
+        out.append("null");
+      else if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+        appendLong(((Number) value).longValue(), out);
+      else if(value instanceof Boolean)
+        out.append(((Boolean) value).booleanValue() ? "true" : "false");
+      else
+        appendString(value.toString(), out);
+    }
+
+    private void appendString(final CharSequence value, final Appendable out) throws IOException{
+      if(value == null){
+        out.append("null");
+        return;
+      }
+      out.append('"');
+      appendEscaped(value, out);
+      out.append('"');
+    }
+
+    private void appendEscaped(final CharSequence value, final Appendable out) throws IOException{
+      final int length = value.length();
+      int cleanStart = 0;
+      for(int i = 0; i < length; i++){
+        final char c = value.charAt(i);
+        if(c >= 0x20 && c != '"' && c != '\\')
+          continue;
+        out.append(value, cleanStart, i);
+        switch(c){
+          case '"':
+            out.append("\\\"");
+            break;
+          case '\\':
+            out.append("\\\\");
+            break;
+          case '\n':
+            out.append("\\n");
+            break;
+          case '\r':
+            out.append("\\r");
+            break;
+          case '\t':
+            out.append("\\t");
+            break;
+          default:
+            out.append("\\u00");
+            out.append(HEX[c >> 4]).append(HEX[c & 0xf]);
+        }
+        cleanStart = i + 1;
+      }
+      out.append(value, cleanStart, length);
+    }
+
+    private static final char HEX[] = "0123456789abcdef".toCharArray();
+
+    private static void appendLong(long value, final Appendable out) throws IOException{
+      if(value == Long.MIN_VALUE){
+        out.append("-9223372036854775808");
+        return;
+      }
+      if(value < 0){
+        out.append('-');
+        value = -value;
+      }
+      long divisor = 1;
+      while(value / divisor >= 10)
+        divisor *= 10;
+      for(; divisor > 0; divisor /= 10)
+        out.append((char) ('0' + (value / divisor) % 10));
+    }
+
+    private static void appendPadded(final long value, final int width, final Appendable out) throws IOException{
+      long limit = 1;
+      for(int i = 1; i < width; i++)
+        limit *= 10;
+      for(long divisor = limit; divisor > 1 && value < divisor; divisor /= 10)
+        out.append('0');
+      appendLong(value, out);
+    }
+
+    /**
+     * Writes the given epoch millis as yyyy-MM-ddTHH:mm:ss.SSSZ (UTC) using
+     * integer arithmetic only.
+     */
+    static void appendTimestamp(final long millis, final Appendable out) throws IOException{
+      long days = millis / 86400000L;
+      long millisOfDay = millis % 86400000L;
+      if(millisOfDay < 0){
+        millisOfDay += 86400000L;
+        days--;
+      }
+      // Civil-from-days, proleptic Gregorian calendar
+      final long shifted = days + 719468;
+      final long era = (shifted >= 0 ? shifted : shifted - 146096) / 146097;
+      final long dayOfEra = shifted - era * 146097;
+      final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+      final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+      final long monthIndex = (5 * dayOfYear + 2) / 153;
+      final long day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+      final long month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+      final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+      appendPadded(year, 4, out);
+      out.append('-');
+      appendPadded(month, 2, out);
+      out.append('-');
+      appendPadded(day, 2, out);
+      out.append('T');
+      appendPadded(millisOfDay / 3600000L, 2, out);
+      out.append(':');
+      appendPadded((millisOfDay / 60000L) % 60, 2, out);
+      out.append(':');
+      appendPadded((millisOfDay / 1000L) % 60, 2, out);
+      out.append('.');
+      appendPadded(millisOfDay % 1000L, 3, out);
+      out.append('Z');
+    }
+  }
+
   /**
    * This class has been added to wrap the older Log4j-style priorities into the
    * SDK-style Levels. The only way to access this class is to use the static
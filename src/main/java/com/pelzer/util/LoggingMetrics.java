@@ -0,0 +1,212 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.pelzer.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Counters and latency histograms for the {@link Logging} system itself, so you
+ * can tell when logging is the bottleneck. Get the instance from
+ * {@link Logging#getMetrics()}, or look at <code>com.pelzer.util:type=Logging</code>
+ * in JMX. Run with -Dpelzer.log.metrics.interval=60 to have a summary logged
+ * every 60 seconds to the <code>com.pelzer.util.LoggingMetrics</code> logger
+ * (at INFO).
+ * <ul>
+ * <li>records: events written to the handlers, per priority
+ * <li>characters: the length of everything the pelzer formatters have produced
+ * <li>suppressed: events thrown away because their logger's priority was too low
+ * <li>dropped: events thrown away because logging was muted, or lost to a handler error
+ * <li>flush: time spent flushing the handler after each event, in nanos
+ * <li>lock wait: time spent waiting for another thread to finish writing, in nanos
+ * </ul>
+ */
+public final class LoggingMetrics implements LoggingMetricsMBean{
+  /** Slots for OBNOXIOUS through FATAL, then one for anything else. */
+  private static final Level LEVELS[] = new Level[]{Level.FINEST, Level.FINER, Level.FINE, Level.CONFIG, Level.INFO, Level.WARNING, Level.SEVERE};
+
+  private final StripedCounter records[] = new StripedCounter[LEVELS.length + 1];
+  private final StripedCounter characters = new StripedCounter();
+  private final StripedCounter suppressed = new StripedCounter();
+  private final StripedCounter dropped = new StripedCounter();
+  private final LatencyHistogram flushNanos = new LatencyHistogram();
+  private final LatencyHistogram lockWaitNanos = new LatencyHistogram();
+  private ScheduledExecutorService reporter = null;
+
+  LoggingMetrics(){
+    for(int i = 0; i < records.length; i++)
+      records[i] = new StripedCounter();
+  }
+
+  private static int slotFor(final Level level){
+    for(int i = 0; i < LEVELS.length; i++)
+      if(LEVELS[i] == level)
+        return i;
+    return LEVELS.length;
+  }
+
+  void recordWritten(final Level level){
+    records[slotFor(level)].increment();
+  }
+
+  void recordCharacters(final int count){
+    characters.add(count);
+  }
+
+  void recordSuppressed(){
+    suppressed.increment();
+  }
+
+  void recordDropped(){
+    dropped.increment();
+  }
+
+  void recordFlush(final long nanos){
+    flushNanos.record(nanos);
+  }
+
+  void recordLockWait(final long nanos){
+    lockWaitNanos.record(nanos);
+  }
+
+  /** @return the number of events written at the given priority. */
+  public long getRecordCount(final Logging.Priority priority){
+    return records[slotFor(priority.getLevel())].sum();
+  }
+
+  public long getRecordsWritten(){
+    long total = 0;
+    for(final StripedCounter counter : records)
+      total += counter.sum();
+    return total;
+  }
+
+  public long getDebugRecords(){
+    return getRecordCount(Logging.Priority.DEBUG);
+  }
+
+  public long getInfoRecords(){
+    return getRecordCount(Logging.Priority.INFO);
+  }
+
+  public long getWarnRecords(){
+    return getRecordCount(Logging.Priority.WARN);
+  }
+
+  public long getErrorRecords(){
+    return getRecordCount(Logging.Priority.ERROR);
+  }
+
+  public long getFatalRecords(){
+    return getRecordCount(Logging.Priority.FATAL);
+  }
+
+  public long getCharactersWritten(){
+    return characters.sum();
+  }
+
+  public long getSuppressedEvents(){
+    return suppressed.sum();
+  }
+
+  public long getDroppedEvents(){
+    return dropped.sum();
+  }
+
+  /** @return the handler flush times, in nanos. */
+  public LatencyHistogram getFlushNanos(){
+    return flushNanos;
+  }
+
+  /** @return the time spent waiting on the handler lock, in nanos. */
+  public LatencyHistogram getLockWaitNanos(){
+    return lockWaitNanos;
+  }
+
+  public long getFlushCount(){
+    return flushNanos.getCount();
+  }
+
+  public double getFlushMeanMicros(){
+    return flushNanos.getMean() / 1000;
+  }
+
+  public double getFlushP99Micros(){
+    return flushNanos.getPercentile(99) / 1000d;
+  }
+
+  public double getFlushMaxMicros(){
+    return flushNanos.getMax() / 1000d;
+  }
+
+  public double getLockWaitMeanMicros(){
+    return lockWaitNanos.getMean() / 1000;
+  }
+
+  public double getLockWaitP99Micros(){
+    return lockWaitNanos.getPercentile(99) / 1000d;
+  }
+
+  public double getLockWaitMaxMicros(){
+    return lockWaitNanos.getMax() / 1000d;
+  }
+
+  /** Zeroes every counter and histogram. */
+  public void reset(){
+    for(final StripedCounter counter : records)
+      counter.reset();
+    characters.reset();
+    suppressed.reset();
+    dropped.reset();
+    flushNanos.reset();
+    lockWaitNanos.reset();
+  }
+
+  /**
+   * Starts logging {@link #toString()} every intervalSeconds to the
+   * <code>com.pelzer.util.LoggingMetrics</code> logger, replacing any earlier
+   * schedule. 0 stops reporting.
+   */
+  public synchronized void reportEvery(final long intervalSeconds){
+    if(reporter != null){
+      reporter.shutdownNow();
+      reporter = null;
+    }
+    if(intervalSeconds <= 0)
+      return;
+    reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+      public Thread newThread(final Runnable runnable){
+        final Thread thread = new Thread(runnable, "pelzer-logging-metrics");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    final Logging.Logger log = Logging.getLogger(LoggingMetrics.class);
+    reporter.scheduleAtFixedRate(new Runnable(){
+      public void run(){
+        log.info("{}", LoggingMetrics.this);
+      }
+    }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public String toString(){
+    return "records=" + getRecordsWritten() + " (debug=" + getDebugRecords() + " info=" + getInfoRecords() + " warn=" + getWarnRecords() + " error=" + getErrorRecords() + " fatal=" + getFatalRecords() + ") characters=" + getCharactersWritten() + " suppressed=" + getSuppressedEvents() + " dropped=" + getDroppedEvents() + " flushNanos[" + flushNanos + "] lockWaitNanos[" + lockWaitNanos + "]";
+  }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.pelzer.util;
+
+/**
+ * JMX view of {@link LoggingMetrics}, registered as
+ * <code>com.pelzer.util:type=Logging</code>.
+ */
+public interface LoggingMetricsMBean{
+  long getRecordsWritten();
+
+  long getDebugRecords();
+
+  long getInfoRecords();
+
+  long getWarnRecords();
+
+  long getErrorRecords();
+
+  long getFatalRecords();
+
+  long getCharactersWritten();
+
+  long getSuppressedEvents();
+
+  long getDroppedEvents();
+
+  long getFlushCount();
+
+  double getFlushMeanMicros();
+
+  double getFlushP99Micros();
+
+  double getFlushMaxMicros();
+
+  double getLockWaitMeanMicros();
+
+  double getLockWaitP99Micros();
+
+  double getLockWaitMaxMicros();
+
+  void reset();
+}
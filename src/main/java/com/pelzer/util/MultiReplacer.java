@@ -0,0 +1,367 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces any number of needles in one scan of the haystack, instead of one
+ * {@link StringMan#replace(String, String, String)} pass per needle. Build one from a map of
+ * needle to replacement, keep it around, and share it between threads:
+ *
+ * <pre>
+ * private static final MultiReplacer ENTITIES = new MultiReplacer(map);
+ * ...
+ * String clean = ENTITIES.replace(dirty);
+ * </pre>
+ *
+ * Matching is leftmost-longest: at each point the match that starts earliest wins, ties go to the
+ * longest needle, and replaced text is never matched again. So with needles "a", "ab" and "bc",
+ * "abc" matches "ab" and leaves the "c". Note this differs from chaining replace() calls, where
+ * each call sees the output of the one before.
+ * <p>
+ * Internally this is an Aho-Corasick automaton, with a full transition table for ASCII and
+ * sorted edge lists for everything else. Each character is usually read once. The exception is
+ * a match found while a longer needle that starts at or before it is still in progress: once
+ * that turns out not to match, the text read past the end of the match is read again. That's
+ * less than the longest needle each time, so the worst case is O(haystack length * longest
+ * needle), e.g. needles "a" and "aaaaaaab" over a long run of 'a's. When no needle contains
+ * another, it's a single pass.
+ */
+public final class MultiReplacer {
+  private static final int ASCII = 128;
+
+  /** Full DFA transitions for ASCII characters, states * 128. */
+  private final int asciiNext[];
+  /** Trie edges for non-ASCII characters, sorted by character, per state. */
+  private final char wideChars[][];
+  private final int wideNext[][];
+  private final int fail[];
+  private final int depth[];
+  /** Length of the longest needle that ends at each state, or 0. */
+  private final int matchLength[];
+  private final String matchReplacement[];
+  private final boolean hasWide;
+
+  /**
+   * @param replacements
+   *          needle to replacement. Needles can't be null or empty, replacements can't be null.
+   */
+  public MultiReplacer(Map<String, String> replacements) {
+    // Build the trie
+    List<int[]> asciiEdges = new ArrayList<int[]>();
+    List<StringBuilder> wideEdgeChars = new ArrayList<StringBuilder>();
+    List<List<Integer>> wideEdgeTargets = new ArrayList<List<Integer>>();
+    List<Integer> depths = new ArrayList<Integer>();
+    List<String> terminal = new ArrayList<String>();
+    addState(asciiEdges, wideEdgeChars, wideEdgeTargets, depths, terminal, 0);
+    boolean wide = false;
+    for (Map.Entry<String, String> entry : replacements.entrySet()) {
+      String needle = entry.getKey();
+      if (needle == null || needle.length() == 0)
+        throw new IllegalArgumentException("Needles cannot be null or empty.");
+      if (entry.getValue() == null)
+        throw new IllegalArgumentException("Replacement for '" + needle + "' cannot be null.");
+      int state = 0;
+      for (int i = 0; i < needle.length(); i++) {
+        char c = needle.charAt(i);
+        int next;
+        if (c < ASCII) {
+          next = asciiEdges.get(state)[c];
+          if (next < 0) {
+            next = addState(asciiEdges, wideEdgeChars, wideEdgeTargets, depths, terminal, i + 1);
+            asciiEdges.get(state)[c] = next;
+          }
+        } else {
+          wide = true;
+          int index = wideEdgeChars.get(state).indexOf(String.valueOf(c));
+          if (index < 0) {
+            next = addState(asciiEdges, wideEdgeChars, wideEdgeTargets, depths, terminal, i + 1);
+            wideEdgeChars.get(state).append(c);
+            wideEdgeTargets.get(state).add(next);
+          } else
+            next = wideEdgeTargets.get(state).get(index);
+        }
+        state = next;
+      }
+      terminal.set(state, entry.getValue());
+    }
+    hasWide = wide;
+
+    int states = depths.size();
+    asciiNext = new int[states * ASCII];
+    wideChars = new char[states][];
+    wideNext = new int[states][];
+    fail = new int[states];
+    depth = new int[states];
+    matchLength = new int[states];
+    matchReplacement = new String[states];
+    for (int state = 0; state < states; state++) {
+      depth[state] = depths.get(state);
+      char chars[] = wideEdgeChars.get(state).toString().toCharArray();
+      List<Integer> targets = wideEdgeTargets.get(state);
+      // Sort the wide edges by character so they can be binary searched
+      long packed[] = new long[chars.length];
+      for (int i = 0; i < chars.length; i++)
+        packed[i] = ((long) chars[i] << 32) | targets.get(i);
+      Arrays.sort(packed);
+      wideChars[state] = new char[chars.length];
+      wideNext[state] = new int[chars.length];
+      for (int i = 0; i < chars.length; i++) {
+        wideChars[state][i] = (char) (packed[i] >>> 32);
+        wideNext[state][i] = (int) packed[i];
+      }
+    }
+
+    // Breadth first, fill in the failure links, the ASCII DFA and the longest match per state
+    int queue[] = new int[states];
+    int head = 0, tail = 0;
+    int rootEdges[] = asciiEdges.get(0);
+    for (int c = 0; c < ASCII; c++) {
+      int next = rootEdges[c];
+      asciiNext[c] = next < 0 ? 0 : next;
+      if (next > 0) {
+        fail[next] = 0;
+        queue[tail++] = next;
+      }
+    }
+    for (int next : wideNext[0]) {
+      fail[next] = 0;
+      queue[tail++] = next;
+    }
+    while (head < tail) {
+      int state = queue[head++];
+      if (terminal.get(state) != null) {
+        matchLength[state] = depth[state];
+        matchReplacement[state] = terminal.get(state);
+      } else {
+        matchLength[state] = matchLength[fail[state]];
+        matchReplacement[state] = matchReplacement[fail[state]];
+      }
+      int edges[] = asciiEdges.get(state);
+      for (int c = 0; c < ASCII; c++) {
+        int next = edges[c];
+        if (next < 0)
+          asciiNext[state * ASCII + c] = asciiNext[fail[state] * ASCII + c];
+        else {
+          asciiNext[state * ASCII + c] = next;
+          fail[next] = asciiNext[fail[state] * ASCII + c];
+          queue[tail++] = next;
+        }
+      }
+      for (int i = 0; i < wideChars[state].length; i++) {
+        int next = wideNext[state][i];
+        fail[next] = wideStep(fail[state], wideChars[state][i]);
+        queue[tail++] = next;
+      }
+    }
+  }
+
+  private static int addState(List<int[]> asciiEdges, List<StringBuilder> wideEdgeChars, List<List<Integer>> wideEdgeTargets, List<Integer> depths, List<String> terminal, int depth) {
+    int edges[] = new int[ASCII];
+    Arrays.fill(edges, -1);
+    asciiEdges.add(edges);
+    wideEdgeChars.add(new StringBuilder(0));
+    wideEdgeTargets.add(new ArrayList<Integer>(0));
+    depths.add(depth);
+    terminal.add(null);
+    return depths.size() - 1;
+  }
+
+  /** Follows failure links until some state has an edge for c, or we're back at the root. */
+  private int wideStep(int state, char c) {
+    while (true) {
+      int index = Arrays.binarySearch(wideChars[state], c);
+      if (index >= 0)
+        return wideNext[state][index];
+      if (state == 0)
+        return 0;
+      state = fail[state];
+    }
+  }
+
+  private int step(int state, char c) {
+    if (c < ASCII)
+      return asciiNext[state * ASCII + c];
+    if (!hasWide)
+      return 0;
+    return wideStep(state, c);
+  }
+
+  /** @return the haystack with every needle replaced, or the haystack itself if nothing matched. */
+  public String replace(String haystack) {
+    if (haystack == null)
+      return null;
+    StringBuilderSink sink = new StringBuilderSink(null, haystack);
+    try {
+      scan(haystack, sink);
+    } catch (IOException ex) {
+      // StringBuilders don't throw IOExceptions
+      throw new RuntimeException(ex);
+    }
+    return sink.out == null ? haystack : sink.out.toString();
+  }
+
+  /** Appends the haystack to out, with every needle replaced. */
+  public void replace(CharSequence haystack, StringBuilder out) {
+    try {
+      scan(haystack, new StringBuilderSink(out, haystack));
+    } catch (IOException ex) {
+      // StringBuilders don't throw IOExceptions
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /** Appends the haystack to out, with every needle replaced. */
+  public void replace(CharSequence haystack, Appendable out) throws IOException {
+    if (out instanceof StringBuilder)
+      replace(haystack, (StringBuilder) out);
+    else if (out instanceof Writer)
+      replace(haystack, (Writer) out);
+    else
+      scan(haystack, new AppendableSink(out, haystack));
+  }
+
+  /** Writes the haystack to out, with every needle replaced. */
+  public void replace(CharSequence haystack, Writer out) throws IOException {
+    scan(haystack, haystack instanceof String ? new StringWriterSink(out, (String) haystack) : new AppendableSink(out, haystack));
+  }
+
+  /**
+   * Runs the automaton over the haystack. A match isn't written out until no match that starts at
+   * or before it can still be in progress, at which point scanning resumes just after it, from the
+   * root. Anything read past the match while waiting is read again, since matches in it were judged
+   * against the pending match rather than against each other.
+   */
+  private void scan(CharSequence haystack, Sink sink) throws IOException {
+    int length = haystack.length();
+    int written = 0;
+    int state = 0;
+    int pendingStart = -1, pendingEnd = -1;
+    String pendingReplacement = null;
+    int i = 0;
+    while (true) {
+      if (i < length) {
+        state = step(state, haystack.charAt(i));
+        int matched = matchLength[state];
+        if (matched > 0) {
+          int start = i - matched + 1;
+          if (pendingStart < 0 || start < pendingStart || (start == pendingStart && i > pendingEnd)) {
+            pendingStart = start;
+            pendingEnd = i;
+            pendingReplacement = matchReplacement[state];
+          }
+        }
+        i++;
+        // Anything still in progress started at i - depth, after the pending match?
+        if (pendingStart < 0 || i - depth[state] <= pendingStart)
+          continue;
+      } else if (pendingStart < 0)
+        break;
+
+      sink.text(written, pendingStart);
+      sink.replacement(pendingReplacement);
+      written = pendingEnd + 1;
+      i = written;
+      state = 0;
+      pendingStart = -1;
+      pendingReplacement = null;
+    }
+    sink.text(written, length);
+  }
+
+  /** Where scan() sends its output. */
+  private abstract static class Sink {
+    abstract void text(int start, int end) throws IOException;
+
+    abstract void replacement(String replacement) throws IOException;
+  }
+
+  /** Only creates its StringBuilder once there's a replacement, if it wasn't given one. */
+  private static final class StringBuilderSink extends Sink {
+    private StringBuilder out;
+    private final CharSequence haystack;
+
+    StringBuilderSink(StringBuilder out, CharSequence haystack) {
+      this.out = out;
+      this.haystack = haystack;
+    }
+
+    @Override
+    void text(int start, int end) {
+      if (start == 0 && end == haystack.length() && out == null)
+        return;
+      if (out == null)
+        out = new StringBuilder(haystack.length() + 16);
+      out.append(haystack, start, end);
+    }
+
+    @Override
+    void replacement(String replacement) {
+      if (out == null)
+        out = new StringBuilder(haystack.length() + 16);
+      out.append(replacement);
+    }
+  }
+
+  private static final class AppendableSink extends Sink {
+    private final Appendable out;
+    private final CharSequence haystack;
+
+    AppendableSink(Appendable out, CharSequence haystack) {
+      this.out = out;
+      this.haystack = haystack;
+    }
+
+    @Override
+    void text(int start, int end) throws IOException {
+      if (start < end)
+        out.append(haystack, start, end);
+    }
+
+    @Override
+    void replacement(String replacement) throws IOException {
+      out.append(replacement);
+    }
+  }
+
+  /** Writer.write(String, int, int) copies straight out of the String without a substring. */
+  private static final class StringWriterSink extends Sink {
+    private final Writer out;
+    private final String haystack;
+
+    StringWriterSink(Writer out, String haystack) {
+      this.out = out;
+      this.haystack = haystack;
+    }
+
+    @Override
+    void text(int start, int end) throws IOException {
+      if (start < end)
+        out.write(haystack, start, end - start);
+    }
+
+    @Override
+    void replacement(String replacement) throws IOException {
+      out.write(replacement);
+    }
+  }
+}
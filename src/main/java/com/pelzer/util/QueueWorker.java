@@ -0,0 +1,95 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A {@link Worker} that processes items handed to it with
+ * {@link #submit(Object)}, one at a time and in order, and parks when there's
+ * nothing to do. Items submitted before {@link #stop()} are still processed,
+ * unless the worker is stopped with {@link #stopNow()}, in which case they're
+ * left in {@link #getQueue()}.
+ */
+public abstract class QueueWorker<T> extends Worker {
+  private final BlockingQueue<T> queue;
+  /** Set before the last drain, after which nothing more is taken from the queue. */
+  private volatile boolean closed = false;
+
+  /** A worker with an unbounded queue. */
+  protected QueueWorker(String name) {
+    this(name, new LinkedBlockingQueue<T>());
+  }
+
+  /** A worker taking its items from the given queue, which should only be added to with {@link #submit(Object)}. */
+  protected QueueWorker(String name, BlockingQueue<T> queue) {
+    super(name);
+    this.queue = queue;
+  }
+
+  /** Processes one item. Exceptions are passed to {@link #failed(Exception)}, and the worker moves on to the next item. */
+  protected abstract void process(T item) throws Exception;
+
+  /**
+   * Queues an item for the worker.
+   *
+   * @return false if the worker is stopping or the queue is full, in which
+   *         case the item won't be processed.
+   */
+  public boolean submit(T item) {
+    if (isStopping() || !queue.offer(item))
+      return false;
+    if (closed) {
+      // Raced the last drain, so take it back, unless the drain got it
+      return !queue.remove(item);
+    }
+    wakeUp();
+    return true;
+  }
+
+  @Override
+  protected final void work() {
+    drain();
+  }
+
+  /** Processes whatever was submitted before the worker was stopped. Subclasses overriding this must call it. */
+  @Override
+  protected void stopped() {
+    closed = true;
+    drain();
+  }
+
+  private void drain() {
+    for (T item; !Thread.currentThread().isInterrupted() && (item = queue.poll()) != null;) {
+      try {
+        process(item);
+      } catch (Exception ex) {
+        failed(ex);
+      }
+    }
+  }
+
+  /** @return the queue, with anything left unprocessed once the worker has terminated. */
+  public BlockingQueue<T> getQueue() {
+    return queue;
+  }
+
+  /** @return the number of items waiting to be processed. */
+  public int getBacklog() {
+    return queue.size();
+  }
+}
@@ -15,32 +15,202 @@
  */
 package com.pelzer.util;
 
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A wrapper around the concurrent.Semaphore object, which returns an actual
  * permit object when acquire() is called, which can then be used to release the
- * lock, and has safety finalizers that ensure that an acquired permit will
- * eventually be released during garbage collection if a thread crash or other
- * bug breaks the code before semaphore release.
+ * lock, and makes sure that an acquired permit will eventually be released
+ * during garbage collection if a thread crash or other bug breaks the code
+ * before semaphore release. Permits are {@link AutoCloseable}, so the simplest
+ * way to get that right is:
+ *
+ * <pre>
+ * try (SafeSemaphore.Permit permit = semaphore.acquire()) {
+ *   ...
+ * }
+ * </pre>
+ *
+ * Leaked permits are found with phantom references rather than finalizers, so
+ * permits are ordinary objects to the garbage collector. A daemon thread
+ * releases them after they're collected, and logs a warning to the
+ * <code>com.pelzer.util.SafeSemaphore</code> logger. To find out where a leak
+ * came from, set a leak sample rate with {@link #setLeakSampleRate(double)} or
+ * -Dpelzer.semaphore.leakSampleRate=0.01, and that fraction of permits will
+ * remember the stack that acquired them, to be logged with the warning.
+ * <p>
+ * Permits can be taken several at a time, and without waiting or with a
+ * timeout, and each permit object gives back exactly what it took. For
+ * load-shedding decisions the semaphore keeps count of what it's handed out and
+ * turned down, and a histogram of how long acquiring threads had to wait.
  */
 public class SafeSemaphore {
-  private Semaphore semaphore;
+  private static final ReferenceQueue<Permit> collected = new ReferenceQueue<Permit>();
+  /** Keeps the trackers of unreleased permits reachable until they're released or reaped. */
+  private static final Set<Tracker> outstanding = Collections.newSetFromMap(new ConcurrentHashMap<Tracker, Boolean>());
+  private static final double DEFAULT_LEAK_SAMPLE_RATE;
+  private static final Logging.Logger log;
+  static {
+    // Initialize logging here rather than on the reaper, whose timing is up to
+    // the GC. Logging's class init racing the JUL shutdown hook can hang exit.
+    log = Logging.getLogger(SafeSemaphore.class);
+    double rate = 0;
+    String property = System.getProperty("pelzer.semaphore.leakSampleRate");
+    if (property != null) {
+      try {
+        rate = Double.parseDouble(property.trim());
+      } catch (NumberFormatException ignored) {
+      }
+    }
+    DEFAULT_LEAK_SAMPLE_RATE = rate;
+    Thread reaper = new Thread("pelzer-semaphore-reaper") {
+      @Override
+      public void run() {
+        reap();
+      }
+    };
+    reaper.setDaemon(true);
+    reaper.start();
+  }
+
+  private final ResizableSemaphore semaphore;
+  private volatile double leakSampleRate = DEFAULT_LEAK_SAMPLE_RATE;
+  private final AtomicLong leaked = new AtomicLong();
+  /** Null for semaphores made without stats. */
+  private final StripedCounter acquired, rejected;
+  private final LatencyHistogram waitNanos;
+  private final AtomicInteger inFlight = new AtomicInteger();
 
   public SafeSemaphore(int initialPermits) {
-    semaphore = new Semaphore(initialPermits, true);
+    this(initialPermits, true);
+  }
+
+  /**
+   * @param stats
+   *          false to skip the acquire and reject counts and the wait
+   *          histogram, which take up a good 15KB, for semaphores that are
+   *          made and thrown away often, such as {@link KeyedSemaphore}'s.
+   */
+  protected SafeSemaphore(int initialPermits, boolean stats) {
+    semaphore = new ResizableSemaphore(initialPermits);
+    acquired = stats ? new StripedCounter() : null;
+    rejected = stats ? new StripedCounter() : null;
+    waitNanos = stats ? new LatencyHistogram() : null;
   }
 
   /** Wait until a permit is available, and take one. */
   public Permit acquire() throws java.lang.InterruptedException {
-    semaphore.acquire();
-    return new Permit();
+    return acquire(1);
+  }
+
+  /** Wait until the given number of permits are available, and take them all. */
+  public Permit acquire(int permits) throws java.lang.InterruptedException {
+    long start = System.nanoTime();
+    semaphore.acquire(permits);
+    return acquired(permits, start);
   }
 
   /** Same as {@link #acquire()}, but won't throw an InterruptedException. */
   public Permit acquireUninterruptibly() {
-    semaphore.acquireUninterruptibly();
-    return new Permit();
+    return acquireUninterruptibly(1);
+  }
+
+  /** Same as {@link #acquire(int)}, but won't throw an InterruptedException. */
+  public Permit acquireUninterruptibly(int permits) {
+    long start = System.nanoTime();
+    semaphore.acquireUninterruptibly(permits);
+    return acquired(permits, start);
+  }
+
+  /**
+   * Takes a permit if one is available right now, even if other threads are
+   * waiting for one, the same as {@link Semaphore#tryAcquire()}.
+   * 
+   * @return the permit, or null if there wasn't one.
+   */
+  public Permit tryAcquire() {
+    return tryAcquire(1);
+  }
+
+  /** Same as {@link #tryAcquire()}, for the given number of permits. */
+  public Permit tryAcquire(int permits) {
+    if (!semaphore.tryAcquire(permits)) {
+      rejected();
+      return null;
+    }
+    if (acquired != null)
+      acquired.increment();
+    inFlight.addAndGet(permits);
+    return new Permit(permits, System.nanoTime());
+  }
+
+  /**
+   * Waits up to the given time for a permit, and takes it.
+   * 
+   * @return the permit, or null if the time ran out first.
+   */
+  public Permit tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+    return tryAcquire(1, timeout, unit);
+  }
+
+  /** Same as {@link #tryAcquire(long, TimeUnit)}, for the given number of permits. */
+  public Permit tryAcquire(int permits, long timeout, TimeUnit unit) throws InterruptedException {
+    long start = System.nanoTime();
+    if (!semaphore.tryAcquire(permits, timeout, unit)) {
+      rejected();
+      return null;
+    }
+    return acquired(permits, start);
+  }
+
+  private Permit acquired(int permits, long start) {
+    long now = System.nanoTime();
+    if (waitNanos != null) {
+      waitNanos.record(now - start);
+      acquired.increment();
+    }
+    inFlight.addAndGet(permits);
+    return new Permit(permits, now);
+  }
+
+  private void rejected() {
+    if (rejected != null)
+      rejected.increment();
+  }
+
+  /**
+   * Called whenever permits are given back, including by the leak reaper.
+   * Does nothing here, it's for subclasses that adjust themselves to how the
+   * work went, see {@link AdaptiveLimiter}.
+   * 
+   * @param heldNanos
+   *          how long the permits were held.
+   * @param failed
+   *          true if {@link Permit#failed()} was called, or the permit leaked.
+   */
+  protected void released(int permits, long heldNanos, boolean failed) {
+  }
+
+  /**
+   * Adds permits, or takes them away if delta is negative. Taking them away
+   * doesn't wait for them to be released, it just means that many more have to
+   * be released before the next acquire succeeds.
+   */
+  protected void adjustPermits(int delta) {
+    if (delta > 0)
+      semaphore.release(delta);
+    else if (delta < 0)
+      semaphore.reducePermits(-delta);
   }
 
   /** Release a permit. Really, the same as calling permit.release(). */
@@ -48,26 +218,172 @@ public class SafeSemaphore {
     permit.release();
   }
 
-  public class Permit {
-    private boolean isReleased = false;
+  /** @return the number of permits available right now. */
+  public int availablePermits() {
+    return semaphore.availablePermits();
+  }
 
-    private Permit() {
+  /** @return the number of permits acquired and not yet released. */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /** @return roughly how many threads are waiting to acquire, right now. */
+  public int getQueueLength() {
+    return semaphore.getQueueLength();
+  }
+
+  /** @return the number of successful acquires, however many permits each took, 0 without stats. */
+  public long getAcquireCount() {
+    return acquired == null ? 0 : acquired.sum();
+  }
+
+  /** @return the number of tryAcquire calls that came back empty handed, 0 without stats. */
+  public long getRejectCount() {
+    return rejected == null ? 0 : rejected.sum();
+  }
+
+  /**
+   * @return how long each successful blocking or timed acquire had to wait, in
+   *         nanos, or null without stats. The non-blocking {@link #tryAcquire()}
+   *         isn't recorded.
+   */
+  public LatencyHistogram getWaitNanos() {
+    return waitNanos;
+  }
+
+  /** @return the number of leaked permits that have been released by the garbage collector. */
+  public long getLeakedPermits() {
+    return leaked.get();
+  }
+
+  public double getLeakSampleRate() {
+    return leakSampleRate;
+  }
+
+  /**
+   * @param rate
+   *          the fraction of permits, from 0 to 1, that remember where they
+   *          were acquired so that it can be logged if they leak. Capturing the
+   *          stack is slow, so keep it small in production.
+   */
+  public void setLeakSampleRate(double rate) {
+    leakSampleRate = Math.max(0, Math.min(1, rate));
+  }
+
+  public class Permit implements AutoCloseable {
+    private final Tracker tracker;
+
+    private Permit(int permits, long acquiredNanos) {
+      double rate = leakSampleRate;
+      Throwable acquiredAt = null;
+      if (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate)
+        acquiredAt = new Throwable("Leaked permit was acquired here");
+      tracker = new Tracker(this, SafeSemaphore.this, permits, acquiredNanos, acquiredAt);
+    }
+
+    /** @return the number of permits this object holds, and will release. */
+    public int getPermits() {
+      return tracker.permits;
     }
 
     /**
-     * If this permit is still valid, calls release() on the parent semaphore.
-     * Otherwise does nothing.
+     * If this permit is still valid, gives everything it took back to the
+     * parent semaphore. Otherwise does nothing.
      */
     public void release() {
-      if (isReleased)
-        return;
-      semaphore.release();
-      isReleased = true;
+      tracker.release();
     }
 
-    /** Makes sure this permit is released. */
-    protected void finalize() throws Throwable {
+    /**
+     * Marks the work done under this permit as failed, without releasing it.
+     * Plain semaphores don't care, but an {@link AdaptiveLimiter} takes it as a
+     * sign of overload.
+     */
+    public void failed() {
+      tracker.failed = true;
+    }
+
+    /** Same as {@link #release()}. */
+    public void close() {
       release();
     }
+
+    /** @return true once this permit has been released. */
+    public boolean isReleased() {
+      return tracker.isReleased();
+    }
+  }
+
+  /**
+   * Knows how to release a permit, without holding on to the permit itself,
+   * so that it can still do it once the permit has been collected.
+   */
+  private static final class Tracker extends PhantomReference<Permit> {
+    private final SafeSemaphore owner;
+    private final int permits;
+    private final long acquiredNanos;
+    private final Throwable acquiredAt;
+    private final AtomicBoolean released = new AtomicBoolean();
+    private volatile boolean failed = false;
+
+    Tracker(Permit permit, SafeSemaphore owner, int permits, long acquiredNanos, Throwable acquiredAt) {
+      super(permit, collected);
+      this.owner = owner;
+      this.permits = permits;
+      this.acquiredNanos = acquiredNanos;
+      this.acquiredAt = acquiredAt;
+      outstanding.add(this);
+    }
+
+    /** @return true if this call released the permit, false if it already had been. */
+    boolean release() {
+      if (!released.compareAndSet(false, true))
+        return false;
+      owner.inFlight.addAndGet(-permits);
+      owner.semaphore.release(permits);
+      outstanding.remove(this);
+      clear();
+      owner.released(permits, System.nanoTime() - acquiredNanos, failed);
+      return true;
+    }
+
+    boolean isReleased() {
+      return released.get();
+    }
+  }
+
+  /** A fair semaphore whose permits can be taken away. */
+  private static final class ResizableSemaphore extends Semaphore {
+    private static final long serialVersionUID = 1L;
+
+    ResizableSemaphore(int permits) {
+      super(permits, true);
+    }
+
+    @Override
+    public void reducePermits(int reduction) {
+      super.reducePermits(reduction);
+    }
+  }
+
+  /** Releases the permits of collected permit objects, forever. */
+  private static void reap() {
+    while (true) {
+      try {
+        Tracker tracker = (Tracker) collected.remove();
+        tracker.failed = true;
+        if (tracker.release()) {
+          tracker.owner.leaked.addAndGet(tracker.permits);
+          if (tracker.acquiredAt != null)
+            log.warn("A permit was never released, releasing it now it has been garbage collected.", tracker.acquiredAt);
+          else
+            log.warn("A permit was never released, releasing it now it has been garbage collected. Set a leak sample rate to find out where it was acquired.");
+        }
+      } catch (InterruptedException ignored) {
+      } catch (RuntimeException ex) {
+        // Keep reaping, a broken logger shouldn't leak every permit after it
+      }
+    }
   }
 }
@@ -15,7 +15,7 @@
  */
 package com.pelzer.util;
 
-import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is a quick utility to aid in getting timing info for debugging/etc. Basic usage is:<br>
@@ -29,11 +29,31 @@ import java.util.Date;
  *   sleep(2000);
  *   System.out.println(watch.getElapsed().toString); // Should be something like "00:00:03:00";
  * </code>
+ * <p>
+ * Time is read from {@link System#nanoTime()}, so it isn't thrown off by changes to the wall
+ * clock, and nothing is allocated apart from by {@link #getElapsed()}. To time the stages of
+ * something, call {@link #lap()} at the end of each one. Give the watch a {@link LatencyHistogram}
+ * and every lap is recorded into it as well, in nanoseconds, for percentiles across many runs:<br>
+ * <code>
+ *   LatencyHistogram parseTimes = new LatencyHistogram();
+ *   StopWatch watch = new StopWatch(parseTimes);
+ *   for (Request request : requests) {
+ *     watch.start();
+ *     parse(request);
+ *     watch.stop(); // Records the lap
+ *   }
+ *   System.out.println(parseTimes); // count, mean, p50, p99, p999 and max
+ * </code>
+ * Not thread safe, though any number of watches can share one histogram.
  */
 public class StopWatch {
   private long start = 0;
   private long stop = 0;
+  private long lapStart = 0;
+  private int laps = 0;
+  private boolean started = false;
   private boolean running = false;
+  private final LatencyHistogram lapHistogram;
 
   /** Creates a new stopwatch. You must call {@link #start()} to begin timing.*/
   public StopWatch() {
@@ -42,16 +62,30 @@ public class StopWatch {
 
   /** Creates a new stopwatch and starts it. */
   public StopWatch(boolean running){
-    if(running)
+    this(running, null);
+  }
+
+  /** Creates a new stopwatch that records every lap into lapHistogram. You must call {@link #start()} to begin timing. */
+  public StopWatch(LatencyHistogram lapHistogram) {
+    this(false, lapHistogram);
+  }
+
+  /** Creates a new stopwatch that records every lap into lapHistogram, if it isn't null, and starts it if running is true. */
+  public StopWatch(boolean running, LatencyHistogram lapHistogram) {
+    this.lapHistogram = lapHistogram;
+    if (running)
       start();
     else
       reset();
   }
 
-  /** Resets elapsed time to zero and stops the clock ticking. */
+  /** Resets elapsed time and laps to zero and stops the clock ticking. Doesn't touch the histogram. */
   public void reset() {
     start = 0;
     stop = 0;
+    lapStart = 0;
+    laps = 0;
+    started = false;
     running = false;
   }
 
@@ -60,31 +94,86 @@ public class StopWatch {
     if (isRunning())
       return;
     reset();
-    start = new Date().getTime();
+    start = System.nanoTime();
+    lapStart = start;
+    started = true;
     running = true;
   }
 
-  /** Stops the clock if it is running. */
+  /** Stops the clock if it is running, which ends the current lap the same as {@link #lap()}. */
   public void stop() {
     if (!isRunning())
       return;
-    stop = new Date().getTime();
+    stop = System.nanoTime();
+    endLap(stop);
     running = false;
   }
 
+  /**
+   * Ends the current lap and starts the next one, recording the lap into the histogram if there is
+   * one.
+   * 
+   * @return the length of the lap in nanoseconds, or 0 if the clock isn't running.
+   */
+  public long lap() {
+    if (!isRunning())
+      return 0;
+    return endLap(System.nanoTime());
+  }
+
+  private long endLap(long now) {
+    long lap = now - lapStart;
+    lapStart = now;
+    laps++;
+    if (lapHistogram != null)
+      lapHistogram.record(lap);
+    return lap;
+  }
+
+  /**
+   * @return the time since {@link #start()} in nanoseconds, without ending the lap. Frozen once
+   *         {@link #stop()} is called, and 0 if start hasn't been.
+   */
+  public long getElapsedNanos() {
+    if (!started)
+      return 0;
+    return (isRunning() ? System.nanoTime() : stop) - start;
+  }
+
+  /** @return {@link #getElapsedNanos()} in the given unit, rounded down. */
+  public long getElapsed(TimeUnit unit) {
+    return unit.convert(getElapsedNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  /** @return {@link #getElapsedNanos()} in milliseconds. */
+  public long getElapsedMillis() {
+    return getElapsed(TimeUnit.MILLISECONDS);
+  }
+
+  /** @return the time since the last lap ended (or the clock started) in nanoseconds, 0 once stopped. */
+  public long getCurrentLapNanos() {
+    return isRunning() ? System.nanoTime() - lapStart : 0;
+  }
+
+  /** @return the number of laps ended since {@link #start()}, including the one ended by {@link #stop()}. */
+  public int getLapCount() {
+    return laps;
+  }
+
+  /** @return the histogram laps are recorded into, or null if there isn't one. */
+  public LatencyHistogram getLapHistogram() {
+    return lapHistogram;
+  }
+
   /** Can be called at any time, returns a SMPTE object with 1000 frames/sec (corresponding to milliseconds) 
    * representing the time elapsed since start() is called. If start has not been called, returns 0. If
    * stop has not been called, returns the current elapsed time. Once stop is called, the elapsed time no
-   * longer increments, and is frozen. */
+   * longer increments, and is frozen. Makes a new Timecode every call, so use {@link #getElapsedNanos()}
+   * where that matters. */
   public Timecode getElapsed() {
-    if (isRunning())
-      stop = new Date().getTime();
-    long durationMillis = stop - start;
-    if (start == 0)
-      durationMillis = 0;
     Timecode elapsed = new Timecode(Timecode.Type.TYPE_AUDIO_CD);
     elapsed.setFramesPerSecond(1000);
-    elapsed.setFrames((int) durationMillis);
+    elapsed.setFrames((int) getElapsedMillis());
     elapsed.normalize();
     return elapsed;
   }
@@ -18,11 +18,18 @@ package com.pelzer.util;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.text.CollationKey;
 import java.text.Collator;
+import java.text.Normalizer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
-import java.util.StringTokenizer;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Utility class for string manipulation.
@@ -123,18 +130,31 @@ public class StringMan {
     if (haystack == null || needle == null || replacement == null || needle.length() == 0) {
       return haystack;
     }
-    StringBuilder buf = new StringBuilder();
-    int start = 0, end = 0;
+    int end = haystack.indexOf(needle);
+    if (end == -1)
+      return haystack;
+    StringBuilder buf = new StringBuilder(haystack.length() + 16);
+    int start = 0;
     int needleLength = needle.length();
-    while ((end = haystack.indexOf(needle, start)) != -1) {
-      buf.append(haystack.substring(start, end)).append(replacement);
+    do {
+      buf.append(haystack, start, end).append(replacement);
       start = end + needleLength;
-    }
-    if (start < haystack.length())
-      buf.append(haystack.substring(start));
+    } while ((end = haystack.indexOf(needle, start)) != -1);
+    buf.append(haystack, start, haystack.length());
     return buf.toString();
   }
 
+  /**
+   * Replaces every key of the map found in the haystack with its value, in one scan. See
+   * {@link MultiReplacer} for how overlapping needles are resolved. If you use the same map over
+   * and over, build a {@link MultiReplacer} once and keep it.
+   */
+  public static String replace(String haystack, Map<String, String> replacements) {
+    if (haystack == null || replacements == null || replacements.isEmpty())
+      return haystack;
+    return new MultiReplacer(replacements).replace(haystack);
+  }
+
   /**
    * Same behavior as {@link #replace(String, String, String)} but cycles through the replacements,
    * so replace("xxx","x","1","2","3") would return "123". If you don't give enough replacements,
@@ -150,11 +170,10 @@ public class StringMan {
     int needleLength = needle.length();
     int replacementIndex = 0;
     while ((end = haystack.indexOf(needle, start)) != -1 && replacementIndex < replacements.length) {
-      buf.append(haystack.substring(start, end)).append(replacements[replacementIndex++]);
+      buf.append(haystack, start, end).append(replacements[replacementIndex++]);
       start = end + needleLength;
     }
-    if (start < haystack.length())
-      buf.append(haystack.substring(start));
+    buf.append(haystack, start, haystack.length());
     return buf.toString();
   }
 
@@ -174,27 +193,106 @@ public class StringMan {
 
   /**
    * Makes a string xml-safe, converting &amp;&lt;&gt;"' to their &amp;token; equivalents, and converting all
-   * other non-safe chars to their &amp;#000; version.
+   * other non-safe chars to their &amp;#000; version. Returns the same String if nothing needed
+   * escaping.
    */
   public static String escapeForXML(String inString) {
     if (inString == null)
       return null;
-    String outString = inString;
-    outString = replace(outString, "&", "&amp;");
-    outString = replace(outString, "<", "&lt;");
-    outString = replace(outString, ">", "&gt;");
-    outString = replace(outString, "\"", "&quot;");
-    outString = replace(outString, "'", "&apos;");
-    // We'll escape all chars not in this set (Safe)
-    String validChars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz1234567890 &#;-_=+:,.?/";
-    for (int i = 0; i < outString.length(); i++) {
-      char c = outString.charAt(i);
-      if (validChars.indexOf(c) == -1) {
-        // Escape the character
-        outString = replace(outString, "" + c, "&#" + ((int) c) + ";");
+    int first = indexOfXMLUnsafe(inString, 0, inString.length());
+    if (first < 0)
+      return inString;
+    StringBuilder out = new StringBuilder(inString.length() + 16);
+    out.append(inString, 0, first);
+    try {
+      escapeForXML(inString, first, inString.length(), out);
+    } catch (IOException ex) {
+      // StringBuilders don't throw IOExceptions
+      throw new RuntimeException(ex);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Same as {@link #escapeForXML(String)}, appending to out. Runs of characters that don't need
+   * escaping are appended in one go.
+   */
+  public static void escapeForXML(CharSequence in, Appendable out) throws IOException {
+    escapeForXML(in, 0, in.length(), out);
+  }
+
+  /** Same as {@link #escapeForXML(CharSequence, Appendable)}, for the chars from start to end. */
+  public static void escapeForXML(CharSequence in, int start, int end, Appendable out) throws IOException {
+    int clean = start;
+    while (clean < end) {
+      int unsafe = indexOfXMLUnsafe(in, clean, end);
+      if (unsafe < 0) {
+        out.append(in, clean, end);
+        return;
       }
+      if (clean < unsafe)
+        out.append(in, clean, unsafe);
+      appendXMLEscape(in.charAt(unsafe), out);
+      clean = unsafe + 1;
     }
-    return outString;
+  }
+
+  /** @return the index of the first char from start to end that needs escaping, or -1. */
+  static int indexOfXMLUnsafe(CharSequence in, int start, int end) {
+    boolean safe[] = XML_SAFE;
+    for (int i = start; i < end; i++) {
+      char c = in.charAt(i);
+      if (c >= 128 || !safe[c])
+        return i;
+    }
+    return -1;
+  }
+
+  /** Same as {@link #indexOfXMLUnsafe(CharSequence, int, int)}, for char arrays. */
+  static int indexOfXMLUnsafe(char in[], int start, int end) {
+    boolean safe[] = XML_SAFE;
+    for (int i = start; i < end; i++) {
+      char c = in[i];
+      if (c >= 128 || !safe[c])
+        return i;
+    }
+    return -1;
+  }
+
+  /** @return true if c can be written to XML as it is. */
+  static boolean isXMLSafe(char c) {
+    return c < 128 && XML_SAFE[c];
+  }
+
+  /** Appends the escaped form of a char that isn't safe in XML. */
+  static void appendXMLEscape(char c, Appendable out) throws IOException {
+    switch (c) {
+      case '&':
+        out.append("&amp;");
+        break;
+      case '<':
+        out.append("&lt;");
+        break;
+      case '>':
+        out.append("&gt;");
+        break;
+      case '"':
+        out.append("&quot;");
+        break;
+      case '\'':
+        out.append("&apos;");
+        break;
+      default:
+        out.append("&#").append(Integer.toString(c)).append(';');
+    }
+  }
+
+  /** The chars written as they are, everything else gets escaped. */
+  private static final boolean XML_SAFE[] = new boolean[128];
+  static {
+    String validChars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz1234567890 #;-_=+:,.?/";
+    for (int i = 0; i < validChars.length(); i++)
+      XML_SAFE[validChars.charAt(i)] = true;
   }
 
   /**
@@ -245,18 +343,11 @@ public class StringMan {
 
   /**
    * Takes a string encoded in hex (00-FF), two chars per byte, and returns an array of bytes.
-   * array.length will be hex.length/2 after hex has been run through {@link #decompressHexString}
+   * array.length will be hex.length/2 after hex has been run through {@link #decompressHexString}.
+   * The decompression and decoding happen in a single pass, see {@link HexCodec}.
    */
   public static byte[] decodeStringToBytes(String hex) {
-    hex = decompressHexString(hex);
-    int stringLength = hex.length();
-    byte[] b = new byte[stringLength / 2];
-    for (int i = 0, j = 0; i < stringLength; i += 2, j++) {
-      int high = charToNibble(hex.charAt(i));
-      int low = charToNibble(hex.charAt(i + 1));
-      b[j] = (byte) ((high << 4) | low);
-    }
-    return b;
+    return HexCodec.decodeCompressed(hex);
   }
 
   /** Strips all characters c satisfying Character.isWhitespace(c). */
@@ -297,125 +388,164 @@ public class StringMan {
     return output.toString();
   }
 
-  private static int charToNibble(char c) {
-    if ('0' <= c && c <= '9')
-      return c - '0';
-    else if ('a' <= c && c <= 'f')
-      return c - 'a' + 0xa;
-    else if ('A' <= c && c <= 'F')
-      return c - 'A' + 0xa;
-    else
-      throw new IllegalArgumentException("Invalid hex character: " + c);
-  }
-
   /**
    * Takes a byte array and returns a hex string (00-FF) encoded two chars per byte.
    */
   public static String encodeBytesToString(byte bytes[]) {
-    StringBuilder string = new StringBuilder(bytes.length * 2);
-    for (int i = 0; i < bytes.length; i++) {
-      // look up high nibble char
-      string.append(hexChar[(bytes[i] & 0xf0) >>> 4]);
-      // look up low nibble char
-      string.append(hexChar[bytes[i] & 0x0f]);
-    }
-    return string.toString();
+    return HexCodec.encode(bytes);
   }
 
-  // table to convert a nibble to a hex char.
-  static char[] hexChar = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
-
   /**
    * Very simplistic compression method that encodes repeating characters into a smaller character,
    * so '0000000000' becomes '^0j' where the '^' escapes the next two characters, '0' is the
    * repeating character, and j encodes 10 repetitions.
    */
   public static String compressHexString(String inString) {
-    String in = inString + "^"; // Add this onto the end since the last group of
-    // characters is always dropped... This carat
-    // will be dropped from the output string.
-    StringBuilder out = new StringBuilder();
-    char lastChar = ' ';
-    int count = 0;
-    for (int i = 0; i < in.length(); i++) {
-      char thisChar = in.charAt(i);
-      if (thisChar == lastChar && count < 35) { // Maybe we're starting a string
-        // of repeating chars...
-        count++;
-      } else {
-        if (count > 3) {
-          out.append('^');
-          out.append(lastChar);
-          out.append("abcdefghijklmnopqrstuvwxyz01234567890".charAt(count));
-        } else {
-          for (int j = 0; j < count; j++)
-            out.append(lastChar);
-        }
-        count = 1;
-        lastChar = thisChar;
-      }
-    }
-    String outString = out.toString();
-    return outString;
+    return HexCodec.compress(inString);
   }
 
   /** Decompresses a string encoded by {@link #compressHexString} */
   public static String decompressHexString(String in) {
-    StringBuilder out = new StringBuilder();
-    for (int i = 0; i < in.length(); i++) {
-      char thisChar = in.charAt(i);
-      if (thisChar != '^') {
-        out.append(thisChar);
-      } else {
-        thisChar = in.charAt(i + 1);
-        int count = "abcdefghijklmnopqrstuvwxyz01234567890".indexOf(in.charAt(i + 2));
-        for (int j = 0; j < count; j++)
-          out.append(thisChar);
-        i += 2;
-      }
-    }
-    return out.toString();
+    return HexCodec.decompress(in);
   }
 
   /**
    * Converts a string with possible high-ascii values into their ascii7 equiv., for instance 'é'
-   * maps to 'e'. All low ascii characters are left untouched. Any character above 255 is converted
-   * to a space.
+   * maps to 'e'. All low ascii characters are left untouched. Latin-1 and Latin Extended-A/B
+   * characters (up to U+024F) map to the letter they're based on, or a space if there isn't one.
+   * Any character above that is converted to a space. Returns the same String if there's nothing
+   * to convert.
    */
   public static String getUS7ASCIIEquiv(String convertString) {
     if (convertString == null)
       return null;
+    int length = convertString.length();
+    int i = 0;
+    while (i < length && convertString.charAt(i) < 128)
+      i++;
+    if (i == length)
+      return convertString;
+    char converted[] = new char[length];
+    convertString.getChars(0, i, converted, 0);
+    char table[] = ASCIITable.TABLE;
+    for (; i < length; i++) {
+      char c = convertString.charAt(i);
+      converted[i] = c < table.length ? table[c] : ' ';
+    }
+    return new String(converted);
+  }
+
+  /**
+   * Same as {@link #getUS7ASCIIEquiv(String)}, converting length chars of in into out, which can be
+   * the same array.
+   */
+  public static void getUS7ASCIIEquiv(char in[], int offset, int length, char out[], int outOffset) {
+    char table[] = ASCIITable.TABLE;
+    for (int i = 0; i < length; i++) {
+      char c = in[offset + i];
+      out[outOffset + i] = c < table.length ? table[c] : ' ';
+    }
+  }
+
+  /** Same as {@link #getUS7ASCIIEquiv(String)}, appending the result to out. */
+  public static void getUS7ASCIIEquiv(CharSequence in, Appendable out) throws IOException {
+    char table[] = ASCIITable.TABLE;
+    int length = in.length();
+    int clean = 0;
+    for (int i = 0; i < length; i++) {
+      char c = in.charAt(i);
+      if (c < 128)
+        continue;
+      // Copy the untouched run in one go
+      if (clean < i)
+        out.append(in, clean, i);
+      out.append(c < table.length ? table[c] : ' ');
+      clean = i + 1;
+    }
+    if (clean < length)
+      out.append(in, clean, length);
+  }
 
-    StringBuilder convertedString = new StringBuilder();
-    String upperConvertString = convertString.toUpperCase();
-
-    Collator collator = Collator.getInstance(Locale.US);
-    collator.setStrength(Collator.PRIMARY);
-
-    String chars = "abcdefghijklmnopqrstuvwxyz";
-    for (int i = 0; i < convertString.length(); i++) {
-      char currentChar = convertString.charAt(i);
-      boolean isUppercase = currentChar == upperConvertString.charAt(i);
-      char mappedChar = ' ';
-      if (currentChar < 128) {
-        // Within low-ascii, leave it alone.
-        mappedChar = currentChar;
-      } else if (currentChar < 256) {
-        for (int j = 0; j < chars.length(); j++) {
-          if (collator.compare(currentChar + "", chars.charAt(j) + "") == 0) {
-            if (isUppercase)
-              mappedChar = Character.toUpperCase(chars.charAt(j));
-            else
-              mappedChar = chars.charAt(j);
+  /**
+   * Converts every String in the list with {@link #getUS7ASCIIEquiv(String)}, splitting the work
+   * into one chunk per thread on the given executor. Pass a null executor to do it all on the
+   * calling thread.
+   * 
+   * @return the converted Strings, in the same order as the input.
+   */
+  public static List<String> getUS7ASCIIEquiv(final List<String> convertStrings, ExecutorService executor) throws InterruptedException {
+    final String converted[] = new String[convertStrings.size()];
+    final int chunkSize = 4096;
+    if (executor == null || converted.length <= chunkSize) {
+      for (int i = 0; i < converted.length; i++)
+        converted[i] = getUS7ASCIIEquiv(convertStrings.get(i));
+      return Arrays.asList(converted);
+    }
+    List<Callable<Object>> chunks = new ArrayList<Callable<Object>>();
+    for (int chunk = 0; chunk < converted.length; chunk += chunkSize) {
+      final int from = chunk;
+      final int to = Math.min(converted.length, chunk + chunkSize);
+      chunks.add(new Callable<Object>() {
+        public Object call() {
+          for (int i = from; i < to; i++)
+            converted[i] = getUS7ASCIIEquiv(convertStrings.get(i));
+          return null;
+        }
+      });
+    }
+    for (Future<Object> future : executor.invokeAll(chunks))
+      try {
+        future.get();
+      } catch (ExecutionException ex) {
+        throw new RuntimeException("Failed converting to US7ASCII", ex.getCause());
+      }
+    return Arrays.asList(converted);
+  }
+
+  /** Built the first time it's needed, so StringMan itself doesn't pay for the Collator. */
+  private static final class ASCIITable {
+    /** The last char that gets a mapping, the end of Latin Extended-B. */
+    private static final char LAST = '\u024f';
+    /** Letters with a stroke or bar don't decompose, so they're spelled out. */
+    private static final String STROKED = "\u0110\u0111\u0126\u0127\u0131\u0141\u0142\u0166\u0167\u0180\u0197\u01e4\u01e5";
+    private static final String UNSTROKED = "DdHhiLlTtbIGg";
+    static final char TABLE[] = build();
+
+    /**
+     * Maps each char to the letter a PRIMARY strength US Collator says it's equal to, keeping its
+     * case. Latin Extended chars the Collator doesn't know fall back to the base letter of their
+     * canonical decomposition. Anything else becomes a space.
+     */
+    private static char[] build() {
+      char table[] = new char[LAST + 1];
+      for (char c = 0; c < 128; c++)
+        table[c] = c;
+      Collator collator = Collator.getInstance(Locale.US);
+      collator.setStrength(Collator.PRIMARY);
+      String chars = "abcdefghijklmnopqrstuvwxyz";
+      CollationKey letters[] = new CollationKey[chars.length()];
+      for (int j = 0; j < letters.length; j++)
+        letters[j] = collator.getCollationKey(chars.substring(j, j + 1));
+      for (char c = 128; c <= LAST; c++) {
+        boolean isUppercase = Character.toUpperCase(c) == c;
+        char mapped = ' ';
+        CollationKey key = collator.getCollationKey(String.valueOf(c));
+        for (int j = 0; j < letters.length; j++)
+          if (key.compareTo(letters[j]) == 0) {
+            mapped = chars.charAt(j);
             break;
           }
+        if (mapped == ' ' && c >= 256) {
+          char base = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD).charAt(0);
+          if (base < 128 && Character.isLetter(base))
+            mapped = Character.toLowerCase(base);
+          else if (STROKED.indexOf(c) >= 0)
+            mapped = Character.toLowerCase(UNSTROKED.charAt(STROKED.indexOf(c)));
         }
-      } else {
-        // Out of our mapping range. It just becomes a space
+        table[c] = (mapped != ' ' && isUppercase) ? Character.toUpperCase(mapped) : mapped;
       }
-      convertedString.append(mappedChar);
+      return table;
     }
-    return convertedString.toString();
   }
 
   /**
@@ -440,11 +570,7 @@ public class StringMan {
    * @see java.util.StringTokenizer
    */
   public static String[] tokenize(String s) {
-    List<String> tokens = new ArrayList<String>();
-    StringTokenizer toker = new StringTokenizer(s);
-    while (toker.hasMoreTokens())
-      tokens.add(toker.nextToken());
-    return tokens.toArray(new String[tokens.size()]);
+    return tokenize(s, Tokenizer.WHITESPACE);
   }
 
   /**
@@ -453,11 +579,11 @@ public class StringMan {
    * @see java.util.StringTokenizer
    */
   public static String[] tokenize(String s, String delimiter) {
-    List<String> tokens = new ArrayList<String>();
-    StringTokenizer toker = new StringTokenizer(s, delimiter);
-    while (toker.hasMoreTokens())
-      tokens.add(toker.nextToken());
-    return tokens.toArray(new String[tokens.size()]);
+    Tokenizer toker = new Tokenizer(s, delimiter);
+    String tokens[] = new String[toker.countTokens()];
+    for (int i = 0; toker.next(); i++)
+      tokens[i] = s.substring(toker.start(), toker.end());
+    return tokens;
   }
 
   /**
@@ -474,7 +600,8 @@ public class StringMan {
 
   /**
    * Takes an array of Strings with long values and returns an array of longs, or throws a
-   * {@link NumberFormatException} if there's a problem.
+   * {@link NumberFormatException} if there's a problem. To parse a delimited line without splitting
+   * it into Strings first, see {@link Tokenizer#parseLongs(CharSequence, String, long[], int)}.
    */
   public static long[] parseLongs(String[] array) {
     long[] result = new long[array.length];
@@ -485,7 +612,8 @@ public class StringMan {
 
   /**
    * Takes an array of Strings with integer values and returns an array of ints, or throws a
-   * {@link NumberFormatException} if there's a problem.
+   * {@link NumberFormatException} if there's a problem. To parse a delimited line without splitting
+   * it into Strings first, see {@link Tokenizer#parseInts(CharSequence, String, int[], int)}.
    */
   public static int[] parseInts(String[] array) {
     int[] result = new int[array.length];
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.pelzer.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for values that many threads add to but that are rarely read, in
+ * the spirit of the JDK8 LongAdder. Each thread adds to one of several cells,
+ * each on its own cache line, picked by thread id, and {@link #sum()} adds the
+ * cells up. Sums taken while other threads are adding are not an atomic
+ * snapshot.
+ */
+final class StripedCounter{
+  /** Longs per cell, so that neighbouring cells don't share a cache line. */
+  private static final int PADDING = 8;
+  private static final int STRIPES;
+  static{
+    int stripes = 1;
+    while(stripes < Runtime.getRuntime().availableProcessors() * 2 && stripes < 64)
+      stripes <<= 1;
+    STRIPES = stripes;
+  }
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  /** @return the number of stripes, a power of two. */
+  static int stripes(){
+    return STRIPES;
+  }
+
+  /** @return the calling thread's stripe, from 0 to {@link #stripes()} - 1. */
+  static int stripe(){
+    return (int) Thread.currentThread().getId() & (STRIPES - 1);
+  }
+
+  void add(final long value){
+    cells.getAndAdd(stripe() * PADDING, value);
+  }
+
+  void increment(){
+    add(1);
+  }
+
+  long sum(){
+    long sum = 0;
+    for(int i = 0; i < STRIPES; i++)
+      sum += cells.get(i * PADDING);
+    return sum;
+  }
+
+  void reset(){
+    for(int i = 0; i < STRIPES; i++)
+      cells.set(i * PADDING, 0);
+  }
+
+  @Override
+  public String toString(){
+    return Long.toString(sum());
+  }
+}
@@ -15,6 +15,14 @@
  */
 package com.pelzer.util;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import com.pelzer.util.timecode.DropFrame;
+import com.pelzer.util.timecode.Rate;
+import com.pelzer.util.timecode.TimecodeFormatter;
+import com.pelzer.util.timecode.TimecodeParser;
+
 /**
  * Offers methods to act on timecodes, SMPTE or otherwise. Has special support for audio timecodes,
  * which look like SMPTE but have 75 frames/sec. This class does some nice things, such as when you
@@ -22,7 +30,20 @@ package com.pelzer.util;
  * code with a fifth parameter, that parameter is assumed to be samples. Any non-numeric character
  * can be used as a delimiter, so both "00|01|12|34" and "00a01b12c34" are equivalent.
  * {@link #toSamples()} returns the total number of samples that this code represents, and is the
- * most accurate representation with which to do arithmetic on.
+ * most accurate representation with which to do arithmetic on. For an immutable value with exact
+ * arithmetic and comparisons, see {@link com.pelzer.util.timecode.Frames}.
+ * <p>
+ * The float rates are kept as bean properties, but every conversion uses the exact {@link Rate} of
+ * the type, 30000/1001 rather than 29.97 for NTSC, so long timecodes don't drift. Float rates set
+ * that aren't one of the usual rates are converted with floats, as they always were. Timecodes of
+ * {@link Type#TYPE_VIDEO_NTSC_DROP_FRAME} are SMPTE drop-frame labels, written HH:MM:SS;FF.
+ * <p>
+ * Otherwise hours, minutes and seconds are wall-clock time, and frames count on from the start of
+ * the second at the real rate, as this class always has. So at NTSC, 01:00:00:00 is 3600 seconds,
+ * or 107892.1 frames. That isn't how {@link com.pelzer.util.timecode.Frames},
+ * {@link TimecodeParser#toFrames(Rate)} and {@link com.pelzer.util.timecode.TimelineReader} count
+ * non-drop-frame labels: they take 30 frames to each labelled second, the SMPTE way, which makes
+ * the same code frame 108000. The two agree at whole rates such as PAL, and for drop-frame codes.
  */
 public class Timecode implements java.io.Serializable, Cloneable {
   private static final long serialVersionUID = 1L;
@@ -35,6 +56,18 @@ public class Timecode implements java.io.Serializable, Cloneable {
   private long samples = -1;
   private float samplesPerSecond = 44100;
   private boolean useSamples = true;
+  private Rate rate = Rate.AUDIO_CD;
+  private Rate sampleRate = Rate.SAMPLES_44100;
+  private boolean dropFrame = false;
+  /** The rate of {@link #ticks()}, kept since {@link #toSamples()} needs it every call. */
+  private transient Rate tickRate;
+
+  private static final Rate SECONDS = Rate.of(1);
+  /**
+   * The exact rates the float properties can be mapped to, along with a thousand times each for
+   * sample rates. A fixed list, so odd float values don't each intern a new Rate.
+   */
+  private static final Rate KNOWN_RATES[] = { Rate.FILM, Rate.FILM_NTSC, Rate.PAL, Rate.FPS_30, Rate.NTSC, Rate.PAL_HD, Rate.NTSC_HD, Rate.AUDIO_CD, Rate.SAMPLES_44100, Rate.SAMPLES_48000 };
 
   /**
    * Sets this timecodes samplesPerSecond and framesPerSecond based on the given type
@@ -43,6 +76,9 @@ public class Timecode implements java.io.Serializable, Cloneable {
     setSamplesPerSecond(type.getSamplesPerSecond());
     setFramesPerSecond(type.getFramesPerSecond());
     setUseSamples(type.usesSamples());
+    rate = type.getRate();
+    sampleRate = type.getSampleRate();
+    dropFrame = type.isDropFrame();
   }
 
   /**
@@ -128,8 +164,13 @@ public class Timecode implements java.io.Serializable, Cloneable {
     return frames;
   }
 
+  /**
+   * Also sets the exact rate, taking the rounded NTSC rates (such as 29.97) as the exact n/1001
+   * ones. Any value is accepted, but one that isn't a usual rate leaves the conversions on floats.
+   */
   public void setFramesPerSecond(float value) {
     framesPerSecond = value;
+    rate = toRate(value);
   }
 
   public float getFramesPerSecond() {
@@ -144,14 +185,74 @@ public class Timecode implements java.io.Serializable, Cloneable {
     return samples;
   }
 
+  /** Also sets the exact sample rate, the same way as {@link #setFramesPerSecond(float)}. */
   public void setSamplesPerSecond(float value) {
     samplesPerSecond = value;
+    sampleRate = toRate(value);
   }
 
   public float getSamplesPerSecond() {
     return samplesPerSecond;
   }
 
+  /**
+   * @return the exact frame rate, which all the conversions use, or null if the float one set isn't
+   *         a usual rate.
+   */
+  public Rate getRate() {
+    return rate;
+  }
+
+  /**
+   * @return the exact sample rate, which all the conversions use, or null if the float one set
+   *         isn't a usual rate.
+   */
+  public Rate getSampleRate() {
+    return sampleRate;
+  }
+
+  public boolean isDropFrame() {
+    return dropFrame;
+  }
+
+  /**
+   * If true, hours through frames are a SMPTE drop-frame label, and the code is written with ';'.
+   * Ignored at rates drop-frame doesn't apply to, see {@link DropFrame#isSupported(Rate)}.
+   */
+  public void setDropFrame(boolean dropFrame) {
+    this.dropFrame = dropFrame;
+  }
+
+  private boolean usesDropFrame() {
+    return dropFrame && rate != null && DropFrame.isSupported(rate);
+  }
+
+  /** @return false if either float rate set isn't a usual one, so conversions are done with floats. */
+  private boolean hasExactRates() {
+    return rate != null && sampleRate != null;
+  }
+
+  /**
+   * @return the exact rate for a float one, recognising the NTSC rates and their sample rates by
+   *         rounding, or null if it isn't one of the {@link #KNOWN_RATES}.
+   */
+  private static Rate toRate(float value) {
+    for (Rate known : KNOWN_RATES)
+      for (long scale = 1; scale <= 1000; scale *= 1000)
+        if (Math.abs(value - known.toDouble() * scale) < value * 1e-5)
+          return scale == 1 ? known : Rate.of(known.getNumerator() * scale, known.getDenominator());
+    return null;
+  }
+
+  /** Timecodes serialized before the exact rates were added get them from the float ones. */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    if (rate == null)
+      rate = toRate(framesPerSecond);
+    if (sampleRate == null)
+      sampleRate = toRate(samplesPerSecond);
+  }
+
   public boolean useSamples() {
     return useSamples;
   }
@@ -167,18 +268,22 @@ public class Timecode implements java.io.Serializable, Cloneable {
   /** Sets the object based on a string in the form HH:MM:SS:FF */
   public void setCode(String timecode) throws Timecode.TimecodeException {
     clear();
-    setHours(getToken(timecode, 0));
-    setMinutes(getToken(timecode, 1));
-    setSeconds(getToken(timecode, 2));
-    setFrames(getToken(timecode, 3));
-    if (useSamples()) {
-      try {
-        setSamples(getToken(timecode, 4));
-        // If we got here, we're parsing a AES31-formatted string... Set our
-        // frames per sec to 30 instead of 75
-        setFramesPerSecond(30);
-      } catch (Timecode.TimecodeException ignored) {
-      } // If this fails, it just means the code didn't have samples appended
+    TimecodeParser parser = new TimecodeParser();
+    if (!parser.parse(timecode))
+      throw new Timecode.TimecodeException(parser.getError());
+    setHours(parser.getHours());
+    setMinutes(parser.getMinutes());
+    setSeconds(parser.getSeconds());
+    setFrames(parser.getFrames());
+    if (parser.isDropFrame() && !usesDropFrame() && rate != null && DropFrame.isSupported(rate)) {
+      // A drop-frame label on a timecode that isn't, so count the frames it names
+      clear();
+      setFrames((int) DropFrame.toFrames(parser.getHours(), parser.getMinutes(), parser.getSeconds(), parser.getFrames(), rate));
+    }
+    if (useSamples() && parser.hasSamples()) {
+      setSamples(parser.getSamples());
+      // We're parsing a AES31-formatted string... Set our frames per sec to 30 instead of 75
+      setFramesPerSecond(30);
     }
     // fix badly formed values : 00:00:60:00 will become 00:01:00:00, etc.
     normalize();
@@ -195,7 +300,7 @@ public class Timecode implements java.io.Serializable, Cloneable {
   @SuppressWarnings("all")
   public void setCode(double seconds) {
     clear();
-    setSamples((long) (seconds * (double) getSamplesPerSecond()));
+    setSamples((long) (seconds * (sampleRate == null ? getSamplesPerSecond() : sampleRate.toDouble())));
     normalize();
   }
 
@@ -211,50 +316,74 @@ public class Timecode implements java.io.Serializable, Cloneable {
 
   /**
    * Goes through the system and sanitizes badly formed values : 00:00:60:00 will become
-   * 00:01:00:00, etc.
+   * 00:01:00:00, etc. Frames left over from a fraction of a second, at rates like 29.97, are
+   * rounded down.
    */
-  @SuppressWarnings("all")
   public void normalize() {
-    // Start on samples
-    int samplesPerFrame = (int) ((float) getSamplesPerSecond() / (float) getFramesPerSecond());
+    if (!hasExactRates()) {
+      normalizeFloats();
+      return;
+    }
+    // Whole frames out of the samples, leaving the samples since the last one started
+    if (getSamples() > 0) {
+      long wholeFrames = rate.convert(getSamples(), sampleRate);
+      setFrames(getFrames() + (int) wholeFrames);
+      setSamples(getSamples() + sampleRate.convert(-wholeFrames, rate));
+    }
+
+    if (usesDropFrame()) {
+      // Frames past the label are frames, not labels, so count from the start of the second
+      long label = DropFrame.toLabelCount(DropFrame.toFrames(getHours(), getMinutes(), getSeconds(), 0, rate) + getFrames(), rate);
+      int nominal = rate.getNominalFramesPerSecond();
+      long totalSeconds = label / nominal;
+      setFrames((int) (label % nominal));
+      setHours((int) (totalSeconds / 3600));
+      setMinutes((int) (totalSeconds / 60 % 60));
+      setSeconds((int) (totalSeconds % 60));
+      return;
+    }
+
+    // Whole seconds out of the frames, leaving the frames since the second started, rounded down
+    long wholeSeconds = SECONDS.convert(getFrames(), rate);
+    setSeconds(getSeconds() + (int) wholeSeconds);
+    setFrames(getFrames() + (int) rate.convert(-wholeSeconds, SECONDS));
+    carrySeconds();
+  }
+
+  /** normalize() for rates with no exact Rate, with the float arithmetic it has always used. */
+  private void normalizeFloats() {
+    int samplesPerFrame = (int) (getSamplesPerSecond() / getFramesPerSecond());
     setFrames(getFrames() + (int) (getSamples() * (1.0f / samplesPerFrame)));
     setSamples(getSamples() % samplesPerFrame);
 
-    setSeconds(getSeconds() + (int) ((float) getFrames() / getFramesPerSecond()));
+    setSeconds(getSeconds() + (int) (getFrames() / getFramesPerSecond()));
     setFrames((int) (getFrames() % getFramesPerSecond()));
+    carrySeconds();
+  }
 
-    while (getSeconds() >= 60) {
-      setSeconds(getSeconds() - 60);
-      setMinutes(getMinutes() + 1);
+  private void carrySeconds() {
+    if (getSeconds() >= 60) {
+      setMinutes(getMinutes() + getSeconds() / 60);
+      setSeconds(getSeconds() % 60);
     }
-    while (getMinutes() >= 60) {
-      setMinutes(getMinutes() - 60);
-      setHours(getHours() + 1);
+    if (getMinutes() >= 60) {
+      setHours(getHours() + getMinutes() / 60);
+      setMinutes(getMinutes() % 60);
     }
   }
 
   public String getCode() {
-    String outString = "";
-    outString += (getHours() < 10 ? "0" + getHours() : "" + getHours()) + ":";
-    outString += (getMinutes() < 10 ? "0" + getMinutes() : "" + getMinutes()) + ":";
-    outString += (getSeconds() < 10 ? "0" + getSeconds() : "" + getSeconds()) + ":";
-    outString += (getFrames() < 10 ? "0" + getFrames() : "" + getFrames());
-    return outString;
+    char code[] = new char[TimecodeFormatter.MAX_LENGTH];
+    return new String(code, 0, TimecodeFormatter.format(getHours(), getMinutes(), getSeconds(), getFrames(), -1, usesDropFrame(), code, 0));
   }
 
   public String getCodeWithSamples() {
-    String outString = "";
-    outString += (getHours() < 10 ? "0" + getHours() : "" + getHours()) + "|";
-    outString += (getMinutes() < 10 ? "0" + getMinutes() : "" + getMinutes()) + "|";
-    outString += (getSeconds() < 10 ? "0" + getSeconds() : "" + getSeconds()) + "|";
-    outString += (getFrames() < 10 ? "0" + getFrames() : "" + getFrames()) + "|";
-    if (getSamples() < 0) {
-      outString += "0000";
-    } else {
-      String _samples = "000" + getSamples();
-      outString += _samples.substring(_samples.length() - 4);
-    }
-    return outString;
+    char code[] = new char[TimecodeFormatter.MAX_LENGTH];
+    int length = TimecodeFormatter.format(getHours(), getMinutes(), getSeconds(), getFrames(), getSamples() < 0 ? 0 : (int) (getSamples() % 10000), usesDropFrame(), code, 0);
+    for (int i = 0; i < length; i++)
+      if (code[i] == ':')
+        code[i] = '|';
+    return new String(code, 0, length);
   }
 
   public float toSeconds() {
@@ -262,28 +391,40 @@ public class Timecode implements java.io.Serializable, Cloneable {
   }
 
   public double toDoubleSeconds() {
-    double value = 0;
-    value += getHours() * 3600;
-    value += getMinutes() * 60;
-    value += getSeconds();
-    value += getFrames() * (1.0 / getFramesPerSecond());
+    if (!hasExactRates()) {
+      double value = wholeSeconds() + getFrames() * (1.0 / getFramesPerSecond());
+      if (useSamples() && getSamples() > -1)
+        value += getSamples() * (1.0 / getSamplesPerSecond());
+      return value;
+    }
+    double value;
+    if (usesDropFrame())
+      value = rate.toSeconds(DropFrame.toFrames(getHours(), getMinutes(), getSeconds(), getFrames(), rate));
+    else
+      value = wholeSeconds() + (double) getFrames() * rate.getDenominator() / rate.getNumerator();
     if (useSamples() && getSamples() > -1)
-      value += getSamples() * (1.0 / getSamplesPerSecond());
+      value += sampleRate.toSeconds(getSamples());
     return value;
   }
 
   /**
    * @return the total number of frames this object represents, so for a 1 second ntsc video timecode,
-   *         this would return 29.97.
+   *         this would return 29.97002997 (30000/1001).
    */
   public double toFrames() {
-    double value = 0;
-    value += getHours() * 3600 * getFramesPerSecond();
-    value += getMinutes() * 60 * getFramesPerSecond();
-    value += getSeconds() * getFramesPerSecond();
-    value += getFrames();
+    if (!hasExactRates()) {
+      double value = wholeSeconds() * getFramesPerSecond() + getFrames();
+      if (getSamples() > -1)
+        value += getSamples() / (getSamplesPerSecond() / getFramesPerSecond());
+      return value;
+    }
+    double value;
+    if (usesDropFrame())
+      value = DropFrame.toFrames(getHours(), getMinutes(), getSeconds(), getFrames(), rate);
+    else
+      value = (double) ticks() / rate.getDenominator();
     if (getSamples() > -1)
-      value += getSamples() / (getSamplesPerSecond() / getFramesPerSecond());
+      value += getSamples() * rate.toDouble() / sampleRate.toDouble();
     return value;
   }
 
@@ -295,13 +436,33 @@ public class Timecode implements java.io.Serializable, Cloneable {
     long value = 0;
     if (getSamples() > -1)
       value += getSamples();
-    value += getFrames() * (getSamplesPerSecond() / getFramesPerSecond());
-    value += getSeconds() * getSamplesPerSecond();
-    value += getMinutes() * 60 * getSamplesPerSecond();
-    value += getHours() * 60 * 60 * getSamplesPerSecond();
+    if (!hasExactRates())
+      value += getFrames() * (getSamplesPerSecond() / getFramesPerSecond()) + wholeSeconds() * getSamplesPerSecond();
+    else if (usesDropFrame())
+      value += sampleRate.convert(DropFrame.toFrames(getHours(), getMinutes(), getSeconds(), getFrames(), rate), rate);
+    else
+      value += sampleRate.convert(ticks(), tickRate());
     return value;
   }
 
+  private long wholeSeconds() {
+    return getHours() * 3600L + getMinutes() * 60L + getSeconds();
+  }
+
+  /**
+   * @return hours through frames in ticks of 1/numerator of a second, in which both a second and a
+   *         frame are whole, so it can be converted to any rate exactly.
+   */
+  private long ticks() {
+    return wholeSeconds() * rate.getNumerator() + (long) getFrames() * rate.getDenominator();
+  }
+
+  private Rate tickRate() {
+    if (tickRate == null || tickRate.getNumerator() != rate.getNumerator())
+      tickRate = Rate.of(rate.getNumerator());
+    return tickRate;
+  }
+
   public String toString() {
     return getCode();
   }
@@ -370,34 +531,6 @@ public class Timecode implements java.io.Serializable, Cloneable {
     return outString;
   }
 
-  /**
-   * Breaks a string on any non-numeric character and returns the index token, zero indexed
-   */
-  private int getToken(String inString, int index) throws Timecode.TimecodeException {
-    inString = inString.trim();
-    String valid = "0123456789";
-    String token = "";
-    int count = 0;
-    for (int i = 0; i < inString.length(); i++) {
-      char current = inString.charAt(i);
-      if (valid.indexOf(current) > -1) {
-        token += current;
-      } else {
-        count++;
-        if (count > index)
-          break; // Found the token.
-        token = ""; // Start reading the next token
-      }
-    }
-    if (count < index || token.equals(""))
-      throw new Timecode.TimecodeException("Malformed timecode '" + inString + "', can't get index=" + index);
-    try {
-      return Integer.parseInt(token);
-    } catch (NumberFormatException ex) {
-      throw new Timecode.TimecodeException("Malformed timecode '" + inString + "', '" + token + "' is not an integer");
-    }
-  }
-
   public boolean equals(Object obj) {
     return this.getCode().equals(obj.toString());
   }
@@ -410,31 +543,52 @@ public class Timecode implements java.io.Serializable, Cloneable {
     }
   }
 
+  /**
+   * The predefined timecode formats. Each has an exact {@link Rate} alongside the float rates the
+   * bean properties have always used, so frame counts can be worked out with
+   * {@link com.pelzer.util.timecode.Frames} instead of accumulating float error.
+   */
   public static class Type {
     /** 29.97 frames/sec, 29,970 samples/sec */
-    public static final Type TYPE_VIDEO_NTSC = new Type(29.970F);
+    public static final Type TYPE_VIDEO_NTSC = new Type(29.970F, Rate.NTSC, false);
+    /**
+     * 29.97 frames/sec, 29,970 samples/sec, labelled HH:MM:SS;FF with SMPTE drop-frame, see
+     * {@link com.pelzer.util.timecode.DropFrame}.
+     */
+    public static final Type TYPE_VIDEO_NTSC_DROP_FRAME = new Type(29.970F, Rate.NTSC, true);
     /** 25 frames/sec, 25,000 samples/sec */
-    public static final Type TYPE_VIDEO_PAL = new Type(25.000F);
+    public static final Type TYPE_VIDEO_PAL = new Type(25.000F, Rate.PAL, false);
     /** 24 frames/sec, 24,000 samples/sec */
-    public static final Type TYPE_VIDEO_FILM = new Type(24.000F);
+    public static final Type TYPE_VIDEO_FILM = new Type(24.000F, Rate.FILM, false);
     /** 75 frames/sec, 44,100 samples/sec */
-    public static final Type TYPE_AUDIO_CD = new Type(75.000F, 44100.000F);
+    public static final Type TYPE_AUDIO_CD = new Type(75.000F, 44100.000F, Rate.AUDIO_CD, Rate.SAMPLES_44100);
+    private static final Type TYPES[] = { TYPE_VIDEO_NTSC, TYPE_VIDEO_NTSC_DROP_FRAME, TYPE_VIDEO_PAL, TYPE_VIDEO_FILM, TYPE_AUDIO_CD };
 
     private float framesPerSecond;
     private float samplesPerSecond;
     private boolean usesSamples = false;
+    private final Rate rate;
+    private final Rate sampleRate;
+    private final boolean dropFrame;
 
-    private Type(float framesPerSecond, float samplesPerSecond) {
+    private Type(float framesPerSecond, float samplesPerSecond, Rate rate, Rate sampleRate) {
       this.framesPerSecond = framesPerSecond;
       this.samplesPerSecond = samplesPerSecond;
       this.usesSamples = true;
+      this.rate = rate;
+      this.sampleRate = sampleRate;
+      this.dropFrame = false;
     }
 
-    private Type(float framesPerSecond) {
+    private Type(float framesPerSecond, Rate rate, boolean dropFrame) {
       this.framesPerSecond = framesPerSecond;
       this.samplesPerSecond = framesPerSecond * 1000;
+      this.rate = rate;
+      this.sampleRate = Rate.of(rate.getNumerator() * 1000L, rate.getDenominator());
+      this.dropFrame = dropFrame;
     }
 
+    /** @return the rate rounded to a float, 29.97 for NTSC. See {@link #getRate()} for the exact one. */
     public float getFramesPerSecond() {
       return framesPerSecond;
     }
@@ -447,6 +601,21 @@ public class Timecode implements java.io.Serializable, Cloneable {
       return usesSamples;
     }
 
+    /** @return the exact frame rate, 30000/1001 for NTSC. */
+    public Rate getRate() {
+      return rate;
+    }
+
+    /** @return the exact sample rate, 44100 for CD audio and 1000 samples a frame for video. */
+    public Rate getSampleRate() {
+      return sampleRate;
+    }
+
+    /** @return true if codes of this type are labelled with SMPTE drop-frame. */
+    public boolean isDropFrame() {
+      return dropFrame;
+    }
+
     /**
      * Takes framesPerSecond and attempts to map it to one of our predefined TYPE_ objects. For
      * instance, getInstance(29.970F) would return TYPE_VIDEO_NTSC.
@@ -466,6 +635,20 @@ public class Timecode implements java.io.Serializable, Cloneable {
         return TYPE_AUDIO_CD;
       throw new NumberFormatException("Cannot map " + framesPerSecond + " frames/sec to a defined timecode format.");
     }
+
+    /**
+     * Maps an exact rate to one of our predefined TYPE_ objects, TYPE_VIDEO_NTSC_DROP_FRAME if
+     * dropFrame is set.
+     * 
+     * @throws NumberFormatException
+     *           If there is no predefined type at that rate.
+     */
+    public static Type getInstance(Rate rate, boolean dropFrame) throws NumberFormatException {
+      for (Type type : TYPES)
+        if (type.getRate().equals(rate) && type.isDropFrame() == dropFrame)
+          return type;
+      throw new NumberFormatException("Cannot map " + rate + " frames/sec" + (dropFrame ? " drop-frame" : "") + " to a defined timecode format.");
+    }
   }
 
 }
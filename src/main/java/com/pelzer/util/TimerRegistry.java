@@ -0,0 +1,400 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.pelzer.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Process-wide named timers and counters, so that code can be instrumented
+ * without every team rolling its own aggregation. Timers and counters are
+ * created on first use and live until {@link #remove(String)}:
+ *
+ * <pre>
+ * private static final TimerRegistry.Timer parseTimer = TimerRegistry.timer(&quot;request.parse&quot;);
+ * ...
+ * try (TimerRegistry.Scope scope = parseTimer.time()) {
+ *   parse(request);
+ * }
+ * </pre>
+ *
+ * Recording never locks: counters add to a {@link StripedCounter}, and timers
+ * record into one of several {@link LatencyHistogram}s picked by thread, which
+ * are only merged when somebody reads them. A disabled timer or counter costs a
+ * volatile read.
+ * <p>
+ * Each timer is published to JMX as
+ * <code>com.pelzer.util:type=Timer,name=...</code> and each counter as
+ * <code>com.pelzer.util:type=Counter,name=...</code>. Run with
+ * -Dpelzer.timer.interval=60 to have every timer and counter logged every 60
+ * seconds to the <code>com.pelzer.util.TimerRegistry</code> logger (at INFO),
+ * or call {@link #reportEvery(long)}.
+ */
+public final class TimerRegistry{
+  private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+  private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+  private static final Scope DISABLED_SCOPE = new Scope(null);
+  private static ScheduledExecutorService reporter = null;
+
+  static{
+    final String interval = System.getProperty("pelzer.timer.interval");
+    if(interval != null)
+      try{
+        reportEvery(Long.parseLong(interval.trim()));
+      }catch(final NumberFormatException ex){
+        Logging.getLogger(TimerRegistry.class).warn("Ignoring pelzer.timer.interval='{}', expected a number of seconds.", interval);
+      }
+  }
+
+  private TimerRegistry(){
+  }
+
+  /** @return the timer with the given name, creating it if need be. */
+  public static Timer timer(final String name){
+    Timer timer = timers.get(name);
+    if(timer == null){
+      final Timer created = new Timer(name);
+      timer = timers.putIfAbsent(name, created);
+      if(timer == null){
+        timer = created;
+        register("Timer", name, created, TimerMBean.class);
+      }
+    }
+    return timer;
+  }
+
+  /** @return the counter with the given name, creating it if need be. */
+  public static Counter counter(final String name){
+    Counter counter = counters.get(name);
+    if(counter == null){
+      final Counter created = new Counter(name);
+      counter = counters.putIfAbsent(name, created);
+      if(counter == null){
+        counter = created;
+        register("Counter", name, created, CounterMBean.class);
+      }
+    }
+    return counter;
+  }
+
+  /**
+   * Forgets the timer and the counter with the given name, if there are any,
+   * and takes them out of JMX. Anybody still holding them can keep recording,
+   * but nobody will see it.
+   */
+  public static void remove(final String name){
+    if(timers.remove(name) != null)
+      unregister("Timer", name);
+    if(counters.remove(name) != null)
+      unregister("Counter", name);
+  }
+
+  /** @return a merged copy of every timer's histogram, in nanos, by name. */
+  public static Map<String, LatencyHistogram> snapshotTimers(){
+    final Map<String, LatencyHistogram> snapshot = new TreeMap<String, LatencyHistogram>();
+    for(final Timer timer : timers.values())
+      snapshot.put(timer.getName(), timer.snapshot());
+    return snapshot;
+  }
+
+  /** @return every counter's value, by name. */
+  public static Map<String, Long> snapshotCounters(){
+    final Map<String, Long> snapshot = new TreeMap<String, Long>();
+    for(final Counter counter : counters.values())
+      snapshot.put(counter.getName(), counter.get());
+    return snapshot;
+  }
+
+  /**
+   * Starts logging every timer and counter every intervalSeconds to the
+   * <code>com.pelzer.util.TimerRegistry</code> logger, one line each, replacing
+   * any earlier schedule. 0 stops reporting.
+   */
+  public static synchronized void reportEvery(final long intervalSeconds){
+    if(reporter != null){
+      reporter.shutdownNow();
+      reporter = null;
+    }
+    if(intervalSeconds <= 0)
+      return;
+    reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+      public Thread newThread(final Runnable runnable){
+        final Thread thread = new Thread(runnable, "pelzer-timer-registry");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    final Logging.Logger log = Logging.getLogger(TimerRegistry.class);
+    reporter.scheduleAtFixedRate(new Runnable(){
+      public void run(){
+        if(!log.isInfoEnabled())
+          return;
+        for(final Map.Entry<String, LatencyHistogram> timer : snapshotTimers().entrySet())
+          log.info("timer {} nanos[{}]", timer.getKey(), timer.getValue());
+        for(final Map.Entry<String, Long> counter : snapshotCounters().entrySet())
+          log.info("counter {}={}", counter.getKey(), counter.getValue());
+      }
+    }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  private static ObjectName objectName(final String type, final String name) throws Exception{
+    return new ObjectName("com.pelzer.util:type=" + type + ",name=" + ObjectName.quote(name));
+  }
+
+  private static <T> void register(final String type, final String name, final T bean, final Class<T> mbeanInterface){
+    try{
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName objectName = objectName(type, name);
+      if(server.isRegistered(objectName))
+        server.unregisterMBean(objectName);
+      server.registerMBean(new StandardMBean(bean, mbeanInterface), objectName);
+    }catch(final Exception ex){
+      Logging.getLogger(TimerRegistry.class).warn("Unable to register {} '{}' with JMX.", ex, type, name);
+    }
+  }
+
+  private static void unregister(final String type, final String name){
+    try{
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName objectName = objectName(type, name);
+      if(server.isRegistered(objectName))
+        server.unregisterMBean(objectName);
+    }catch(final Exception ex){
+      Logging.getLogger(TimerRegistry.class).warn("Unable to unregister {} '{}' from JMX.", ex, type, name);
+    }
+  }
+
+  /** JMX view of a {@link Timer}. */
+  public interface TimerMBean{
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    void reset();
+  }
+
+  /** JMX view of a {@link Counter}. */
+  public interface CounterMBean{
+    long getValue();
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    void reset();
+  }
+
+  /** A named latency histogram, in nanos. Get one from {@link TimerRegistry#timer(String)}. */
+  public static final class Timer implements TimerMBean{
+    private final String name;
+    private final AtomicReferenceArray<LatencyHistogram> stripes = new AtomicReferenceArray<LatencyHistogram>(StripedCounter.stripes());
+    private volatile boolean enabled = true;
+
+    private Timer(final String name){
+      this.name = name;
+    }
+
+    public String getName(){
+      return name;
+    }
+
+    /** Records one event that took the given number of nanos, if enabled. */
+    public void record(final long nanos){
+      if(!enabled)
+        return;
+      final int stripe = StripedCounter.stripe();
+      LatencyHistogram histogram = stripes.get(stripe);
+      if(histogram == null){
+        stripes.compareAndSet(stripe, null, new LatencyHistogram());
+        histogram = stripes.get(stripe);
+      }
+      histogram.record(nanos);
+    }
+
+    /** Records the time since the given {@link System#nanoTime()}, if enabled. */
+    public void recordSince(final long startNanos){
+      if(enabled)
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Starts timing an event, which is recorded when the scope is closed. When
+     * the timer is disabled this hands back a shared scope that does nothing.
+     */
+    public Scope time(){
+      return enabled ? new Scope(this) : DISABLED_SCOPE;
+    }
+
+    /** @return a new histogram with everything recorded so far, in nanos. */
+    public LatencyHistogram snapshot(){
+      final LatencyHistogram merged = new LatencyHistogram();
+      for(int i = 0; i < stripes.length(); i++){
+        final LatencyHistogram histogram = stripes.get(i);
+        if(histogram != null)
+          merged.add(histogram);
+      }
+      return merged;
+    }
+
+    public long getCount(){
+      return snapshot().getCount();
+    }
+
+    public double getMeanMicros(){
+      return snapshot().getMean() / 1000;
+    }
+
+    public double getP50Micros(){
+      return snapshot().getPercentile(50) / 1000d;
+    }
+
+    public double getP99Micros(){
+      return snapshot().getPercentile(99) / 1000d;
+    }
+
+    public double getP999Micros(){
+      return snapshot().getPercentile(99.9) / 1000d;
+    }
+
+    public double getMaxMicros(){
+      return snapshot().getMax() / 1000d;
+    }
+
+    public boolean isEnabled(){
+      return enabled;
+    }
+
+    /** A disabled timer records nothing until it's enabled again. */
+    public void setEnabled(final boolean enabled){
+      this.enabled = enabled;
+    }
+
+    /** Forgets everything recorded so far. */
+    public void reset(){
+      for(int i = 0; i < stripes.length(); i++){
+        final LatencyHistogram histogram = stripes.get(i);
+        if(histogram != null)
+          histogram.reset();
+      }
+    }
+
+    @Override
+    public String toString(){
+      return name + "[" + snapshot() + "]";
+    }
+  }
+
+  /** A named count. Get one from {@link TimerRegistry#counter(String)}. */
+  public static final class Counter implements CounterMBean{
+    private final String name;
+    private final StripedCounter value = new StripedCounter();
+    private volatile boolean enabled = true;
+
+    private Counter(final String name){
+      this.name = name;
+    }
+
+    public String getName(){
+      return name;
+    }
+
+    public void increment(){
+      if(enabled)
+        value.increment();
+    }
+
+    public void add(final long amount){
+      if(enabled)
+        value.add(amount);
+    }
+
+    /** @return the sum of everything added so far. */
+    public long get(){
+      return value.sum();
+    }
+
+    public long getValue(){
+      return get();
+    }
+
+    public boolean isEnabled(){
+      return enabled;
+    }
+
+    /** A disabled counter ignores everything added until it's enabled again. */
+    public void setEnabled(final boolean enabled){
+      this.enabled = enabled;
+    }
+
+    public void reset(){
+      value.reset();
+    }
+
+    @Override
+    public String toString(){
+      return name + "=" + get();
+    }
+  }
+
+  /** Times one event for a {@link Timer}, from creation to {@link #close()}. */
+  public static final class Scope implements AutoCloseable{
+    private final Timer timer;
+    private final long start;
+    private boolean closed = false;
+
+    private Scope(final Timer timer){
+      this.timer = timer;
+      start = timer == null ? 0 : System.nanoTime();
+    }
+
+    /** @return the nanos since the scope was opened, 0 for a disabled timer. */
+    public long getElapsedNanos(){
+      return timer == null ? 0 : System.nanoTime() - start;
+    }
+
+    /** Records the event. Only the first call does anything. */
+    public void close(){
+      if(timer == null || closed)
+        return;
+      closed = true;
+      timer.record(System.nanoTime() - start);
+    }
+  }
+}
@@ -0,0 +1,319 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util;
+
+/**
+ * Splits a CharSequence into tokens the same way {@link java.util.StringTokenizer} does (runs of
+ * delimiters are skipped, so there are no empty tokens), but without copying anything: each token
+ * is just a start and end index into the source, and can be parsed as a number in place. One
+ * Tokenizer can be {@link #reset(CharSequence)} and reused for every line of a file:
+ *
+ * <pre>
+ * Tokenizer tokens = Tokenizer.on(&quot;,&quot;);
+ * while ((line = reader.readLine()) != null) {
+ *   tokens.reset(line);
+ *   while (tokens.next())
+ *     total += tokens.parseLong();
+ * }
+ * </pre>
+ *
+ * Or skip the loop entirely with <code>tokens.reset(line).parseInts(out, 0)</code>. Not thread
+ * safe.
+ */
+public class Tokenizer {
+  /** The same default delimiters as StringTokenizer. */
+  public static final String WHITESPACE = " \t\n\r\f";
+
+  private final String delimiters;
+  private final long lowMask, highMask;
+  private final boolean wideDelimiters;
+  private final View view = new View();
+  private CharSequence source = "";
+  private int position = 0, limit = 0;
+  private int start = -1, end = -1;
+
+  /** Splits on whitespace, like new StringTokenizer(s). Call {@link #reset(CharSequence)} to give it a source. */
+  public Tokenizer() {
+    this("", WHITESPACE);
+  }
+
+  /** Splits the given source on whitespace. */
+  public Tokenizer(CharSequence source) {
+    this(source, WHITESPACE);
+  }
+
+  /** Splits the given source on any of the given delimiter characters. */
+  public Tokenizer(CharSequence source, String delimiters) {
+    this.delimiters = delimiters;
+    lowMask = mask(delimiters, 0);
+    highMask = mask(delimiters, 64);
+    wideDelimiters = hasWide(delimiters);
+    reset(source);
+  }
+
+  /**
+   * @return a tokenizer that splits on any of the given delimiter characters, with no source yet.
+   *         Call {@link #reset(CharSequence)} to give it one.
+   */
+  public static Tokenizer on(String delimiters) {
+    return new Tokenizer("", delimiters);
+  }
+
+  /** Starts over on a new source. */
+  public Tokenizer reset(CharSequence source) {
+    return reset(source, 0, source.length());
+  }
+
+  /** Starts over on the given range of a new source. */
+  public Tokenizer reset(CharSequence source, int from, int to) {
+    this.source = source;
+    position = from;
+    limit = to;
+    start = end = -1;
+    return this;
+  }
+
+  /**
+   * Moves to the next token.
+   *
+   * @return false if there are no more tokens.
+   */
+  public boolean next() {
+    int i = position;
+    while (i < limit && isDelimiter(source.charAt(i)))
+      i++;
+    if (i >= limit) {
+      position = limit;
+      start = end = -1;
+      return false;
+    }
+    start = i;
+    while (i < limit && !isDelimiter(source.charAt(i)))
+      i++;
+    end = i;
+    position = i;
+    return true;
+  }
+
+  /** @return the index in the source of the current token's first char. */
+  public int start() {
+    checkToken();
+    return start;
+  }
+
+  /** @return the index in the source just past the current token's last char. */
+  public int end() {
+    checkToken();
+    return end;
+  }
+
+  /**
+   * @return the current token as a view over the source. The same object is returned every time
+   *         and changes with {@link #next()}, so call toString() on it if you need to keep it.
+   */
+  public CharSequence token() {
+    checkToken();
+    return view;
+  }
+
+  /** @return the current token as a new String. */
+  public String tokenString() {
+    checkToken();
+    return source.subSequence(start, end).toString();
+  }
+
+  /** @return the current token parsed as an int, without making a String. */
+  public int parseInt() {
+    checkToken();
+    return parseInt(source, start, end);
+  }
+
+  /** @return the current token parsed as a long, without making a String. */
+  public long parseLong() {
+    checkToken();
+    return parseLong(source, start, end);
+  }
+
+  private void checkToken() {
+    if (start < 0)
+      throw new IllegalStateException("No current token, call next() first.");
+  }
+
+  private boolean isDelimiter(char c) {
+    if (c < 64)
+      return (lowMask & (1L << c)) != 0;
+    if (c < 128)
+      return (highMask & (1L << (c - 64))) != 0;
+    return wideDelimiters && delimiters.indexOf(c) >= 0;
+  }
+
+  private static long mask(String delimiters, int from) {
+    long mask = 0;
+    for (int i = 0; i < delimiters.length(); i++) {
+      char c = delimiters.charAt(i);
+      if (c >= from && c < from + 64)
+        mask |= 1L << (c - from);
+    }
+    return mask;
+  }
+
+  private static boolean hasWide(String delimiters) {
+    for (int i = 0; i < delimiters.length(); i++)
+      if (delimiters.charAt(i) >= 128)
+        return true;
+    return false;
+  }
+
+  /**
+   * Parses the chars from start to end as a decimal int, with the same rules as
+   * {@link Integer#parseInt(String)} (except that only ASCII digits are allowed), without making a
+   * String.
+   */
+  public static int parseInt(CharSequence s, int start, int end) {
+    long value = parseLong(s, start, end);
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+      throw numberFormat(s, start, end);
+    return (int) value;
+  }
+
+  /**
+   * Parses the chars from start to end as a decimal long, with the same rules as
+   * {@link Long#parseLong(String)} (except that only ASCII digits are allowed), without making a
+   * String.
+   */
+  public static long parseLong(CharSequence s, int start, int end) {
+    if (start >= end)
+      throw numberFormat(s, start, end);
+    int i = start;
+    boolean negative = false;
+    char first = s.charAt(i);
+    if (first == '-' || first == '+') {
+      negative = first == '-';
+      if (++i == end)
+        throw numberFormat(s, start, end);
+    }
+    // Accumulate negatively so Long.MIN_VALUE fits
+    long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+    long multiplyLimit = limit / 10;
+    long result = 0;
+    for (; i < end; i++) {
+      int digit = s.charAt(i) - '0';
+      if (digit < 0 || digit > 9 || result < multiplyLimit)
+        throw numberFormat(s, start, end);
+      result *= 10;
+      if (result < limit + digit)
+        throw numberFormat(s, start, end);
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  private static NumberFormatException numberFormat(CharSequence s, int start, int end) {
+    return new NumberFormatException("For input string: \"" + s.subSequence(start, end) + "\"");
+  }
+
+  /**
+   * Parses the rest of the tokens into out, starting at out[offset], without making any Strings.
+   * Values are stored as they're parsed, so if this throws, the ones before the bad token are
+   * already in out.
+   *
+   * @return the number of values parsed.
+   * @throws IllegalArgumentException
+   *           if there are more tokens than room in out.
+   * @throws NumberFormatException
+   *           if a token isn't an int.
+   */
+  public int parseInts(int out[], int offset) {
+    int i = offset;
+    while (next()) {
+      if (i >= out.length)
+        throw new IllegalArgumentException("More than " + (out.length - offset) + " values in the line.");
+      out[i++] = parseInt(source, start, end);
+    }
+    return i - offset;
+  }
+
+  /** Same as {@link #parseInts(int[], int)}, for longs. */
+  public int parseLongs(long out[], int offset) {
+    int i = offset;
+    while (next()) {
+      if (i >= out.length)
+        throw new IllegalArgumentException("More than " + (out.length - offset) + " values in the line.");
+      out[i++] = parseLong(source, start, end);
+    }
+    return i - offset;
+  }
+
+  /**
+   * @return the number of tokens left, without moving past them, like
+   *         {@link java.util.StringTokenizer#countTokens()}.
+   */
+  public int countTokens() {
+    int count = 0;
+    int i = position;
+    while (true) {
+      while (i < limit && isDelimiter(source.charAt(i)))
+        i++;
+      if (i >= limit)
+        return count;
+      count++;
+      while (i < limit && !isDelimiter(source.charAt(i)))
+        i++;
+    }
+  }
+
+  /**
+   * Parses every token of line into out, with a new Tokenizer. To parse many lines, keep one
+   * Tokenizer and use {@link #parseInts(int[], int)} on it instead.
+   *
+   * @see #parseInts(int[], int)
+   */
+  public static int parseInts(CharSequence line, String delimiters, int out[], int offset) {
+    return new Tokenizer(line, delimiters).parseInts(out, offset);
+  }
+
+  /** Same as {@link #parseInts(CharSequence, String, int[], int)}, for longs. */
+  public static int parseLongs(CharSequence line, String delimiters, long out[], int offset) {
+    return new Tokenizer(line, delimiters).parseLongs(out, offset);
+  }
+
+  /** @return the number of tokens in the line. */
+  public static int countTokens(CharSequence line, String delimiters) {
+    return new Tokenizer(line, delimiters).countTokens();
+  }
+
+  /** The current token, read straight out of the source. */
+  private final class View implements CharSequence {
+    public int length() {
+      return end - start;
+    }
+
+    public char charAt(int index) {
+      if (index < 0 || index >= end - start)
+        throw new IndexOutOfBoundsException("index " + index + ", length " + (end - start));
+      return source.charAt(start + index);
+    }
+
+    public CharSequence subSequence(int from, int to) {
+      return source.subSequence(start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+      return source.subSequence(start, end).toString();
+    }
+  }
+}
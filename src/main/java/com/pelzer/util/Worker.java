@@ -0,0 +1,216 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A background loop that can be stopped promptly, the managed replacement for
+ * {@link KillableThread}. Rather than polling a flag between sleeps, the worker
+ * calls {@link #work()}, then parks until the interval is up, somebody calls
+ * {@link #wakeUp()}, or it's stopped, so shutdown doesn't wait out the sleep
+ * and an idle worker with no interval doesn't wake up at all.
+ *
+ * <pre>
+ * Worker flusher = new Worker(&quot;flusher&quot;, 5, TimeUnit.SECONDS) {
+ *   protected void work() throws IOException {
+ *     flush();
+ *   }
+ * };
+ * flusher.start();
+ * ...
+ * flusher.stop();
+ * flusher.awaitTermination(10, TimeUnit.SECONDS);
+ * </pre>
+ *
+ * A worker is a {@link Runnable} rather than a Thread, so it runs on whatever
+ * thread it's given: {@link #start()} makes a plain thread, and
+ * {@link #start(ThreadFactory)} takes any factory, including
+ * <code>Thread.ofVirtual().factory()</code> on JVMs that have virtual threads.
+ * Waiting is done with {@link LockSupport#park(Object)}, which doesn't tie a
+ * virtual thread to its carrier. Use a {@link QueueWorker} to be handed items
+ * of work, and a {@link WorkerGroup} to stop several workers together.
+ * <p>
+ * Interrupting the worker's thread is taken as a request to stop, so that work
+ * stuck in a blocking call can be broken out of with {@link #stopNow()}.
+ */
+public abstract class Worker implements Runnable {
+  private final String name;
+  private final long intervalNanos;
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final CountDownLatch terminated = new CountDownLatch(1);
+  private volatile boolean stopping = false;
+  private volatile boolean woken = false;
+  private volatile Thread thread;
+
+  /** A worker that calls {@link #work()} once per {@link #wakeUp()}, and otherwise sleeps until stopped. */
+  protected Worker(String name) {
+    this(name, 0, TimeUnit.NANOSECONDS);
+  }
+
+  /** A worker that calls {@link #work()} every interval, and whenever it's woken up. 0 means only when woken. */
+  protected Worker(String name, long interval, TimeUnit unit) {
+    if (interval < 0)
+      throw new IllegalArgumentException("interval can't be negative: " + interval);
+    this.name = name;
+    this.intervalNanos = unit.toNanos(interval);
+  }
+
+  /**
+   * Does one round of work. Exceptions are passed to {@link #failed(Exception)}
+   * and the worker carries on. Long rounds should check {@link #isStopping()}
+   * now and then.
+   */
+  protected abstract void work() throws Exception;
+
+  /** Called on the worker's thread before the first round of work. */
+  protected void starting() {
+  }
+
+  /** Called on the worker's thread after the last round of work, however the worker stopped. */
+  protected void stopped() {
+  }
+
+  /** Called when {@link #work()} throws. Logs the exception, override to do something else. */
+  protected void failed(Exception ex) {
+    Logging.getLogger(Worker.class).error("Worker '{}' failed, carrying on.", ex, name);
+  }
+
+  /** Starts the worker on a new thread with the worker's name. @return the thread. */
+  public Thread start() {
+    return start(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, name);
+      }
+    });
+  }
+
+  /** Starts the worker on a thread from the given factory. @return the thread. */
+  public Thread start(ThreadFactory factory) {
+    if (!started.compareAndSet(false, true))
+      throw new IllegalStateException("Worker '" + name + "' has already been started.");
+    Thread newThread = factory.newThread(new Runnable() {
+      public void run() {
+        loop();
+      }
+    });
+    newThread.start();
+    return newThread;
+  }
+
+  /** Runs the worker on the calling thread until it's stopped, for executors that supply their own threads. */
+  public void run() {
+    if (!started.compareAndSet(false, true))
+      throw new IllegalStateException("Worker '" + name + "' has already been started.");
+    loop();
+  }
+
+  private void loop() {
+    thread = Thread.currentThread();
+    try {
+      starting();
+      while (!isStopping()) {
+        try {
+          work();
+        } catch (Exception ex) {
+          failed(ex);
+        }
+        pause();
+      }
+    } finally {
+      try {
+        stopped();
+      } finally {
+        thread = null;
+        terminated.countDown();
+      }
+    }
+  }
+
+  /** Parks until the interval is up, or the worker is woken or stopped. */
+  private void pause() {
+    long deadline = System.nanoTime() + intervalNanos;
+    while (!woken && !isStopping()) {
+      if (intervalNanos == 0) {
+        LockSupport.park(this);
+      } else {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0)
+          break;
+        LockSupport.parkNanos(this, remaining);
+      }
+    }
+    woken = false;
+  }
+
+  /** Has the worker do another round of work as soon as it's finished the one it's on, if any. */
+  public void wakeUp() {
+    woken = true;
+    Thread current = thread;
+    if (current != null)
+      LockSupport.unpark(current);
+  }
+
+  /** Asks the worker to stop once it's finished the round of work it's on, and returns without waiting. */
+  public void stop() {
+    stopping = true;
+    wakeUp();
+  }
+
+  /** Stops the worker and interrupts its thread, to break it out of blocking calls. */
+  public void stopNow() {
+    stop();
+    Thread current = thread;
+    if (current != null)
+      current.interrupt();
+  }
+
+  /** @return true once the worker has finished, false if the time ran out first or it was never started. */
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return terminated.await(timeout, unit);
+  }
+
+  /** @return true once the worker has been asked to stop, or its thread interrupted. */
+  public boolean isStopping() {
+    Thread current = thread;
+    if (!stopping && current != null && current.isInterrupted())
+      stopping = true;
+    return stopping;
+  }
+
+  /** @return true while the worker is running on a thread. */
+  public boolean isRunning() {
+    return thread != null;
+  }
+
+  /** @return true once the worker has run and finished. */
+  public boolean isTerminated() {
+    return terminated.getCount() == 0;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String toString() {
+    return name + (isTerminated() ? " (terminated)" : isStopping() ? " (stopping)" : isRunning() ? " (running)" : "");
+  }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts {@link Worker}s and stops them all together. {@link #shutdown(long, TimeUnit)}
+ * asks every worker to stop at once, so they wind down in parallel, waits for
+ * them against a single deadline, and interrupts whichever haven't finished by
+ * then.
+ *
+ * <pre>
+ * WorkerGroup group = new WorkerGroup();
+ * group.start(new Indexer());
+ * group.start(new Flusher());
+ * ...
+ * List&lt;Worker&gt; stuck = group.shutdown(30, TimeUnit.SECONDS);
+ * </pre>
+ */
+public class WorkerGroup {
+  private final ThreadFactory factory;
+  private final List<Worker> workers = new CopyOnWriteArrayList<Worker>();
+  private volatile boolean shutdown = false;
+
+  /** A group that runs each worker on a plain thread named after it. */
+  public WorkerGroup() {
+    this(null);
+  }
+
+  /** A group that runs its workers on threads from the given factory, which could make virtual threads. */
+  public WorkerGroup(ThreadFactory factory) {
+    this.factory = factory;
+  }
+
+  /** Starts the worker as part of this group. @return the worker. */
+  public <W extends Worker> W start(W worker) {
+    if (shutdown)
+      throw new IllegalStateException("The group has been shut down.");
+    workers.add(worker);
+    if (factory == null)
+      worker.start();
+    else
+      worker.start(factory);
+    return worker;
+  }
+
+  /** Wakes up every worker in the group, see {@link Worker#wakeUp()}. */
+  public void wakeUpAll() {
+    for (Worker worker : workers)
+      worker.wakeUp();
+  }
+
+  /**
+   * Stops every worker, waiting up to the timeout for all of them together.
+   * Any that are still running after that are interrupted, but not waited for
+   * any longer. No more workers can be started in the group.
+   *
+   * @return the workers that didn't stop in time, empty if they all did.
+   */
+  public List<Worker> shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    shutdown = true;
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (Worker worker : workers)
+      worker.stop();
+    List<Worker> stragglers = new ArrayList<Worker>();
+    for (Worker worker : workers)
+      if (!worker.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+        stragglers.add(worker);
+    for (Worker worker : stragglers) {
+      Logging.getLogger(WorkerGroup.class).warn("Worker '{}' didn't stop in time, interrupting it.", worker.getName());
+      worker.stopNow();
+    }
+    return stragglers;
+  }
+
+  /** @return the workers started in the group, finished or not. */
+  public List<Worker> getWorkers() {
+    return new ArrayList<Worker>(workers);
+  }
+
+  public boolean isShutdown() {
+    return shutdown;
+  }
+}
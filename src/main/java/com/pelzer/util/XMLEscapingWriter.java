@@ -0,0 +1,73 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Escapes everything written to it with the same rules as {@link StringMan#escapeForXML(String)}
+ * before passing it on to the target Writer, so text content can be streamed straight into an XML
+ * document. Runs of characters that don't need escaping are passed on in one write.
+ */
+public class XMLEscapingWriter extends FilterWriter {
+  public XMLEscapingWriter(Writer target) {
+    super(target);
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    if (StringMan.isXMLSafe((char) c))
+      out.write(c);
+    else
+      StringMan.appendXMLEscape((char) c, out);
+  }
+
+  @Override
+  public void write(char chars[], int offset, int length) throws IOException {
+    int end = offset + length;
+    int clean = offset;
+    while (clean < end) {
+      int unsafe = StringMan.indexOfXMLUnsafe(chars, clean, end);
+      if (unsafe < 0) {
+        out.write(chars, clean, end - clean);
+        return;
+      }
+      if (clean < unsafe)
+        out.write(chars, clean, unsafe - clean);
+      StringMan.appendXMLEscape(chars[unsafe], out);
+      clean = unsafe + 1;
+    }
+  }
+
+  @Override
+  public void write(String string, int offset, int length) throws IOException {
+    int end = offset + length;
+    int clean = offset;
+    while (clean < end) {
+      int unsafe = StringMan.indexOfXMLUnsafe(string, clean, end);
+      if (unsafe < 0) {
+        out.write(string, clean, end - clean);
+        return;
+      }
+      if (clean < unsafe)
+        out.write(string, clean, unsafe - clean);
+      StringMan.appendXMLEscape(string.charAt(unsafe), out);
+      clean = unsafe + 1;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.timecode;
+
+/**
+ * SMPTE drop-frame counting. NTSC runs at 30000/1001 frames/sec, so labelling 30 frames to the
+ * second drifts 3.6 seconds behind the clock every hour. Drop-frame labels skip frame numbers 0 and
+ * 1 (0-3 at 60000/1001) at the start of every minute except every tenth, which keeps the label
+ * within a frame of the clock. No frames are dropped, only labels: 00:00:59;29 is followed by
+ * 00:01:00;02.
+ * <p>
+ * Everything here works on a "label count", which is the count the label would name without
+ * dropping, (hours * 3600 + minutes * 60 + seconds) * nominal + frames, so converting either way is
+ * a couple of integer divisions. Drop-frame only applies to 1001 rates that are a multiple of 30
+ * nominal frames/sec, see {@link #isSupported(Rate)}.
+ */
+public final class DropFrame {
+  private DropFrame() {
+  }
+
+  /** @return true for NTSC-style rates, 30000/1001 and its multiples such as 60000/1001. */
+  public static boolean isSupported(Rate rate) {
+    return rate.getDenominator() == 1001 && rate.getNumerator() % 30000 == 0;
+  }
+
+  /** @return the labels skipped at the start of each minute, 2 for 30000/1001, 4 for 60000/1001. */
+  public static int getDroppedPerMinute(Rate rate) {
+    check(rate);
+    return rate.getNominalFramesPerSecond() / 15;
+  }
+
+  /** @return the label count of the frame count'th frame. */
+  public static long toLabelCount(long count, Rate rate) {
+    if (count < 0)
+      return -toLabelCount(-count, rate);
+    int nominal = rate.getNominalFramesPerSecond();
+    int dropped = getDroppedPerMinute(rate);
+    long perMinute = nominal * 60L - dropped;
+    long perTenMinutes = nominal * 600L - dropped * 9L;
+    long tens = count / perTenMinutes;
+    long remainder = count % perTenMinutes;
+    long skipped = dropped * 9L * tens;
+    if (remainder > dropped)
+      skipped += dropped * ((remainder - dropped) / perMinute);
+    return count + skipped;
+  }
+
+  /**
+   * @return the frame count a label count names. Labels that drop-frame skips (the first frames of
+   *         most minutes) come out as the frame before, see {@link #isValid(int, int, int, Rate)}.
+   */
+  public static long fromLabelCount(long labelCount, Rate rate) {
+    if (labelCount < 0)
+      return -fromLabelCount(-labelCount, rate);
+    int nominal = rate.getNominalFramesPerSecond();
+    long minutes = labelCount / (nominal * 60L);
+    return labelCount - getDroppedPerMinute(rate) * (minutes - minutes / 10);
+  }
+
+  /** @return the frame count the label HH:MM:SS;FF names. */
+  public static long toFrames(int hours, int minutes, int seconds, int frames, Rate rate) {
+    return fromLabelCount((hours * 3600L + minutes * 60L + seconds) * rate.getNominalFramesPerSecond() + frames, rate);
+  }
+
+  /** @return false for the labels that drop-frame skips, such as 00:01:00;00. */
+  public static boolean isValid(int minutes, int seconds, int frames, Rate rate) {
+    return seconds != 0 || minutes % 10 == 0 || frames >= getDroppedPerMinute(rate);
+  }
+
+  private static void check(Rate rate) {
+    if (!isSupported(rate))
+      throw new IllegalArgumentException("Drop-frame doesn't apply to " + rate + " frames/sec.");
+  }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.timecode;
+
+import java.io.Serializable;
+
+/**
+ * An immutable point on (or length of) a timeline, held as a single count of frames at a
+ * {@link Rate}. Unlike {@link com.pelzer.util.Timecode} there are no separate hour, minute and
+ * second fields to keep normalized and no floating point: all the arithmetic is done on the frame
+ * count, and converting to another rate is exact up to the final rounding down. Use a sample rate
+ * such as {@link Rate#SAMPLES_48000} to count samples instead of frames.
+ *
+ * <pre>
+ * Frames start = Frames.of(1, 0, 0, 0, Rate.PAL); // 01:00:00:00
+ * Frames end = start.add(Frames.ofSeconds(90, Rate.PAL)); // 01:01:30:00
+ * </pre>
+ *
+ * Non-drop-frame labels count {@link Rate#getNominalFramesPerSecond()} frames to each labelled
+ * second, the SMPTE way, so at NTSC 01:00:00:00 is frame 108000, about 3.6 seconds after an hour
+ * has passed. {@link com.pelzer.util.Timecode} takes its fields as wall-clock time instead, and
+ * makes the same code 107892.1 frames. The two only agree at whole rates and for drop-frame labels.
+ * <p>
+ * Small non-negative counts are cached per rate, the same as Integer.valueOf().
+ * {@link #compareTo(Frames)} compares the instants, even across rates, while
+ * {@link #equals(Object)} also requires the same rate, so 25 frames at PAL and 24 frames at FILM
+ * compare as 0 but aren't equal.
+ */
+public final class Frames implements Comparable<Frames>, Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final long count;
+  private final Rate rate;
+
+  Frames(long count, Rate rate) {
+    this.count = count;
+    this.rate = rate;
+  }
+
+  /** @return count frames at the given rate. */
+  public static Frames of(long count, Rate rate) {
+    if (rate == null)
+      throw new IllegalArgumentException("Rate cannot be null.");
+    if (count >= 0 && count < Rate.CACHED_FRAMES)
+      return rate.cached((int) count);
+    return new Frames(count, rate);
+  }
+
+  /**
+   * @return the frame labelled hours:minutes:seconds:frames, counting
+   *         {@link Rate#getNominalFramesPerSecond()} frames to a labelled second. Fields larger
+   *         than their usual range just carry over, so 00:00:75:00 is 00:01:15:00.
+   */
+  public static Frames of(int hours, int minutes, int seconds, int frames, Rate rate) {
+    long labelSeconds = hours * 3600L + minutes * 60L + seconds;
+    return of(labelSeconds * rate.getNominalFramesPerSecond() + frames, rate);
+  }
+
+  /**
+   * @return the frame with the {@link DropFrame} label hours:minutes:seconds;frames.
+   * @throws IllegalArgumentException
+   *           if the rate doesn't support drop-frame.
+   */
+  public static Frames ofDropFrame(int hours, int minutes, int seconds, int frames, Rate rate) {
+    return of(DropFrame.toFrames(hours, minutes, seconds, frames, rate), rate);
+  }
+
+  /**
+   * @return the frame labelled by the given HH:MM:SS:FF code (or HH:MM:SS;FF drop-frame code) at the
+   *         given rate.
+   * @throws IllegalArgumentException
+   *           if it isn't a timecode. Use a {@link TimecodeParser} to check codes without
+   *           exceptions.
+   */
+  public static Frames parse(CharSequence code, Rate rate) {
+    TimecodeParser parser = new TimecodeParser();
+    if (!parser.parse(code))
+      throw new IllegalArgumentException(parser.getError());
+    return of(parser.toFrames(rate), rate);
+  }
+
+  /** @return the frame at the given rate that the number of seconds falls in, to the nearest frame. */
+  public static Frames ofSeconds(double seconds, Rate rate) {
+    return of(rate.fromSeconds(seconds), rate);
+  }
+
+  /** @return the frame at the given rate that the nanosecond falls in. */
+  public static Frames ofNanos(long nanos, Rate rate) {
+    return of(rate.fromNanos(nanos), rate);
+  }
+
+  /** @return the number of frames. */
+  public long getCount() {
+    return count;
+  }
+
+  public Rate getRate() {
+    return rate;
+  }
+
+  /** @return this plus the given number of frames at this rate. */
+  public Frames add(long frames) {
+    return frames == 0 ? this : of(count + frames, rate);
+  }
+
+  /** @return this plus other, converted to this rate first if need be. */
+  public Frames add(Frames other) {
+    return add(rate.convert(other.count, other.rate));
+  }
+
+  /** @return this minus the given number of frames at this rate. */
+  public Frames subtract(long frames) {
+    return frames == 0 ? this : of(count - frames, rate);
+  }
+
+  /** @return this minus other, converted to this rate first if need be. */
+  public Frames subtract(Frames other) {
+    return subtract(rate.convert(other.count, other.rate));
+  }
+
+  /** @return minus this. */
+  public Frames negate() {
+    return of(-count, rate);
+  }
+
+  /** @return this times the given factor. */
+  public Frames multiply(long factor) {
+    return factor == 1 ? this : of(count * factor, rate);
+  }
+
+  /**
+   * @return this times numerator/denominator, rounded down. Speeding a clip up by 4% for a PAL
+   *         transfer would be scale(24, 25).
+   */
+  public Frames scale(long numerator, long denominator) {
+    if (denominator <= 0)
+      throw new IllegalArgumentException("Denominator must be positive: " + denominator);
+    if (numerator == denominator)
+      return this;
+    return of(Rate.multiplyDivide(count, numerator, denominator), rate);
+  }
+
+  /** @return the frame at the given rate that this frame starts in. */
+  public Frames convert(Rate to) {
+    return to == rate ? this : of(to.convert(count, rate), to);
+  }
+
+  /** @return true if this is before zero. */
+  public boolean isNegative() {
+    return count < 0;
+  }
+
+  public double toSeconds() {
+    return rate.toSeconds(count);
+  }
+
+  /** @return this in nanoseconds, rounded down. */
+  public long toNanos() {
+    return rate.toNanos(count);
+  }
+
+  /** @return this in milliseconds, rounded down. */
+  public long toMillis() {
+    return Rate.MILLISECONDS.convert(count, rate);
+  }
+
+  /** @return the hours field of the label. Negative values give the fields of their absolute value. */
+  public int getHours() {
+    return (int) (labelSeconds() / 3600);
+  }
+
+  /** @return the minutes field of the label, 0-59. */
+  public int getMinutes() {
+    return (int) (labelSeconds() / 60 % 60);
+  }
+
+  /** @return the seconds field of the label, 0-59. */
+  public int getSeconds() {
+    return (int) (labelSeconds() % 60);
+  }
+
+  /** @return the frames field of the label, from 0 up to the nominal frames/sec. */
+  public int getFrames() {
+    return (int) (Math.abs(count) % rate.getNominalFramesPerSecond());
+  }
+
+  private long labelSeconds() {
+    return Math.abs(count) / rate.getNominalFramesPerSecond();
+  }
+
+  /** Compares the instants, converting between rates exactly when they differ. */
+  public int compareTo(Frames other) {
+    return Rate.compare(count, rate, other.count, other.rate);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof Frames))
+      return false;
+    Frames other = (Frames) obj;
+    return count == other.count && rate.equals(other.rate);
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (count ^ (count >>> 32)) * 31 + rate.hashCode();
+  }
+
+  /**
+   * @return the label, HH:MM:SS:FF, with a leading '-' when negative. The frames field is as wide
+   *         as the largest frame number at this rate, so milliseconds print as HH:MM:SS:FFF.
+   */
+  @Override
+  public String toString() {
+    return TimecodeFormatter.format(count, rate);
+  }
+
+  /**
+   * @return the {@link DropFrame} label, HH:MM:SS;FF.
+   * @throws IllegalArgumentException
+   *           if the rate doesn't support drop-frame.
+   */
+  public String toDropFrameString() {
+    return TimecodeFormatter.format(count, rate, true);
+  }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.timecode;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A frame (or sample) rate, held as an exact fraction of frames per second so that NTSC is
+ * 30000/1001 and not 29.97. Rates are interned: {@link #of(long, long)} always hands back the same
+ * instance for the same reduced fraction, so they can be compared with ==.
+ */
+public final class Rate implements Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final ConcurrentMap<Rate, Rate> interned = new ConcurrentHashMap<Rate, Rate>();
+  /** {@link Frames} from 0 up to this are made once per rate and shared. */
+  static final int CACHED_FRAMES = 256;
+
+  /** 24 frames/sec */
+  public static final Rate FILM = of(24);
+  /** 24000/1001 frames/sec, film pulled down for NTSC */
+  public static final Rate FILM_NTSC = of(24000, 1001);
+  /** 25 frames/sec */
+  public static final Rate PAL = of(25);
+  /** 30 frames/sec */
+  public static final Rate FPS_30 = of(30);
+  /** 30000/1001 frames/sec, usually called 29.97 */
+  public static final Rate NTSC = of(30000, 1001);
+  /** 50 frames/sec */
+  public static final Rate PAL_HD = of(50);
+  /** 60000/1001 frames/sec, usually called 59.94 */
+  public static final Rate NTSC_HD = of(60000, 1001);
+  /** 75 frames/sec, the frames of a CD */
+  public static final Rate AUDIO_CD = of(75);
+  /** 1000/sec, for durations in milliseconds */
+  public static final Rate MILLISECONDS = of(1000);
+  /** 44,100 samples/sec */
+  public static final Rate SAMPLES_44100 = of(44100);
+  /** 48,000 samples/sec */
+  public static final Rate SAMPLES_48000 = of(48000);
+
+  private final long numerator;
+  private final long denominator;
+  private transient volatile Frames cache[];
+
+  private Rate(long numerator, long denominator) {
+    this.numerator = numerator;
+    this.denominator = denominator;
+  }
+
+  /** @return the rate of a whole number of frames per second. */
+  public static Rate of(long framesPerSecond) {
+    return of(framesPerSecond, 1);
+  }
+
+  /**
+   * @return the rate of numerator/denominator frames per second, for instance of(30000, 1001) for
+   *         NTSC.
+   * @throws IllegalArgumentException
+   *           if either is zero or negative.
+   */
+  public static Rate of(long numerator, long denominator) {
+    if (numerator <= 0 || denominator <= 0)
+      throw new IllegalArgumentException("Rates must be positive: " + numerator + "/" + denominator);
+    long gcd = gcd(numerator, denominator);
+    Rate rate = new Rate(numerator / gcd, denominator / gcd);
+    Rate existing = interned.putIfAbsent(rate, rate);
+    return existing == null ? rate : existing;
+  }
+
+  /** @return the numerator of the reduced frames/sec fraction. */
+  public long getNumerator() {
+    return numerator;
+  }
+
+  /** @return the denominator of the reduced frames/sec fraction, 1 for whole rates. */
+  public long getDenominator() {
+    return denominator;
+  }
+
+  /** @return true for whole numbers of frames per second. */
+  public boolean isWhole() {
+    return denominator == 1;
+  }
+
+  /**
+   * @return the frames that make up one second of a timecode label, which is the rate rounded up,
+   *         so 30 for NTSC.
+   */
+  public int getNominalFramesPerSecond() {
+    return (int) ((numerator + denominator - 1) / denominator);
+  }
+
+  /** @return frames/sec as a double, for display. Do arithmetic with the fraction instead. */
+  public double toDouble() {
+    return (double) numerator / denominator;
+  }
+
+  /**
+   * @return the number of frames at this rate that have fully passed after count frames at the
+   *         given rate, in other words the conversion rounded down.
+   */
+  public long convert(long count, Rate from) {
+    if (from == this)
+      return count;
+    // count * (n / d) / (from.n / from.d)
+    return multiplyDivide(count, numerator * from.denominator, denominator * from.numerator);
+  }
+
+  /** @return count frames at this rate in seconds. */
+  public double toSeconds(long count) {
+    return (double) count * denominator / numerator;
+  }
+
+  /** @return count frames at this rate in nanoseconds, rounded down. */
+  public long toNanos(long count) {
+    return multiplyDivide(count, denominator * 1000000000L, numerator);
+  }
+
+  /** @return the frame at this rate that the given number of seconds falls in, to the nearest frame. */
+  public long fromSeconds(double seconds) {
+    return Math.round(seconds * numerator / denominator);
+  }
+
+  /** @return the frame at this rate that the given nanosecond falls in. */
+  public long fromNanos(long nanos) {
+    return multiplyDivide(nanos, numerator, denominator * 1000000000L);
+  }
+
+  /** @return a shared Frames for small non-negative counts at this rate. */
+  Frames cached(int count) {
+    Frames frames[] = cache;
+    if (frames == null) {
+      frames = new Frames[CACHED_FRAMES];
+      for (int i = 0; i < frames.length; i++)
+        frames[i] = new Frames(i, this);
+      cache = frames;
+    }
+    return frames[count];
+  }
+
+  /**
+   * Compares count1 frames at rate1 with count2 frames at rate2 exactly.
+   *
+   * @return negative, zero or positive, the same as compareTo.
+   */
+  static int compare(long count1, Rate rate1, long count2, Rate rate2) {
+    if (rate1 == rate2)
+      return count1 < count2 ? -1 : (count1 == count2 ? 0 : 1);
+    // count1 * d1 / n1 against count2 * d2 / n2
+    long scale1 = rate1.denominator * rate2.numerator;
+    long scale2 = rate2.denominator * rate1.numerator;
+    if (fits(count1, scale1) && fits(count2, scale2)) {
+      long left = count1 * scale1, right = count2 * scale2;
+      return left < right ? -1 : (left == right ? 0 : 1);
+    }
+    return BigInteger.valueOf(count1).multiply(BigInteger.valueOf(scale1)).compareTo(BigInteger.valueOf(count2).multiply(BigInteger.valueOf(scale2)));
+  }
+
+  /** @return value * multiplier / divisor rounded towards negative infinity, without overflowing on the way. */
+  static long multiplyDivide(long value, long multiplier, long divisor) {
+    if (fits(value, multiplier))
+      return floorDivide(value * multiplier, divisor);
+    BigInteger quotient[] = BigInteger.valueOf(value).multiply(BigInteger.valueOf(multiplier)).divideAndRemainder(BigInteger.valueOf(divisor));
+    long result = quotient[0].longValue();
+    return quotient[1].signum() < 0 ? result - 1 : result;
+  }
+
+  /** @return value / divisor rounded towards negative infinity, for positive divisors. */
+  static long floorDivide(long value, long divisor) {
+    long quotient = value / divisor;
+    return (value % divisor < 0) ? quotient - 1 : quotient;
+  }
+
+  /** @return true if a * b fits in a long, for non-negative b. */
+  static boolean fits(long a, long b) {
+    if (b == 0 || a == 0)
+      return true;
+    long limit = Long.MAX_VALUE / b;
+    return a <= limit && a >= -limit;
+  }
+
+  static long gcd(long a, long b) {
+    while (b != 0) {
+      long t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+
+  /** Keeps rates interned across serialization. */
+  private Object readResolve() throws ObjectStreamException {
+    return of(numerator, denominator);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof Rate))
+      return false;
+    Rate other = (Rate) obj;
+    return numerator == other.numerator && denominator == other.denominator;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (numerator * 31 + denominator);
+  }
+
+  /** @return "25" or "30000/1001" */
+  @Override
+  public String toString() {
+    return denominator == 1 ? Long.toString(numerator) : numerator + "/" + denominator;
+  }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.timecode;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.pelzer.util.Timecode;
+
+/**
+ * Converts whole columns of timecodes at once: frame counts held in a long[] to and from seconds,
+ * samples and other rates, and to and from labels packed into a char[]. The results are exactly
+ * what {@link Rate} and {@link TimecodeFormatter} give one at a time, without a {@link Frames} or
+ * {@link Timecode} per value.
+ * <p>
+ * Arguments follow {@link System#arraycopy(Object, int, Object, int, int)}: source array and
+ * offset, destination array and offset, then the length. The numeric conversions check their
+ * inputs once up front and then run a plain loop over the range, which the JIT can unroll and
+ * vectorize. Each also has an overload taking a {@link ForkJoinPool}, which splits ranges of more
+ * than {@link #PARALLEL_THRESHOLD} values across the pool.
+ */
+public final class TimecodeArrays {
+  /** Ranges shorter than this are always converted on the calling thread. */
+  public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+  private TimecodeArrays() {
+  }
+
+  /** Writes frames[offset..offset+length) at the given rate, in seconds, to seconds[]. */
+  public static void toSeconds(long frames[], int offset, Rate rate, double seconds[], int secondsOffset, int length) {
+    double numerator = rate.getNumerator(), denominator = rate.getDenominator();
+    for (int i = 0; i < length; i++)
+      seconds[secondsOffset + i] = frames[offset + i] * denominator / numerator;
+  }
+
+  /** Same as {@link #toSeconds(long[], int, Rate, double[], int, int)}, split across the pool. */
+  public static void toSeconds(final long frames[], final int offset, final Rate rate, final double seconds[], final int secondsOffset, int length, ForkJoinPool pool) {
+    run(pool, length, new Chunk() {
+      public void convert(int from, int to) {
+        toSeconds(frames, offset + from, rate, seconds, secondsOffset + from, to - from);
+      }
+    });
+  }
+
+  /** Writes the frame each of seconds[offset..offset+length) falls in, to the nearest frame, to frames[]. */
+  public static void fromSeconds(double seconds[], int offset, Rate rate, long frames[], int framesOffset, int length) {
+    double numerator = rate.getNumerator(), denominator = rate.getDenominator();
+    for (int i = 0; i < length; i++)
+      frames[framesOffset + i] = Math.round(seconds[offset + i] * numerator / denominator);
+  }
+
+  /** Same as {@link #fromSeconds(double[], int, Rate, long[], int, int)}, split across the pool. */
+  public static void fromSeconds(final double seconds[], final int offset, final Rate rate, final long frames[], final int framesOffset, int length, ForkJoinPool pool) {
+    run(pool, length, new Chunk() {
+      public void convert(int from, int to) {
+        fromSeconds(seconds, offset + from, rate, frames, framesOffset + from, to - from);
+      }
+    });
+  }
+
+  /**
+   * Converts counts at one rate to another, rounding down the same as {@link Rate#convert(long, Rate)}.
+   * in and out may be the same array at the same offset.
+   */
+  public static void convert(long in[], int offset, Rate from, long out[], int outOffset, Rate to, int length) {
+    if (from == to) {
+      System.arraycopy(in, offset, out, outOffset, length);
+      return;
+    }
+    // count * (to.n / to.d) / (from.n / from.d), reduced so that the common cases are a single multiply
+    long multiplier = to.getNumerator() * from.getDenominator();
+    long divisor = to.getDenominator() * from.getNumerator();
+    long gcd = Rate.gcd(multiplier, divisor);
+    multiplier /= gcd;
+    divisor /= gcd;
+
+    long min = 0, max = 0;
+    for (int i = 0; i < length; i++) {
+      long value = in[offset + i];
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+    if (!Rate.fits(min, multiplier) || !Rate.fits(max, multiplier)) {
+      for (int i = 0; i < length; i++)
+        out[outOffset + i] = Rate.multiplyDivide(in[offset + i], multiplier, divisor);
+    } else if (divisor == 1) {
+      for (int i = 0; i < length; i++)
+        out[outOffset + i] = in[offset + i] * multiplier;
+    } else if (min >= 0) {
+      for (int i = 0; i < length; i++)
+        out[outOffset + i] = in[offset + i] * multiplier / divisor;
+    } else {
+      for (int i = 0; i < length; i++)
+        out[outOffset + i] = Rate.floorDivide(in[offset + i] * multiplier, divisor);
+    }
+  }
+
+  /** Same as {@link #convert(long[], int, Rate, long[], int, Rate, int)}, split across the pool. */
+  public static void convert(final long in[], final int offset, final Rate from, final long out[], final int outOffset, final Rate to, int length, ForkJoinPool pool) {
+    run(pool, length, new Chunk() {
+      public void convert(int start, int end) {
+        TimecodeArrays.convert(in, offset + start, from, out, outOffset + start, to, end - start);
+      }
+    });
+  }
+
+  /** Converts frame counts to the sample each frame starts in, at the type's exact sample rate. */
+  public static void toSamples(long frames[], int offset, Rate rate, long samples[], int samplesOffset, Timecode.Type type, int length) {
+    convert(frames, offset, rate, samples, samplesOffset, type.getSampleRate(), length);
+  }
+
+  /** Same as {@link #toSamples(long[], int, Rate, long[], int, Timecode.Type, int)}, split across the pool. */
+  public static void toSamples(long frames[], int offset, Rate rate, long samples[], int samplesOffset, Timecode.Type type, int length, ForkJoinPool pool) {
+    convert(frames, offset, rate, samples, samplesOffset, type.getSampleRate(), length, pool);
+  }
+
+  /** Converts sample counts at the type's exact sample rate to the frames they fall in. */
+  public static void fromSamples(long samples[], int offset, Timecode.Type type, long frames[], int framesOffset, Rate rate, int length) {
+    convert(samples, offset, type.getSampleRate(), frames, framesOffset, rate, length);
+  }
+
+  /** Same as {@link #fromSamples(long[], int, Timecode.Type, long[], int, Rate, int)}, split across the pool. */
+  public static void fromSamples(long samples[], int offset, Timecode.Type type, long frames[], int framesOffset, Rate rate, int length, ForkJoinPool pool) {
+    convert(samples, offset, type.getSampleRate(), frames, framesOffset, rate, length, pool);
+  }
+
+  /**
+   * Writes the labels of frames[offset..offset+length) back to back into out, and where each one
+   * ends into ends[], so label i is out[ends[i - 1]..ends[i]) (starting at outOffset for the
+   * first). Labels under 100 hours at rates below 100 frames/sec take 11 chars, one more if
+   * negative.
+   *
+   * @param dropFrame
+   *          writes {@link DropFrame} labels, see
+   *          {@link TimecodeFormatter#format(long, Rate, boolean, char[], int)}.
+   * @return the index just past the last label.
+   */
+  public static int formatLabels(long frames[], int offset, Rate rate, boolean dropFrame, char out[], int outOffset, int ends[], int endsOffset, int length) {
+    int end = outOffset;
+    for (int i = 0; i < length; i++) {
+      end = TimecodeFormatter.format(frames[offset + i], rate, dropFrame, out, end);
+      ends[endsOffset + i] = end;
+    }
+    return end;
+  }
+
+  /**
+   * Reads labels laid out the way {@link #formatLabels} writes them back into frame counts, with
+   * {@link TimecodeParser#toFrames(Rate)}. Each label has to fill its slot, and may start with the
+   * '-' that negative counts are written with.
+   *
+   * @return the number of labels read, which is less than length if one of them was malformed, so
+   *         the bad label is the one at that index.
+   */
+  public static int parseLabels(char in[], int inOffset, int ends[], int endsOffset, Rate rate, long frames[], int framesOffset, int length) {
+    TimecodeParser parser = new TimecodeParser();
+    int start = inOffset;
+    for (int i = 0; i < length; i++) {
+      int end = ends[endsOffset + i];
+      boolean negative = start < end && in[start] == '-';
+      if (!parser.parse(in, negative ? start + 1 : start, end) || parser.getEnd() != end)
+        return i;
+      frames[framesOffset + i] = negative ? -parser.toFrames(rate) : parser.toFrames(rate);
+      start = end;
+    }
+    return length;
+  }
+
+  /** One slice of a bulk conversion, [from, to) relative to the start of the range. */
+  private interface Chunk {
+    void convert(int from, int to);
+  }
+
+  private static void run(ForkJoinPool pool, int length, Chunk chunk) {
+    if (length <= PARALLEL_THRESHOLD)
+      chunk.convert(0, length);
+    else
+      pool.invoke(new Split(chunk, 0, length));
+  }
+
+  /** Halves its range until the pieces are under the threshold. */
+  private static final class Split extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Chunk chunk;
+    private final int from, to;
+
+    Split(Chunk chunk, int from, int to) {
+      this.chunk = chunk;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= PARALLEL_THRESHOLD) {
+        chunk.convert(from, to);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new Split(chunk, from, middle), new Split(chunk, middle, to));
+    }
+  }
+}
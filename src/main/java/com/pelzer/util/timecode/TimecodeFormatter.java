@@ -0,0 +1,165 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.timecode;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes fixed-width HH:MM:SS:FF timecodes, optionally with a samples field (HH:MM:SS:FF:SSSS) or a
+ * drop-frame ';' before the frames, straight into a char[] or an {@link Appendable}. Hours, minutes,
+ * seconds and frames are padded to two digits and samples to four, and wider values are written in
+ * full. The counterpart of {@link TimecodeParser}.
+ */
+public final class TimecodeFormatter {
+  /** Enough room for any code this class writes. */
+  public static final int MAX_LENGTH = 64;
+
+  private static final ThreadLocal<char[]> buffers = new ThreadLocal<char[]>() {
+    @Override
+    protected char[] initialValue() {
+      return new char[MAX_LENGTH];
+    }
+  };
+
+  private TimecodeFormatter() {
+  }
+
+  /**
+   * Writes the fields into out at offset.
+   *
+   * @param samples
+   *          the fifth field, or -1 for none.
+   * @param dropFrame
+   *          separates the frames with ';' instead of ':'.
+   * @return the index just past the last char written.
+   */
+  public static int format(int hours, int minutes, int seconds, int frames, int samples, boolean dropFrame, char out[], int offset) {
+    int i = pad(out, offset, hours, 2);
+    out[i++] = ':';
+    i = pad(out, i, minutes, 2);
+    out[i++] = ':';
+    i = pad(out, i, seconds, 2);
+    out[i++] = dropFrame ? ';' : ':';
+    i = pad(out, i, frames, 2);
+    if (samples >= 0) {
+      out[i++] = ':';
+      i = pad(out, i, samples, 4);
+    }
+    return i;
+  }
+
+  /**
+   * Writes the non-drop-frame label of count frames at the given rate into out at offset, with a
+   * leading '-' for negative counts. The frames field is as wide as the largest frame number at the
+   * rate, so milliseconds get three digits.
+   *
+   * @return the index just past the last char written.
+   */
+  public static int format(long count, Rate rate, char out[], int offset) {
+    return format(count, rate, false, out, offset);
+  }
+
+  /**
+   * Same as {@link #format(long, Rate, char[], int)}, but writes a {@link DropFrame} label (with a
+   * ';' before the frames) when dropFrame is set.
+   *
+   * @throws IllegalArgumentException
+   *           for drop-frame at a rate that doesn't support it.
+   */
+  public static int format(long count, Rate rate, boolean dropFrame, char out[], int offset) {
+    int i = offset;
+    if (count < 0) {
+      out[i++] = '-';
+      count = -count;
+    }
+    if (dropFrame)
+      count = DropFrame.toLabelCount(count, rate);
+    int nominal = rate.getNominalFramesPerSecond();
+    long labelSeconds = count / nominal;
+    long hours = labelSeconds / 3600;
+    if (hours > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Too many hours to format: " + hours);
+    i = pad(out, i, (int) hours, 2);
+    out[i++] = ':';
+    i = pad(out, i, (int) (labelSeconds / 60 % 60), 2);
+    out[i++] = ':';
+    i = pad(out, i, (int) (labelSeconds % 60), 2);
+    out[i++] = dropFrame ? ';' : ':';
+    return pad(out, i, (int) (count % nominal), digits(nominal - 1));
+  }
+
+  /** Same as {@link #format(long, Rate, char[], int)}, appending to out. */
+  public static void format(long count, Rate rate, Appendable out) throws IOException {
+    format(count, rate, false, out);
+  }
+
+  /** Same as {@link #format(long, Rate, boolean, char[], int)}, appending to out. */
+  public static void format(long count, Rate rate, boolean dropFrame, Appendable out) throws IOException {
+    char buffer[] = buffers.get();
+    append(buffer, format(count, rate, dropFrame, buffer, 0), out);
+  }
+
+  /** Same as {@link #format(int, int, int, int, int, boolean, char[], int)}, appending to out. */
+  public static void format(int hours, int minutes, int seconds, int frames, int samples, boolean dropFrame, Appendable out) throws IOException {
+    char buffer[] = buffers.get();
+    append(buffer, format(hours, minutes, seconds, frames, samples, dropFrame, buffer, 0), out);
+  }
+
+  /** @return the non-drop-frame label of count frames at the given rate. */
+  public static String format(long count, Rate rate) {
+    return format(count, rate, false);
+  }
+
+  /** @return the label of count frames at the given rate, drop-frame if dropFrame is set. */
+  public static String format(long count, Rate rate, boolean dropFrame) {
+    char buffer[] = buffers.get();
+    return new String(buffer, 0, format(count, rate, dropFrame, buffer, 0));
+  }
+
+  private static void append(char buffer[], int length, Appendable out) throws IOException {
+    if (out instanceof StringBuilder)
+      ((StringBuilder) out).append(buffer, 0, length);
+    else if (out instanceof Writer)
+      ((Writer) out).write(buffer, 0, length);
+    else
+      for (int i = 0; i < length; i++)
+        out.append(buffer[i]);
+  }
+
+  /** Writes value zero padded to width digits. */
+  private static int pad(char out[], int offset, int value, int width) {
+    if (value < 0) {
+      out[offset++] = '-';
+      value = -value;
+    }
+    int length = Math.max(width, digits(value));
+    for (int i = offset + length - 1; i >= offset; i--) {
+      out[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return offset + length;
+  }
+
+  private static int digits(int value) {
+    int digits = 1;
+    while (value >= 10) {
+      value /= 10;
+      digits++;
+    }
+    return digits;
+  }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.timecode;
+
+/**
+ * Reads HH:MM:SS:FF timecodes, with an optional fifth samples field (HH:MM:SS:FF:SSSS), in a single
+ * pass and without throwing. Any single non-digit character separates the fields, the same as
+ * {@link com.pelzer.util.Timecode}, and a ';' before the frames marks a drop-frame label
+ * (HH:MM:SS;FF). Leading whitespace is skipped, and parsing stops after the last field, so check
+ * {@link #getEnd()} if nothing else should follow.
+ * <p>
+ * One parser can be reused for any number of codes, and doesn't allocate unless you ask for the
+ * error message:
+ *
+ * <pre>
+ * TimecodeParser parser = new TimecodeParser();
+ * if (parser.parse(line, start, end))
+ *   frames = parser.toFrames(Rate.PAL);
+ * else
+ *   log.warn(parser.getError());
+ * </pre>
+ *
+ * Not thread safe.
+ */
+public final class TimecodeParser {
+  private int hours, minutes, seconds, frames, samples;
+  private boolean dropFrame;
+  private int end, errorIndex;
+  private String errorReason;
+  private CharSequence errorText;
+  private int errorStart, errorEnd, errorTextOffset;
+  private final ArrayView arrayView = new ArrayView();
+
+  public TimecodeParser() {
+    reset();
+  }
+
+  private void reset() {
+    hours = minutes = seconds = frames = 0;
+    samples = -1;
+    dropFrame = false;
+    end = errorIndex = -1;
+    errorReason = null;
+    errorText = null;
+  }
+
+  /** Parses the whole of text. @return false if it isn't a timecode. */
+  public boolean parse(CharSequence text) {
+    return parse(text, 0, text.length());
+  }
+
+  /** Parses from start, stopping at end. @return false if there's no timecode there. */
+  public boolean parse(CharSequence text, int start, int end) {
+    reset();
+    int i = start;
+    while (i < end && text.charAt(i) <= ' ')
+      i++;
+    for (int field = 0; field < 5; field++) {
+      int delimiter = i;
+      if (field > 0) {
+        if (i >= end || isDigit(text.charAt(i))) {
+          if (field == 4)
+            break;
+          return fail(text, start, end, i, "expected a delimiter");
+        }
+        if (field == 3 && text.charAt(i) == ';')
+          dropFrame = true;
+        i++;
+      }
+      int digitsStart = i;
+      long value = 0;
+      while (i < end) {
+        int digit = text.charAt(i) - '0';
+        if (digit < 0 || digit > 9)
+          break;
+        value = value * 10 + digit;
+        if (value > Integer.MAX_VALUE)
+          break;
+        i++;
+      }
+      if (i == digitsStart || value > Integer.MAX_VALUE) {
+        if (field == 4) {
+          // Whatever follows the frames isn't samples, so it isn't part of the code
+          i = delimiter;
+          break;
+        }
+        return fail(text, start, end, i, i == digitsStart ? "expected a number" : "number is too large");
+      }
+      switch (field) {
+        case 0:
+          hours = (int) value;
+          break;
+        case 1:
+          minutes = (int) value;
+          break;
+        case 2:
+          seconds = (int) value;
+          break;
+        case 3:
+          frames = (int) value;
+          break;
+        default:
+          samples = (int) value;
+      }
+    }
+    this.end = i;
+    return true;
+  }
+
+  /** Parses from start, stopping at end. @return false if there's no timecode there. */
+  public boolean parse(char text[], int start, int end) {
+    arrayView.array = text;
+    try {
+      return parse(arrayView, start, end);
+    } finally {
+      if (errorText == arrayView) {
+        // Copy out the bad code, the caller is free to reuse the array
+        errorText = new String(text, errorStart, errorEnd - errorStart);
+        errorTextOffset = errorStart;
+      }
+      arrayView.array = null;
+    }
+  }
+
+  private boolean fail(CharSequence text, int start, int end, int index, String reason) {
+    errorText = text;
+    errorTextOffset = 0;
+    errorStart = start;
+    errorEnd = end;
+    errorIndex = index;
+    errorReason = reason;
+    return false;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  public int getHours() {
+    return hours;
+  }
+
+  public int getMinutes() {
+    return minutes;
+  }
+
+  public int getSeconds() {
+    return seconds;
+  }
+
+  public int getFrames() {
+    return frames;
+  }
+
+  /** @return the fifth field, or -1 if there wasn't one. */
+  public int getSamples() {
+    return samples;
+  }
+
+  public boolean hasSamples() {
+    return samples >= 0;
+  }
+
+  /** @return true if the frames were separated with a ';', marking a drop-frame label. */
+  public boolean isDropFrame() {
+    return dropFrame;
+  }
+
+  /** @return the index just past the last field parsed, or -1 if the last parse failed. */
+  public int getEnd() {
+    return end;
+  }
+
+  /** @return the index where the last parse went wrong, or -1 if it didn't. */
+  public int getErrorIndex() {
+    return errorIndex;
+  }
+
+  /** @return why the last parse failed, or null if it didn't. */
+  public String getError() {
+    if (errorReason == null)
+      return null;
+    return "Malformed timecode '" + errorText.subSequence(errorStart - errorTextOffset, errorEnd - errorTextOffset) + "', " + errorReason + " at index " + (errorIndex - errorStart);
+  }
+
+  /**
+   * @return the frame the label parsed last names at the given rate, counting
+   *         {@link Rate#getNominalFramesPerSecond()} frames to a labelled second. Drop-frame labels
+   *         (HH:MM:SS;FF) are counted with {@link DropFrame} at rates that support it, and as
+   *         ordinary labels otherwise. The samples field is ignored.
+   */
+  public long toFrames(Rate rate) {
+    long labelCount = (hours * 3600L + minutes * 60L + seconds) * rate.getNominalFramesPerSecond() + frames;
+    if (dropFrame && DropFrame.isSupported(rate))
+      return DropFrame.fromLabelCount(labelCount, rate);
+    return labelCount;
+  }
+
+  /** A CharSequence over the array being parsed, so both parse methods share one loop. */
+  private static final class ArrayView implements CharSequence {
+    char array[];
+
+    public int length() {
+      return array.length;
+    }
+
+    public char charAt(int index) {
+      return array[index];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+      return new String(array, start, end - start);
+    }
+  }
+}
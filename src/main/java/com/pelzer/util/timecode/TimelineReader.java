@@ -0,0 +1,317 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pelzer.util.timecode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the events out of CMX3600 EDLs and SRT or WebVTT subtitles a line at a time, handing each
+ * one to a {@link Listener} as a pair of frame counts. Nothing is kept from one line to the next,
+ * so files of any length are read in the space of their longest line, and no Strings are made for
+ * lines that parse. Timecodes are read in place with a {@link TimecodeParser}.
+ * <ul>
+ * <li>EDL events are the lines that start with an event number, and their last four fields are
+ * the source in, source out, record in and record out. The listener gets the record in and out.
+ * Labels are counted as {@link DropFrame} if they use ';' or follow an "FCM: DROP FRAME" line,
+ * when the rate supports it.</li>
+ * <li>Subtitle cues are the "start --&gt; end" lines, where times are HH:MM:SS,mmm or
+ * HH:MM:SS.mmm, or MM:SS.mmm in WebVTT. They're converted to the frames they fall in at the
+ * reader's rate, so use {@link Rate#MILLISECONDS} to get them back as they were written.</li>
+ * </ul>
+ * A reader can be used for any number of files, but isn't thread safe.
+ */
+public final class TimelineReader {
+  public enum Format {
+    EDL, SRT, WEBVTT
+  }
+
+  /** Gets each event as it's read. */
+  public interface Listener {
+    /** Called once per event, in file order, with the first frame and the frame after the last. */
+    void event(long start, long end);
+  }
+
+  /** A line that looks like an event but doesn't parse. */
+  public static class TimelineException extends IOException {
+    private static final long serialVersionUID = 1L;
+    private final int line;
+
+    public TimelineException(int line, String message) {
+      super("Line " + line + ": " + message);
+      this.line = line;
+    }
+
+    /** @return the line number, counting from 1. */
+    public int getLine() {
+      return line;
+    }
+  }
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final char FCM[] = "FCM:".toCharArray();
+  private static final char FCM_DROP_FRAME[] = "FCM: DROP FRAME".toCharArray();
+
+  private final Format format;
+  private final Rate rate;
+  private final TimecodeParser parser = new TimecodeParser();
+  private char buffer[] = new char[BUFFER_SIZE];
+  private int lineNumber, events;
+  private boolean dropFrame;
+
+  /**
+   * @param rate
+   *          the rate events are reported at, and the rate EDL timecodes are labelled at.
+   */
+  public TimelineReader(Format format, Rate rate) {
+    this.format = format;
+    this.rate = rate;
+  }
+
+  /** Reads in to the end, without closing it. @return the number of events read. */
+  public int read(Reader in, Listener listener) throws IOException {
+    reset();
+    CharBuffer view = CharBuffer.wrap(buffer);
+    int length = 0, lineStart = 0;
+    for (int read; (read = in.read(buffer, length, buffer.length - length)) != -1;) {
+      int scanned = length;
+      length += read;
+      for (int i = scanned; i < length; i++) {
+        if (buffer[i] == '\n') {
+          line(view, lineStart, i, listener);
+          lineStart = i + 1;
+        }
+      }
+      // Shift the partial line down to the front, growing the buffer if it's the whole buffer
+      length -= lineStart;
+      System.arraycopy(buffer, lineStart, buffer, 0, length);
+      lineStart = 0;
+      if (length == buffer.length) {
+        char bigger[] = new char[buffer.length * 2];
+        System.arraycopy(buffer, 0, bigger, 0, length);
+        buffer = bigger;
+        view = CharBuffer.wrap(buffer);
+      }
+    }
+    if (length > 0)
+      line(view, 0, length, listener);
+    return events;
+  }
+
+  /**
+   * Memory maps the file and reads it in place. Every char the reader looks at is ASCII, so bytes
+   * are taken as chars and any encoding that's a superset of ASCII, such as UTF-8, works.
+   *
+   * @return the number of events read.
+   */
+  public int read(File file, Listener listener) throws IOException {
+    reset();
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() > Integer.MAX_VALUE)
+        throw new IOException("Too big to map: " + file);
+      MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      ByteView view = new ByteView(bytes);
+      int length = bytes.limit(), lineStart = 0;
+      for (int i = 0; i < length; i++) {
+        if (bytes.get(i) == '\n') {
+          line(view, lineStart, i, listener);
+          lineStart = i + 1;
+        }
+      }
+      if (lineStart < length)
+        line(view, lineStart, length, listener);
+      return events;
+    } finally {
+      raf.close();
+    }
+  }
+
+  private void reset() {
+    lineNumber = events = 0;
+    dropFrame = false;
+  }
+
+  private void line(CharSequence text, int start, int end, Listener listener) throws TimelineException {
+    lineNumber++;
+    if (end > start && text.charAt(end - 1) == '\r')
+      end--;
+    if (format == Format.EDL)
+      edlLine(text, start, end, listener);
+    else
+      cueLine(text, start, end, listener);
+  }
+
+  private void edlLine(CharSequence text, int start, int end, Listener listener) throws TimelineException {
+    while (start < end && text.charAt(start) <= ' ')
+      start++;
+    if (start == end)
+      return;
+    if (startsWith(text, start, end, FCM_DROP_FRAME)) {
+      dropFrame = true;
+      return;
+    }
+    if (!Character.isDigit(text.charAt(start))) {
+      if (text.charAt(start) == 'F' && startsWith(text, start, end, FCM))
+        dropFrame = false;
+      return;
+    }
+    // The record in and out are the last two fields, whatever comes before them
+    int recordOutEnd = trimEnd(text, start, end);
+    int recordOutStart = fieldStart(text, start, recordOutEnd);
+    int recordInEnd = trimEnd(text, start, recordOutStart);
+    int recordInStart = fieldStart(text, start, recordInEnd);
+    if (recordInStart == start)
+      throw new TimelineException(lineNumber, "Expected record in and out timecodes in '" + text.subSequence(start, end) + "'");
+    long in = edlTimecode(text, recordInStart, recordInEnd);
+    long out = edlTimecode(text, recordOutStart, recordOutEnd);
+    events++;
+    listener.event(in, out);
+  }
+
+  private long edlTimecode(CharSequence text, int start, int end) throws TimelineException {
+    if (!parser.parse(text, start, end) || parser.getEnd() != end || parser.hasSamples())
+      throw new TimelineException(lineNumber, parser.getError() != null ? parser.getError() : "Malformed timecode '" + text.subSequence(start, end) + "'");
+    if ((dropFrame || parser.isDropFrame()) && DropFrame.isSupported(rate))
+      return DropFrame.toFrames(parser.getHours(), parser.getMinutes(), parser.getSeconds(), parser.getFrames(), rate);
+    return parser.toFrames(rate);
+  }
+
+  private void cueLine(CharSequence text, int start, int end, Listener listener) throws TimelineException {
+    int arrow = indexOfArrow(text, start, end);
+    if (arrow < 0)
+      return;
+    int startEnd = trimEnd(text, start, arrow);
+    int endStart = arrow + 3;
+    while (endStart < end && text.charAt(endStart) <= ' ')
+      endStart++;
+    // WebVTT cue settings can follow the end time
+    int endEnd = endStart;
+    while (endEnd < end && text.charAt(endEnd) > ' ')
+      endEnd++;
+    long in = cueTime(text, start, startEnd);
+    long out = cueTime(text, endStart, endEnd);
+    events++;
+    listener.event(rate.convert(in, Rate.MILLISECONDS), rate.convert(out, Rate.MILLISECONDS));
+  }
+
+  /** @return HH:MM:SS,mmm (or MM:SS.mmm in WebVTT) in milliseconds. */
+  private long cueTime(CharSequence text, int start, int end) throws TimelineException {
+    while (start < end && text.charAt(start) <= ' ')
+      start++;
+    int fractionStart = end;
+    while (fractionStart > start && Character.isDigit(text.charAt(fractionStart - 1)))
+      fractionStart--;
+    int digits = end - fractionStart;
+    if (digits == 0 || digits > 3 || fractionStart - 1 <= start || (text.charAt(fractionStart - 1) != ',' && text.charAt(fractionStart - 1) != '.'))
+      throw new TimelineException(lineNumber, "Malformed cue time '" + text.subSequence(start, end) + "'");
+    long seconds;
+    if (parser.parse(text, start, end) && parser.getEnd() == end && !parser.hasSamples()) {
+      seconds = parser.getHours() * 3600L + parser.getMinutes() * 60L + parser.getSeconds();
+    } else if (format == Format.WEBVTT && isMinutesSeconds(text, start, fractionStart - 1)) {
+      int colon = start;
+      while (text.charAt(colon) != ':')
+        colon++;
+      seconds = number(text, start, colon) * 60L + number(text, colon + 1, fractionStart - 1);
+    } else {
+      throw new TimelineException(lineNumber, "Malformed cue time '" + text.subSequence(start, end) + "'");
+    }
+    long millis = number(text, fractionStart, end);
+    for (int i = digits; i < 3; i++)
+      millis *= 10;
+    return seconds * 1000 + millis;
+  }
+
+  /** @return true for MM:SS, with two digit seconds. */
+  private static boolean isMinutesSeconds(CharSequence text, int start, int end) {
+    int colon = -1;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c == ':' && colon < 0)
+        colon = i;
+      else if (!Character.isDigit(c))
+        return false;
+    }
+    return colon > start && end - colon - 1 == 2;
+  }
+
+  private static long number(CharSequence text, int start, int end) {
+    long value = 0;
+    for (int i = start; i < end; i++)
+      value = value * 10 + (text.charAt(i) - '0');
+    return value;
+  }
+
+  private static int indexOfArrow(CharSequence text, int start, int end) {
+    for (int i = start; i + 2 < end; i++)
+      if (text.charAt(i) == '-' && text.charAt(i + 1) == '-' && text.charAt(i + 2) == '>')
+        return i;
+    return -1;
+  }
+
+  private static boolean startsWith(CharSequence text, int start, int end, char prefix[]) {
+    if (end - start < prefix.length)
+      return false;
+    for (int i = 0; i < prefix.length; i++)
+      if (Character.toUpperCase(text.charAt(start + i)) != prefix[i])
+        return false;
+    return true;
+  }
+
+  /** @return end moved back over any whitespace, but not past start. */
+  private static int trimEnd(CharSequence text, int start, int end) {
+    while (end > start && text.charAt(end - 1) <= ' ')
+      end--;
+    return end;
+  }
+
+  /** @return the start of the whitespace separated field that ends at end. */
+  private static int fieldStart(CharSequence text, int start, int end) {
+    while (end > start && text.charAt(end - 1) > ' ')
+      end--;
+    return end;
+  }
+
+  /** The bytes of a mapped file as chars, for the ASCII the reader cares about. */
+  private static final class ByteView implements CharSequence {
+    private final MappedByteBuffer bytes;
+
+    ByteView(MappedByteBuffer bytes) {
+      this.bytes = bytes;
+    }
+
+    public int length() {
+      return bytes.limit();
+    }
+
+    public char charAt(int index) {
+      return (char) (bytes.get(index) & 0xff);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+      StringBuilder copy = new StringBuilder(end - start);
+      for (int i = start; i < end; i++)
+        copy.append(charAt(i));
+      return copy.toString();
+    }
+  }
+}
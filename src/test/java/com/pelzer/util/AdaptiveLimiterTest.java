@@ -0,0 +1,69 @@
+package com.pelzer.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class AdaptiveLimiterTest extends TestCase {
+  public void testAimd() throws Exception {
+    AdaptiveLimiter limiter = AdaptiveLimiter.aimd(4, 2, 6);
+    // Successes while saturated grow the limit, one at a time, up to the max
+    for (int i = 0; i < 5; i++) {
+      List<SafeSemaphore.Permit> permits = new ArrayList<SafeSemaphore.Permit>();
+      for (int j = 0; j < limiter.getLimit(); j++)
+        permits.add(limiter.acquire());
+      assertNull(limiter.tryAcquire());
+      assertEquals(permits.size(), limiter.getInFlight());
+      permits.get(0).release();
+      for (SafeSemaphore.Permit permit : permits)
+        permit.release();
+    }
+    assertEquals(6, limiter.getLimit());
+    assertEquals(6, limiter.availablePermits());
+
+    // Failures back off, down to the min
+    for (int i = 0; i < 10; i++) {
+      SafeSemaphore.Permit permit = limiter.acquire();
+      permit.failed();
+      permit.close();
+    }
+    assertEquals(2, limiter.getLimit());
+    assertEquals(2, limiter.availablePermits());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  public void testShrinkingWaitsForPermitsToComeBack() throws Exception {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(4, new AdaptiveLimiter.Aimd(1, 4, 0.5, 1000, java.util.concurrent.TimeUnit.SECONDS));
+    SafeSemaphore.Permit held[] = new SafeSemaphore.Permit[4];
+    for (int i = 0; i < held.length; i++)
+      held[i] = limiter.acquire();
+    held[0].failed();
+    held[0].release();
+    assertEquals(2, limiter.getLimit());
+    // Three still out against a limit of two, so nothing more until they come back
+    assertEquals(-1, limiter.availablePermits());
+    assertNull(limiter.tryAcquire());
+    held[1].release();
+    assertNotNull(limiter.tryAcquire());
+  }
+
+  public void testGradient() {
+    AdaptiveLimiter.Gradient gradient = new AdaptiveLimiter.Gradient(1, 100, 1, 1000);
+    int limit = 10;
+    // Steady latency while busy: grows by the headroom
+    limit = gradient.update(limit, 10, 1000000, false);
+    assertTrue(limit > 10);
+    int grown = limit;
+    // Latency doubles: queueing downstream, so shrink
+    limit = gradient.update(limit, limit, 2000000, false);
+    assertTrue(limit < grown);
+    // Not busy: no growth
+    assertEquals(limit, gradient.update(limit, 1, 1000000, false));
+    // Failures halve
+    int before = limit;
+    limit = gradient.update(limit, limit, 1000000, true);
+    assertTrue(limit <= before / 2 + Math.sqrt(before) + 1);
+    assertEquals(1, new AdaptiveLimiter.Gradient(1, 100).update(1, 1, 1, true));
+  }
+}
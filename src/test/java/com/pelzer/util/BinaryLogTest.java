@@ -0,0 +1,81 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.pelzer.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+public class BinaryLogTest extends TestCase{
+  private final Logging.Logger log = Logging.getLogger(BinaryLogTest.class);
+  private File file;
+
+  public BinaryLogTest(final String name){
+    super(name);
+  }
+
+  @Override
+  protected void setUp() throws Exception{
+    file = File.createTempFile("binarylog", ".bin");
+    BinaryLog.open(file);
+    log.setBinary(true);
+  }
+
+  @Override
+  protected void tearDown(){
+    log.setBinary(false);
+    BinaryLog.close();
+    file.delete();
+  }
+
+  public void testRoundTrip() throws Exception{
+    log.warn("answer {} of {} is '{}' {} {} {}", 42, 12345678901L, "x", null, 1.5, 'c');
+    log.error("failed {}", new IllegalStateException("boom"), true);
+    final Thread other = new Thread("binary-writer"){
+      @Override
+      public void run(){
+        log.debug("from another thread");
+      }
+    };
+    other.start();
+    other.join();
+    BinaryLog.close();
+
+    final StringWriter text = new StringWriter();
+    final FileInputStream in = new FileInputStream(file);
+    try{
+      assertEquals(3, new BinaryLogDecoder().decode(in, text));
+    }finally{
+      in.close();
+    }
+    final String decoded = text.toString();
+    final String thread = Thread.currentThread().getName();
+    assertTrue(decoded, decoded.indexOf(" [" + thread + "] WARN com.pelzer.util.BinaryLogTest - answer 42 of 12345678901 is 'x' null 1.5 c\n") > 0);
+    assertTrue(decoded, decoded.indexOf(" [" + thread + "] ERROR com.pelzer.util.BinaryLogTest - failed true\n") > 0);
+    assertTrue(decoded, decoded.indexOf("_____ ") > 0);
+    assertTrue(decoded, decoded.indexOf("java.lang.IllegalStateException: boom") > 0);
+    assertTrue(decoded, decoded.indexOf(" [binary-writer] DEBUG com.pelzer.util.BinaryLogTest - from another thread\n") > 0);
+  }
+
+  public void testTextWhenClosed(){
+    BinaryLog.close();
+    assertFalse(BinaryLog.isOpen());
+    // Falls back to the normal text output without complaint
+    log.warn("written as text");
+  }
+}
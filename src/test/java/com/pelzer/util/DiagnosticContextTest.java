@@ -0,0 +1,96 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.pelzer.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class DiagnosticContextTest extends TestCase{
+  public DiagnosticContextTest(final String name){
+    super(name);
+  }
+
+  @Override
+  protected void tearDown(){
+    DiagnosticContext.clear();
+  }
+
+  public void testImmutable(){
+    final DiagnosticContext one = DiagnosticContext.EMPTY.with("request", "abc");
+    final DiagnosticContext two = one.with("user", "jason").with("request", "def");
+    assertEquals("abc", one.get("request"));
+    assertNull(one.get("user"));
+    assertEquals("def", two.get("request"));
+    assertEquals("request=def, user=jason", two.toString());
+    assertEquals("user=jason", two.without("request").toString());
+    assertSame(DiagnosticContext.EMPTY, one.without("request"));
+    assertSame(one, one.with("request", "abc"));
+  }
+
+  public void testLocalProperty(){
+    Logging.setLocalProperty("job 12");
+    DiagnosticContext.put("request", "abc");
+    assertEquals("job 12", Logging.getLocalProperty());
+    assertEquals("job 12, request=abc", DiagnosticContext.current().toString());
+    Logging.setLocalProperty(null);
+    assertNull(Logging.getLocalProperty());
+    assertEquals("request=abc", DiagnosticContext.current().toString());
+  }
+
+  public void testFormatterHeader(){
+    DiagnosticContext.put("request", "abc");
+    final Logging.LogEvent event = new Logging.LogEvent(Logging.Priority.WARN.getLevel(), "com.example.Foo", "hello", new Object[0], null);
+    DiagnosticContext.clear();
+    // The event keeps the context it was created with
+    assertTrue(new Logging.LogFormatter().format(event).indexOf(" {request=abc} WARN com.example.Foo - hello") > 0);
+  }
+
+  public void testWrappedExecutor() throws Exception{
+    final ExecutorService executor = DiagnosticContext.wrap(Executors.newSingleThreadExecutor());
+    try{
+      DiagnosticContext.put("request", "abc");
+      assertEquals("abc", executor.submit(new Callable<String>(){
+        public String call(){
+          return DiagnosticContext.current().get("request");
+        }
+      }).get());
+
+      DiagnosticContext.clear();
+      assertNull(executor.submit(new Callable<String>(){
+        public String call(){
+          return DiagnosticContext.current().get("request");
+        }
+      }).get());
+    }finally{
+      executor.shutdown();
+    }
+  }
+
+  public void testWrappedRunnableRestoresPrevious(){
+    DiagnosticContext.put("request", "abc");
+    final Runnable task = DiagnosticContext.wrap(new Runnable(){
+      public void run(){
+        assertEquals("abc", DiagnosticContext.current().get("request"));
+      }
+    });
+    DiagnosticContext.put("request", "def");
+    task.run();
+    assertEquals("def", DiagnosticContext.current().get("request"));
+  }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.pelzer.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import junit.framework.TestCase;
+
+public class FlightRecorderTest extends TestCase{
+  private final Logging.Logger log = Logging.getLogger(FlightRecorderTest.class.getName() + ".recorded");
+  private final CapturingHandler handler = new CapturingHandler();
+
+  public FlightRecorderTest(final String name){
+    super(name);
+  }
+
+  @Override
+  protected void setUp(){
+    log.logger.setLevel(Logging.Priority.WARN.getLevel());
+    Logging.rootLogger.addHandler(handler);
+    FlightRecorder.clear();
+  }
+
+  @Override
+  protected void tearDown(){
+    Logging.rootLogger.removeHandler(handler);
+    FlightRecorder.disable();
+  }
+
+  public void testDisabledRecordsNothing(){
+    FlightRecorder.disable();
+    log.debug("suppressed {}", 1);
+    log.error("failure");
+    assertEquals(1, handler.records.size());
+    assertEquals("failure", handler.records.get(0).getMessage());
+  }
+
+  public void testErrorReplaysHistory(){
+    FlightRecorder.enable(10);
+    log.debug("step {} of {}", 1, 2);
+    log.info("step {} of {}", 2, 2);
+    assertEquals(0, handler.records.size());
+
+    log.error("failure");
+    assertEquals(4, handler.records.size());
+    assertEquals(FlightRecorder.class.getName(), handler.records.get(0).getLoggerName());
+    assertEquals("step 1 of 2", handler.records.get(1).getMessage());
+    assertEquals(Logging.Priority.DEBUG.getLevel(), handler.records.get(1).getLevel());
+    assertEquals("step 2 of 2", handler.records.get(2).getMessage());
+    assertEquals("failure", handler.records.get(3).getMessage());
+
+    // History is cleared once it has been dumped
+    handler.records.clear();
+    log.error("second failure");
+    assertEquals(1, handler.records.size());
+  }
+
+  public void testRingKeepsNewestEvents(){
+    FlightRecorder.enable(3);
+    for(int i = 0; i < 5; i++)
+      log.debug("event {}", i);
+    FlightRecorder.dump();
+    assertEquals(4, handler.records.size());
+    assertEquals("event 2", handler.records.get(1).getMessage());
+    assertEquals("event 4", handler.records.get(3).getMessage());
+  }
+
+  public void testWarnDoesNotTrigger(){
+    FlightRecorder.enable(10);
+    log.debug("quiet");
+    log.warn("just a warning");
+    assertEquals(1, handler.records.size());
+    FlightRecorder.dump();
+    assertEquals(3, handler.records.size());
+    assertEquals("quiet", handler.records.get(2).getMessage());
+  }
+
+  public void testDisableDropsHistoryImmediately(){
+    FlightRecorder.enable(10);
+    log.debug("stale");
+    FlightRecorder.disable();
+    FlightRecorder.enable(10);
+    log.error("failure");
+    assertEquals(1, handler.records.size());
+    assertEquals("failure", handler.records.get(0).getMessage());
+  }
+
+  public void testDisableReleasesOtherThreadsArguments() throws Exception{
+    FlightRecorder.enable(10);
+    final CountDownLatch recorded = new CountDownLatch(1);
+    final CountDownLatch finish = new CountDownLatch(1);
+    final List<WeakReference<Object>> argument = new ArrayList<WeakReference<Object>>();
+    final Thread thread = new Thread(){
+      @Override
+      public void run(){
+        argument.add(recordObject());
+        recorded.countDown();
+        try{
+          finish.await();
+        }catch(final InterruptedException ignored){
+        }
+      }
+    };
+    thread.start();
+    recorded.await();
+    // The thread is still alive, and hasn't logged since
+    FlightRecorder.disable();
+    for(int i = 0; i < 50 && argument.get(0).get() != null; i++){
+      System.gc();
+      Thread.sleep(10);
+    }
+    final boolean collected = argument.get(0).get() == null;
+    finish.countDown();
+    thread.join();
+    assertTrue("disable() should drop the recorded arguments of every thread", collected);
+  }
+
+  public void testDisableWhileAnotherThreadDumps() throws Exception{
+    final List<Throwable> failures = new ArrayList<Throwable>();
+    final Thread thread = new Thread(){
+      @Override
+      public void run(){
+        try{
+          for(int i = 0; i < 20000; i++){
+            FlightRecorder.enable(50);
+            for(int j = 0; j < 20; j++)
+              log.debug("event {}", j);
+            FlightRecorder.dump();
+          }
+        }catch(final Throwable ex){
+          failures.add(ex);
+        }
+      }
+    };
+    thread.start();
+    while(thread.isAlive())
+      FlightRecorder.disable();
+    thread.join();
+    assertEquals("dump() shouldn't fail while another thread disables the recorder", new ArrayList<Throwable>(), failures);
+  }
+
+  /** Records an event holding a new object, without keeping the object on the caller's stack. */
+  private WeakReference<Object> recordObject(){
+    final Object object = new Object();
+    log.debug("holding {}", object);
+    return new WeakReference<Object>(object);
+  }
+
+  private static class CapturingHandler extends Handler{
+    final List<LogRecord> records = new ArrayList<LogRecord>();
+
+    @Override
+    public void publish(final LogRecord record){
+      if(record.getLoggerName().startsWith(FlightRecorderTest.class.getName()) || record.getLoggerName().equals(FlightRecorder.class.getName()))
+        records.add(record);
+    }
+
+    @Override
+    public void flush(){
+    }
+
+    @Override
+    public void close(){
+    }
+  }
+}
@@ -22,6 +22,10 @@ class GroovyLoggingTest {
     log.info("Groovy $stringWithEnum")
     log.info("I cause the Groovy compiler to poop the bed $Foo.FOO")
     log.info("I also cause the Groovy compiler to poop the bed {}", Foo.FOO)
+
+    log.warn("I'm only built when WARN is on: $regularString")
+    log.error("I'm only built when ERROR is on: $regularString")
+    log.fatal("I'm only built when FATAL is on: $regularString")
   }
 
   enum Foo {
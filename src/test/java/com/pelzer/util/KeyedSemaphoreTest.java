@@ -0,0 +1,86 @@
+package com.pelzer.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class KeyedSemaphoreTest extends TestCase {
+  public void testKeysAreIndependent() throws Exception {
+    KeyedSemaphore<String> semaphore = new KeyedSemaphore<String>(2);
+    SafeSemaphore.Permit a1 = semaphore.acquire("a");
+    SafeSemaphore.Permit a2 = semaphore.tryAcquire("a");
+    assertNotNull(a2);
+    assertNull(semaphore.tryAcquire("a"));
+    assertNull(semaphore.tryAcquire("a", 10, TimeUnit.MILLISECONDS));
+    assertEquals(0, semaphore.availablePermits("a"));
+    SafeSemaphore.Permit b = semaphore.acquireUninterruptibly("b");
+    assertEquals(1, semaphore.availablePermits("b"));
+    assertEquals(2, semaphore.size());
+
+    a1.release();
+    a2.close();
+    assertEquals(1, semaphore.size());
+    assertEquals(2, semaphore.availablePermits("a"));
+    b.release();
+    b.release();
+    assertEquals(0, semaphore.size());
+
+    SafeSemaphore.Permit both = semaphore.acquire("c", 2);
+    assertEquals(2, both.getPermits());
+    assertNull(semaphore.tryAcquire("c"));
+    both.release();
+    assertEquals(0, semaphore.size());
+  }
+
+  public void testLimitsHoldUnderContention() throws Exception {
+    final KeyedSemaphore<Integer> semaphore = new KeyedSemaphore<Integer>(2);
+    final ConcurrentHashMap<Integer, AtomicInteger> running = new ConcurrentHashMap<Integer, AtomicInteger>();
+    for (int key = 0; key < 3; key++)
+      running.put(key, new AtomicInteger());
+    final AtomicInteger violations = new AtomicInteger();
+    Thread threads[] = new Thread[6];
+    for (int i = 0; i < threads.length; i++) {
+      final int seed = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 2000; j++) {
+            Integer key = (seed + j) % 3;
+            SafeSemaphore.Permit permit = semaphore.acquireUninterruptibly(key);
+            try {
+              if (running.get(key).incrementAndGet() > 2)
+                violations.incrementAndGet();
+              Thread.yield();
+              running.get(key).decrementAndGet();
+            } finally {
+              permit.release();
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    assertEquals(0, violations.get());
+    assertEquals(0, semaphore.size());
+  }
+
+  public void testLeakedPermitsEvictTheKey() throws Exception {
+    KeyedSemaphore<String> semaphore = new KeyedSemaphore<String>(1);
+    leak(semaphore);
+    assertEquals(1, semaphore.size());
+    for (int i = 0; i < 100 && semaphore.size() > 0; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    assertEquals(0, semaphore.size());
+    assertNotNull(semaphore.tryAcquire("leaky"));
+  }
+
+  private static void leak(KeyedSemaphore<String> semaphore) {
+    semaphore.acquireUninterruptibly("leaky");
+  }
+}
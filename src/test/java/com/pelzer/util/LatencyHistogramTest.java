@@ -0,0 +1,103 @@
+/**
+ * Copyright 2007-2012 Jason Pelzer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.pelzer.util;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase{
+  public LatencyHistogramTest(final String name){
+    super(name);
+  }
+
+  public void testPercentiles(){
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for(long i = 1; i <= 10000; i++)
+      histogram.record(i * 1000);
+    assertEquals(10000, histogram.getCount());
+    assertEquals(1000, histogram.getMin());
+    assertEquals(10000000, histogram.getMax());
+    assertEquals(5000500.0, histogram.getMean(), 0.001);
+    assertClose(5000000, histogram.getPercentile(50));
+    assertClose(9900000, histogram.getPercentile(99));
+    assertClose(9990000, histogram.getPercentile(99.9));
+    assertEquals(10000000, histogram.getPercentile(100));
+  }
+
+  public void testSmallValuesAreExact(){
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for(long i = 0; i < 64; i++)
+      histogram.record(i);
+    assertEquals(31, histogram.getPercentile(50));
+    assertEquals(0, histogram.getPercentile(0));
+    histogram.record(-5);
+    assertEquals(0, histogram.getMin());
+  }
+
+  public void testHugeValues(){
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, histogram.getPercentile(50));
+  }
+
+  public void testAddAndReset(){
+    final LatencyHistogram one = new LatencyHistogram();
+    final LatencyHistogram two = new LatencyHistogram();
+    one.record(10);
+    two.record(5000);
+    one.add(two);
+    assertEquals(2, one.getCount());
+    assertEquals(10, one.getMin());
+    assertEquals(5000, one.getMax());
+    one.reset();
+    assertEquals(0, one.getCount());
+    assertEquals(0, one.getPercentile(99));
+    try{
+      one.add(new LatencyHistogram(8));
+      fail("Expected an IllegalArgumentException");
+    }catch(final IllegalArgumentException expected){
+    }
+  }
+
+  public void testLoggingMetrics() throws Exception{
+    final Logging.Logger log = Logging.getLogger(LatencyHistogramTest.class);
+    final LoggingMetrics metrics = Logging.getMetrics();
+    log.logger.setLevel(Logging.Priority.WARN.getLevel());
+    try{
+      metrics.reset();
+      log.debug("suppressed {}", 1);
+      log.warn("written {}", 2);
+      log.error("written {}", 3);
+      assertEquals(1, metrics.getSuppressedEvents());
+      assertEquals(1, metrics.getWarnRecords());
+      assertEquals(1, metrics.getErrorRecords());
+      assertEquals(2, metrics.getRecordsWritten());
+      assertTrue(metrics.getCharactersWritten() > 0);
+      assertEquals(2, metrics.getFlushCount());
+      assertEquals(2, metrics.getLockWaitNanos().getCount());
+      assertEquals(Long.valueOf(2), ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName("com.pelzer.util:type=Logging"), "RecordsWritten"));
+    }finally{
+      log.logger.setLevel(null);
+    }
+  }
+
+  private static void assertClose(final long expected, final long actual){
+    assertTrue("Expected about " + expected + " but was " + actual, Math.abs(expected - actual) <= expected / 32);
+  }
+}
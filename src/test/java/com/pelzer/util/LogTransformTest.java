@@ -0,0 +1,90 @@
+package com.pelzer.util;
+
+import groovy.lang.GroovyClassLoader;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.codehaus.groovy.ast.expr.ArgumentListExpression;
+import org.codehaus.groovy.ast.expr.ConstantExpression;
+import org.codehaus.groovy.ast.expr.Expression;
+import org.codehaus.groovy.ast.expr.GStringExpression;
+import org.codehaus.groovy.ast.expr.MethodCallExpression;
+import org.codehaus.groovy.ast.expr.TernaryExpression;
+import org.codehaus.groovy.ast.expr.VariableExpression;
+
+/**
+ * Runs the @Log strategy over hand-built AST nodes, the same ones the Groovy
+ * compiler hands it, without compiling any Groovy.
+ */
+public class LogTransformTest extends TestCase{
+  private final Log.PelzerUtilLoggingStrategy strategy = new Log.PelzerUtilLoggingStrategy(new GroovyClassLoader());
+  private final VariableExpression log = new VariableExpression("log");
+
+  public void testEveryLevelIsGuarded(){
+    final String levels[][] = {{"debug", "isDebugEnabled"}, {"info", "isInfoEnabled"}, {"warn", "isWarnEnabled"}, {"error", "isErrorEnabled"}, {"fatal", "isFatalEnabled"}};
+    for(final String level[] : levels){
+      assertTrue(level[0], strategy.isLoggingMethod(level[0]));
+      final MethodCallExpression call = call(level[0], new ConstantExpression("plain"));
+      final TernaryExpression guarded = wrap(level[0], call);
+      final MethodCallExpression guard = (MethodCallExpression) guarded.getBooleanExpression().getExpression();
+      assertEquals(level[1], guard.getMethodAsString());
+      assertSame(log, guard.getObjectExpression());
+      assertTrue(guard.getArguments() instanceof ArgumentListExpression);
+      assertTrue(((ArgumentListExpression) guard.getArguments()).getExpressions().isEmpty());
+      assertSame("a call without a GString is left as it is", call, guarded.getTrueExpression());
+      assertSame(ConstantExpression.EMPTY_EXPRESSION, guarded.getFalseExpression());
+    }
+  }
+
+  public void testOtherMethodsAreLeftAlone(){
+    assertFalse(strategy.isLoggingMethod("trace"));
+    assertFalse(strategy.isLoggingMethod("isDebugEnabled"));
+    final MethodCallExpression call = call("trace", gString());
+    assertSame(call, strategy.wrapLoggingMethodCall(log, "trace", call));
+  }
+
+  public void testLoneGStringIsPassedAsAReplacement(){
+    for(final String level : new String[]{"debug", "info", "warn", "error", "fatal"}){
+      final GStringExpression message = gString();
+      final MethodCallExpression call = call(level, message);
+      call.setSafe(true);
+      final MethodCallExpression lazy = (MethodCallExpression) wrap(level, call).getTrueExpression();
+      assertNotSame(call, lazy);
+      assertSame(log, lazy.getObjectExpression());
+      assertEquals(level, lazy.getMethodAsString());
+      assertTrue(lazy.isSafe());
+      final List<Expression> arguments = ((ArgumentListExpression) lazy.getArguments()).getExpressions();
+      assertEquals(2, arguments.size());
+      assertEquals("{}", ((ConstantExpression) arguments.get(0)).getValue());
+      assertSame(message, arguments.get(1));
+    }
+  }
+
+  public void testMultipleArgumentsAreLeftAlone(){
+    // The template may have {} tokens of its own, so a GString in it can't be moved
+    final MethodCallExpression call = call("debug", gString(), new ConstantExpression(1));
+    assertSame(call, wrap("debug", call).getTrueExpression());
+    final MethodCallExpression withReplacement = call("error", new ConstantExpression("{} failed"), gString());
+    assertSame(withReplacement, wrap("error", withReplacement).getTrueExpression());
+  }
+
+  private TernaryExpression wrap(final String methodName, final MethodCallExpression call){
+    final Expression wrapped = strategy.wrapLoggingMethodCall(log, methodName, call);
+    assertTrue(methodName + " should be guarded", wrapped instanceof TernaryExpression);
+    return (TernaryExpression) wrapped;
+  }
+
+  private MethodCallExpression call(final String methodName, final Expression... arguments){
+    final MethodCallExpression call = new MethodCallExpression(log, methodName, new ArgumentListExpression(arguments));
+    call.setImplicitThis(false);
+    return call;
+  }
+
+  /** "count $count" */
+  private static GStringExpression gString(){
+    return new GStringExpression("count $count", Arrays.asList(new ConstantExpression("count "), new ConstantExpression("")), Arrays.<Expression> asList(new VariableExpression("count")));
+  }
+}
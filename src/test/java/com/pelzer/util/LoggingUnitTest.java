@@ -15,10 +15,15 @@
  */
 package com.pelzer.util;
 
+import java.util.logging.LogRecord;
+
 import junit.framework.TestCase;
 
 import org.apache.log4j.Level;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
 /**
  * This test doesn't actually test much, it just logs a few things, but as long as it doesn't throw
  * an exception, it passes. That should probably be changed.
@@ -54,6 +59,26 @@ public class LoggingUnitTest extends TestCase {
     log4j.log(Level.DEBUG, "Testing Log4J DEBUG.");
   }
 
+  public void testLog4JBridgeIsLazy(){
+    Log4JConfigurer.configureLog4j();
+    final int rendered[] = new int[1];
+    final Object message = new Object(){
+      @Override
+      public String toString(){
+        rendered[0]++;
+        return "Testing lazy Log4J.";
+      }
+    };
+    final String category = LoggingUnitTest.class.getName() + ".lazy";
+    final Logging.Logger log = Logging.getLogger(category);
+    log.logger.setLevel(Logging.Priority.WARN.getLevel());
+    final org.apache.log4j.Logger log4j = org.apache.log4j.Logger.getLogger(category);
+    log4j.debug(message);
+    assertEquals(0, rendered[0]);
+    log4j.warn(message);
+    assertEquals(1, rendered[0]);
+  }
+
   public void testLocalProperty() throws InterruptedException{
     class LoggerThread extends Thread{
       private Logging.Logger log = Logging.getLogger(this);
@@ -75,4 +100,28 @@ public class LoggingUnitTest extends TestCase {
     for(Thread thread:threads)
       thread.join();
   }
+
+  public void testJSONFormatter(){
+    final Logging.JSONFormatter formatter = new Logging.JSONFormatter();
+    final LogRecord record = new Logging.LogEvent(Logging.Priority.ERROR.getLevel(), "com.example.Foo", "Attempt {} of \"{}\"", new Object[]{1, "two\nlines"}, new RuntimeException("Expected exception!", new IllegalStateException("cause")));
+    record.setMillis(1234567890123L);
+    final String line = formatter.format(record);
+    assertTrue(line.endsWith("}\n"));
+    assertEquals(line.length() - 1, line.indexOf('\n'));
+
+    final JsonObject json = new JsonParser().parse(line).getAsJsonObject();
+    assertEquals("2009-02-13T23:31:30.123Z", json.get("timestamp").getAsString());
+    assertEquals("ERROR", json.get("level").getAsString());
+    assertEquals("com.example.Foo", json.get("logger").getAsString());
+    assertEquals("Attempt {} of \"{}\"", json.get("template").getAsString());
+    assertEquals(1, json.get("arguments").getAsJsonArray().get(0).getAsInt());
+    assertEquals("two\nlines", json.get("arguments").getAsJsonArray().get(1).getAsString());
+    final JsonObject exception = json.get("exception").getAsJsonObject();
+    assertEquals(RuntimeException.class.getName(), exception.get("class").getAsString());
+    assertTrue(exception.get("frames").getAsJsonArray().size() > 0);
+    assertEquals("cause", exception.get("cause").getAsJsonObject().get("message").getAsString());
+
+    // The text formatter still sees the replaced message.
+    assertEquals("Attempt 1 of \"two\nlines\"", record.getMessage());
+  }
 }
@@ -0,0 +1,141 @@
+package com.pelzer.util;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class SafeSemaphoreTest extends TestCase {
+  public void testRelease() throws Exception {
+    SafeSemaphore semaphore = new SafeSemaphore(2);
+    SafeSemaphore.Permit permit = semaphore.acquire();
+    assertEquals(1, semaphore.availablePermits());
+    permit.release();
+    permit.release();
+    assertTrue(permit.isReleased());
+    assertEquals(2, semaphore.availablePermits());
+
+    try (SafeSemaphore.Permit closing = semaphore.acquireUninterruptibly()) {
+      assertEquals(1, semaphore.availablePermits());
+    }
+    assertEquals(2, semaphore.availablePermits());
+  }
+
+  public void testTryAcquire() throws Exception {
+    SafeSemaphore semaphore = new SafeSemaphore(3);
+    SafeSemaphore.Permit two = semaphore.tryAcquire(2);
+    assertEquals(2, two.getPermits());
+    assertEquals(1, semaphore.availablePermits());
+    assertNull(semaphore.tryAcquire(2));
+    assertNull(semaphore.tryAcquire(2, 10, TimeUnit.MILLISECONDS));
+    SafeSemaphore.Permit one = semaphore.tryAcquire(10, TimeUnit.MILLISECONDS);
+    assertNotNull(one);
+    assertNull(semaphore.tryAcquire());
+    two.release();
+    two.release();
+    assertEquals(2, semaphore.availablePermits());
+    one.close();
+    assertEquals(3, semaphore.availablePermits());
+
+    assertEquals(2, semaphore.getAcquireCount());
+    assertEquals(3, semaphore.getRejectCount());
+    assertEquals(1, semaphore.getWaitNanos().getCount());
+  }
+
+  public void testWithoutStats() throws Exception {
+    SafeSemaphore semaphore = new SafeSemaphore(1, false);
+    SafeSemaphore.Permit permit = semaphore.acquire();
+    assertNull(semaphore.tryAcquire());
+    assertNull(semaphore.tryAcquire(1, TimeUnit.MILLISECONDS));
+    assertEquals(1, semaphore.getInFlight());
+    permit.release();
+    assertEquals(1, semaphore.availablePermits());
+    assertEquals(0, semaphore.getAcquireCount());
+    assertEquals(0, semaphore.getRejectCount());
+    assertNull(semaphore.getWaitNanos());
+  }
+
+  public void testWeightedAcquireWaits() throws Exception {
+    final SafeSemaphore semaphore = new SafeSemaphore(4);
+    final SafeSemaphore.Permit held = semaphore.acquire(3);
+    Thread releaser = new Thread() {
+      @Override
+      public void run() {
+        while (semaphore.getQueueLength() == 0)
+          Thread.yield();
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException ignored) {
+        }
+        held.release();
+      }
+    };
+    releaser.start();
+    SafeSemaphore.Permit all = semaphore.acquireUninterruptibly(4);
+    releaser.join();
+    assertEquals(0, semaphore.availablePermits());
+    assertTrue(semaphore.getWaitNanos().getMax() >= TimeUnit.MILLISECONDS.toNanos(20));
+    all.release();
+    assertEquals(4, semaphore.availablePermits());
+  }
+
+  public void testLeakedPermitsAreReleased() throws Exception {
+    SafeSemaphore semaphore = new SafeSemaphore(1);
+    semaphore.setLeakSampleRate(1);
+    leak(semaphore);
+    assertEquals(0, semaphore.availablePermits());
+    for (int i = 0; i < 100 && semaphore.availablePermits() == 0; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    assertEquals(1, semaphore.availablePermits());
+    assertEquals(1, semaphore.getLeakedPermits());
+  }
+
+  /**
+   * The reaper logs a leak just after releasing it, so exiting soon after the
+   * permit comes back races the log with the JVM's shutdown hooks, which
+   * mustn't hang the exit.
+   */
+  public void testExitWhileLeakIsReaped() throws Exception {
+    File output = File.createTempFile("safe-semaphore-exit", ".txt");
+    output.deleteOnExit();
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    for (int delay : new int[] { 0, 50, 100, 200 }) {
+      ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), LeakThenExit.class.getName(), String.valueOf(delay));
+      builder.redirectErrorStream(true);
+      builder.redirectOutput(output);
+      Process process = builder.start();
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+      Integer exitCode = null;
+      while (exitCode == null && System.nanoTime() < deadline) {
+        try {
+          exitCode = process.exitValue();
+        } catch (IllegalThreadStateException stillRunning) {
+          Thread.sleep(20);
+        }
+      }
+      if (exitCode == null)
+        process.destroy();
+      assertEquals("JVM didn't exit " + delay + "ms after a leak was reaped", Integer.valueOf(0), exitCode);
+    }
+  }
+
+  /** Leaks a permit, and exits the given number of ms after the reaper releases it. */
+  public static class LeakThenExit {
+    public static void main(String args[]) throws Exception {
+      SafeSemaphore semaphore = new SafeSemaphore(1);
+      leak(semaphore);
+      for (int i = 0; i < 1000 && semaphore.availablePermits() == 0; i++) {
+        System.gc();
+        Thread.sleep(5);
+      }
+      Thread.sleep(Long.parseLong(args[0]));
+      System.exit(semaphore.availablePermits() == 1 ? 0 : 1);
+    }
+  }
+
+  private static void leak(SafeSemaphore semaphore) throws InterruptedException {
+    semaphore.acquire();
+  }
+}
@@ -0,0 +1,52 @@
+package com.pelzer.util;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class StopWatchTest extends TestCase {
+  public void testElapsed() throws Exception {
+    StopWatch watch = new StopWatch();
+    assertEquals(0, watch.getElapsedNanos());
+    assertEquals("00:00:00:00", watch.getElapsed().getCode());
+    watch.start();
+    Thread.sleep(20);
+    assertTrue(watch.getElapsedMillis() >= 20);
+    watch.stop();
+    long elapsed = watch.getElapsedNanos();
+    Thread.sleep(5);
+    assertEquals(elapsed, watch.getElapsedNanos());
+    assertEquals(elapsed / 1000000, watch.getElapsed(TimeUnit.MILLISECONDS));
+    // Elapsed comes back as a 1000 frames/sec Timecode, the same as it always has
+    Timecode code = watch.getElapsed();
+    assertEquals(1000F, code.getFramesPerSecond(), 0);
+    assertEquals(elapsed / 1000000, code.getFrames());
+    watch.reset();
+    assertEquals(0, watch.getElapsedNanos());
+    assertFalse(watch.isRunning());
+  }
+
+  public void testLaps() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram();
+    StopWatch watch = new StopWatch(true, histogram);
+    Thread.sleep(10);
+    long first = watch.lap();
+    assertTrue(first >= TimeUnit.MILLISECONDS.toNanos(10));
+    assertTrue(watch.getCurrentLapNanos() < watch.getElapsedNanos());
+    watch.lap();
+    watch.stop();
+    assertEquals(3, watch.getLapCount());
+    assertEquals(3, histogram.getCount());
+    assertTrue(histogram.getMax() >= first);
+    assertEquals(0, watch.lap());
+    assertEquals(0, watch.getCurrentLapNanos());
+
+    // Another start()/stop() pair is another lap in the same histogram
+    watch.start();
+    assertEquals(0, watch.getLapCount());
+    watch.stop();
+    assertEquals(4, histogram.getCount());
+    assertSame(histogram, watch.getLapHistogram());
+    assertNull(new StopWatch().getLapHistogram());
+  }
+}
@@ -15,6 +15,21 @@
  */
 package com.pelzer.util;
 
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import junit.framework.TestCase;
 
 public class StringManTest extends TestCase {
@@ -28,6 +43,65 @@ public class StringManTest extends TestCase {
     assertEquals("Beyonce", StringMan.getUS7ASCIIEquiv("Beyonc" + ((char) 233)));
   }
   
+  public void testASCII7Table() throws Exception {
+    // Latin-1 comes out exactly as it did when every call ran the Collator
+    for (char c = 0; c < 256; c++)
+      assertEquals("char " + (int) c, originalUS7ASCIIEquiv(String.valueOf(c)), StringMan.getUS7ASCIIEquiv(String.valueOf(c)));
+    // Latin Extended is now covered too, and anything past it is still a space
+    assertEquals("Lodz Zolc", StringMan.getUS7ASCIIEquiv("\u0141\u00f3d\u017a \u017b\u00f3\u0142\u0107"));
+    assertEquals("a b", StringMan.getUS7ASCIIEquiv("a\u4e2db"));
+    String clean = "plain";
+    assertSame(clean, StringMan.getUS7ASCIIEquiv(clean));
+
+    StringBuilder out = new StringBuilder();
+    StringMan.getUS7ASCIIEquiv("Beyonc\u00e9 Knowles", out);
+    assertEquals("Beyonce Knowles", out.toString());
+    char chars[] = "cr\u00e8me".toCharArray();
+    StringMan.getUS7ASCIIEquiv(chars, 0, chars.length, chars, 0);
+    assertEquals("creme", new String(chars));
+
+    List<String> inputs = new ArrayList<String>();
+    for (int i = 0; i < 10000; i++)
+      inputs.add("na\u00efve " + i);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<String> converted = StringMan.getUS7ASCIIEquiv(inputs, executor);
+      assertEquals(10000, converted.size());
+      assertEquals("naive 9999", converted.get(9999));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** The implementation the lookup table replaced. */
+  private static String originalUS7ASCIIEquiv(String convertString) {
+    StringBuilder convertedString = new StringBuilder();
+    String upperConvertString = convertString.toUpperCase();
+    Collator collator = Collator.getInstance(Locale.US);
+    collator.setStrength(Collator.PRIMARY);
+    String chars = "abcdefghijklmnopqrstuvwxyz";
+    for (int i = 0; i < convertString.length(); i++) {
+      char currentChar = convertString.charAt(i);
+      boolean isUppercase = currentChar == upperConvertString.charAt(i);
+      char mappedChar = ' ';
+      if (currentChar < 128) {
+        mappedChar = currentChar;
+      } else if (currentChar < 256) {
+        for (int j = 0; j < chars.length(); j++) {
+          if (collator.compare(currentChar + "", chars.charAt(j) + "") == 0) {
+            if (isUppercase)
+              mappedChar = Character.toUpperCase(chars.charAt(j));
+            else
+              mappedChar = chars.charAt(j);
+            break;
+          }
+        }
+      }
+      convertedString.append(mappedChar);
+    }
+    return convertedString.toString();
+  }
+
   public void testIsStringTrue(){
     assertTrue(StringMan.isStringTrue("true"));
     assertTrue(StringMan.isStringTrue("TRUE"));
@@ -78,6 +152,70 @@ public class StringManTest extends TestCase {
     assertEquals("This is a test", StringMan.replace("{} {} {} {}", "{}", "This", "is", "a", "test"));
   }
 
+  public void testMultiReplace() throws Exception {
+    Map<String, String> map = new HashMap<String, String>();
+    map.put("a", "1");
+    map.put("ab", "2");
+    map.put("bc", "3");
+    map.put("bcd", "4");
+    map.put("\u00e9t\u00e9", "ete");
+    MultiReplacer replacer = new MultiReplacer(map);
+    // Leftmost wins, then longest
+    assertEquals("2c", replacer.replace("abc"));
+    assertEquals("x4x", replacer.replace("xbcdx"));
+    assertEquals("1x3", replacer.replace("axbc"));
+    assertEquals("2cd", replacer.replace("abcd"));
+    assertEquals("summer ete", replacer.replace("summer \u00e9t\u00e9"));
+    // Nothing to do returns the same instance
+    String clean = "nothing to see here";
+    assertSame(clean, replacer.replace(clean));
+
+    StringWriter writer = new StringWriter();
+    replacer.replace("<ab>", writer);
+    assertEquals("<2>", writer.toString());
+    StringBuilder builder = new StringBuilder("> ");
+    replacer.replace(new StringBuilder("bcd a"), builder);
+    assertEquals("> 4 1", builder.toString());
+    assertEquals("x2y", StringMan.replace("xaby", map));
+  }
+
+  public void testMultiReplaceMatchesBruteForce() {
+    Random random = new Random(12345);
+    for (int round = 0; round < 200; round++) {
+      Map<String, String> map = new HashMap<String, String>();
+      for (int i = 0; i < 1 + random.nextInt(6); i++)
+        map.put(randomString(random, 1 + random.nextInt(4)), "<" + i + ">");
+      String haystack = randomString(random, random.nextInt(40));
+      assertEquals(map + " " + haystack, bruteForceReplace(haystack, map), new MultiReplacer(map).replace(haystack));
+    }
+  }
+
+  private static String randomString(Random random, int length) {
+    StringBuilder out = new StringBuilder();
+    for (int i = 0; i < length; i++)
+      out.append((char) ('a' + random.nextInt(3)));
+    return out.toString();
+  }
+
+  /** Leftmost-longest, the slow way. */
+  private static String bruteForceReplace(String haystack, Map<String, String> map) {
+    StringBuilder out = new StringBuilder();
+    int i = 0;
+    while (i < haystack.length()) {
+      String best = null;
+      for (String needle : map.keySet())
+        if (haystack.startsWith(needle, i) && (best == null || needle.length() > best.length()))
+          best = needle;
+      if (best == null)
+        out.append(haystack.charAt(i++));
+      else {
+        out.append(map.get(best));
+        i += best.length();
+      }
+    }
+    return out.toString();
+  }
+
   public void testReplaceFirst() {
     assertEquals("abc!!?def??gef", StringMan.replaceFirst("abc??def??gef", "?", "!!"));
     assertEquals("12345", StringMan.replaceFirst("12345__", "__", ""));
@@ -90,6 +228,160 @@ public class StringManTest extends TestCase {
     assertEquals("00017F80FF", StringMan.encodeBytesToString(new byte[]{0, 1, 127, -128, -1 }));
   }
 
+  public void testHexCodec() throws Exception {
+    byte bytes[] = new byte[]{0, 1, 127, -128, -1, 0, 0, 0, 0, 0, 0 };
+    assertEquals("00017F80FF000000000000", HexCodec.encode(bytes));
+    assertEquals("00017F80FF^0m", HexCodec.encodeCompressed(bytes));
+    assertTrue(Arrays.equals(bytes, StringMan.decodeStringToBytes("00017f80ff^0m")));
+    assertTrue(Arrays.equals(bytes, HexCodec.decode("00017F80FF000000000000")));
+
+    char chars[] = new char[6];
+    assertEquals(6, HexCodec.encode(bytes, 2, 2, chars, 2));
+    assertEquals("7F80", new String(chars, 2, 4));
+    ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+    HexCodec.decode("xx7F80FFxx", 2, 8, buffer);
+    buffer.flip();
+    StringBuilder builder = new StringBuilder();
+    HexCodec.encode(buffer, builder);
+    assertEquals("7F80FF", builder.toString());
+
+    StringWriter writer = new StringWriter();
+    HexCodec.EncodingOutputStream encoder = new HexCodec.EncodingOutputStream(writer);
+    encoder.write(0xAB);
+    encoder.write(bytes, 0, 3);
+    encoder.close();
+    assertEquals("AB00017F", writer.toString());
+    InputStream decoder = new HexCodec.DecodingInputStream(new StringReader(writer.toString()));
+    assertEquals(0xAB, decoder.read());
+    byte rest[] = new byte[10];
+    assertEquals(3, decoder.read(rest, 0, 10));
+    assertEquals(127, rest[2]);
+    assertEquals(-1, decoder.read(rest, 0, 10));
+
+    try {
+      HexCodec.decode("0G");
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testHexCompressionMatchesOriginal() {
+    Random random = new Random(54321);
+    for (int round = 0; round < 500; round++) {
+      StringBuilder hex = new StringBuilder();
+      int runs = random.nextInt(10);
+      for (int i = 0; i < runs; i++) {
+        char c = "0F^ab".charAt(random.nextInt(random.nextInt(20) == 0 ? 5 : 2));
+        for (int j = random.nextInt(80); j >= 0; j--)
+          hex.append(c);
+      }
+      String compressed = StringMan.compressHexString(hex.toString());
+      assertEquals(hex.toString(), originalCompressHexString(hex.toString()), compressed);
+      if (hex.indexOf("^") < 0 && hex.indexOf("a") < 0) {
+        assertEquals(hex.toString(), StringMan.decompressHexString(compressed));
+        assertEquals(hex.length(), HexCodec.decompressedLength(compressed));
+      }
+    }
+  }
+
+  /** The implementation HexCodec.compress() replaced, to check it still gives the same output. */
+  private static String originalCompressHexString(String inString) {
+    String in = inString + "^";
+    StringBuilder out = new StringBuilder();
+    char lastChar = ' ';
+    int count = 0;
+    for (int i = 0; i < in.length(); i++) {
+      char thisChar = in.charAt(i);
+      if (thisChar == lastChar && count < 35) {
+        count++;
+      } else {
+        if (count > 3) {
+          out.append('^');
+          out.append(lastChar);
+          out.append("abcdefghijklmnopqrstuvwxyz01234567890".charAt(count));
+        } else {
+          for (int j = 0; j < count; j++)
+            out.append(lastChar);
+        }
+        count = 1;
+        lastChar = thisChar;
+      }
+    }
+    return out.toString();
+  }
+
+  public void testTokenizer() {
+    assertTrue(Arrays.equals(new String[]{"a", "bc", "d" }, StringMan.tokenize("  a\tbc \n d ")));
+    assertTrue(Arrays.equals(new String[]{"1", "22", "333" }, StringMan.tokenize(",1,,22,333,", ",")));
+    assertEquals(0, StringMan.tokenize(",,,", ",").length);
+
+    Tokenizer tokens = new Tokenizer("12 -7 abc", " ");
+    assertTrue(tokens.next());
+    assertEquals(12, tokens.parseInt());
+    assertTrue(tokens.next());
+    assertEquals(3, tokens.start());
+    assertEquals(5, tokens.end());
+    assertEquals(-7L, tokens.parseLong());
+    assertTrue(tokens.next());
+    assertEquals("abc", tokens.token().toString());
+    assertEquals('b', tokens.token().charAt(1));
+    assertFalse(tokens.next());
+    tokens.reset("again");
+    assertTrue(tokens.next());
+    assertEquals("again", tokens.tokenString());
+
+    // A String on its own is the source, split on whitespace
+    tokens = new Tokenizer("12 7\t9");
+    assertTrue(tokens.next());
+    assertEquals(12, tokens.parseInt());
+    assertTrue(tokens.next());
+    assertEquals(7, tokens.parseInt());
+    assertTrue(tokens.next());
+    assertEquals(9, tokens.parseInt());
+    assertFalse(tokens.next());
+    tokens = Tokenizer.on(";").reset("a b;c");
+    assertTrue(tokens.next());
+    assertEquals("a b", tokens.tokenString());
+
+    int ints[] = new int[5];
+    assertEquals(3, Tokenizer.parseInts("7|+8||-2147483648", "|", ints, 1));
+    assertEquals(7, ints[1]);
+    assertEquals(8, ints[2]);
+    assertEquals(Integer.MIN_VALUE, ints[3]);
+    long longs[] = new long[2];
+    assertEquals(2, Tokenizer.parseLongs("9223372036854775807, -9223372036854775808", ", ", longs, 0));
+    assertEquals(Long.MAX_VALUE, longs[0]);
+    assertEquals(Long.MIN_VALUE, longs[1]);
+
+    // One tokenizer, reused line after line
+    tokens = Tokenizer.on(",");
+    assertEquals(3, tokens.reset("1,2,3").countTokens());
+    assertEquals(3, tokens.parseInts(ints, 0));
+    assertEquals(3, ints[2]);
+    assertEquals(0, tokens.countTokens());
+    assertEquals(2, tokens.reset(",40,,50").parseInts(ints, 0));
+    assertEquals(40, ints[0]);
+    assertEquals(50, ints[1]);
+    assertEquals(1, tokens.reset("-6").parseLongs(longs, 1));
+    assertEquals(-6L, longs[1]);
+    tokens.reset("x,y,z");
+    assertTrue(tokens.next());
+    assertEquals("remaining tokens only", 2, tokens.countTokens());
+    assertEquals("y", tokens.next() ? tokens.tokenString() : null);
+
+    for (String bad : new String[]{"", "-", "+", "1a", "2147483648", "99999999999999999999" })
+      try {
+        Tokenizer.parseInt(bad, 0, bad.length());
+        fail("Expected a NumberFormatException for '" + bad + "'");
+      } catch (NumberFormatException expected) {
+      }
+    try {
+      Tokenizer.parseInts("1 2 3", " ", new int[2], 0);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
   public void testPadLeftJustified() {
     assertEquals("1234####", StringMan.padLeftJustified("1234", 8, "#"));
   }
@@ -104,6 +396,56 @@ public class StringManTest extends TestCase {
     assertEquals("&#13;&#10;&#9;&#92;", StringMan.escapeForXML("\r\n\t\\"));
   }
 
+  public void testEscapeForXMLStreaming() throws Exception {
+    String clean = "Nothing to escape here: a=b, c+d/e? #1;";
+    assertSame(clean, StringMan.escapeForXML(clean));
+    assertNull(StringMan.escapeForXML(null));
+
+    StringBuilder builder = new StringBuilder("x");
+    StringMan.escapeForXML("AT&T <b>", builder);
+    assertEquals("xAT&amp;T &lt;b&gt;", builder.toString());
+
+    StringWriter target = new StringWriter();
+    XMLEscapingWriter writer = new XMLEscapingWriter(target);
+    writer.write("it's ");
+    writer.write('<');
+    writer.write("--\u00e9--".toCharArray(), 1, 3);
+    writer.write("ab\"cd", 1, 3);
+    writer.flush();
+    assertEquals("it&apos;s &lt;-&#233;-b&quot;c", target.toString());
+
+    // Same output as the old chained replace() implementation
+    Random random = new Random(37);
+    String alphabet = "aZ9 #;&<>\"'-_=+:,.?/\\\r\n\u00e9\u4e2d";
+    for (int trial = 0; trial < 500; trial++) {
+      StringBuilder in = new StringBuilder();
+      int length = random.nextInt(20);
+      for (int i = 0; i < length; i++)
+        in.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      String expected = oldEscapeForXML(in.toString());
+      assertEquals(expected, StringMan.escapeForXML(in.toString()));
+      StringWriter streamed = new StringWriter();
+      new XMLEscapingWriter(streamed).append(in).flush();
+      assertEquals(expected, streamed.toString());
+    }
+  }
+
+  private static String oldEscapeForXML(String inString) {
+    String outString = inString;
+    outString = StringMan.replace(outString, "&", "&amp;");
+    outString = StringMan.replace(outString, "<", "&lt;");
+    outString = StringMan.replace(outString, ">", "&gt;");
+    outString = StringMan.replace(outString, "\"", "&quot;");
+    outString = StringMan.replace(outString, "'", "&apos;");
+    String validChars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz1234567890 &#;-_=+:,.?/";
+    for (int i = 0; i < outString.length(); i++) {
+      char c = outString.charAt(i);
+      if (validChars.indexOf(c) < 0)
+        outString = StringMan.replace(outString, "" + c, "&#" + (int) c + ";");
+    }
+    return outString;
+  }
+
   public void testAreStringsEqual() {
     assertTrue(StringMan.areStringsEqual(null, null));
     assertTrue(StringMan.areStringsEqual("abc", "abc"));
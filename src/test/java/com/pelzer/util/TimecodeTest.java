@@ -26,6 +26,8 @@ import com.pelzer.util.Logging;
 import com.pelzer.util.Timecode;
 import com.pelzer.util.Timecode.TimecodeException;
 import com.pelzer.util.Timecode.Type;
+import com.pelzer.util.timecode.Frames;
+import com.pelzer.util.timecode.Rate;
 
 public class TimecodeTest extends TestCase {
   public TimecodeTest(String name) {
@@ -60,7 +62,7 @@ public class TimecodeTest extends TestCase {
     Timecode s = new Timecode(Type.TYPE_VIDEO_NTSC);
     s.setSeconds(1);
     s.normalize();
-    assertEquals(29.97F, s.toFrames(), 0);
+    assertEquals(30000 / 1001d, s.toFrames(), 0);
   }
 
   public void testCD() throws TimecodeException {
@@ -73,6 +75,109 @@ public class TimecodeTest extends TestCase {
     assertEquals(29.97F, new Timecode(1F, Type.TYPE_VIDEO_NTSC).toFrames(), 0.001);
   }
 
+  public void testTypeRates() {
+    assertEquals(Rate.NTSC, Type.TYPE_VIDEO_NTSC.getRate());
+    assertEquals(Rate.of(30000000, 1001), Type.TYPE_VIDEO_NTSC.getSampleRate());
+    assertEquals(Rate.SAMPLES_44100, Type.TYPE_AUDIO_CD.getSampleRate());
+    assertFalse(Type.TYPE_VIDEO_NTSC.isDropFrame());
+    assertTrue(Type.TYPE_VIDEO_NTSC_DROP_FRAME.isDropFrame());
+    assertEquals(29.97F, Type.TYPE_VIDEO_NTSC_DROP_FRAME.getFramesPerSecond(), 0);
+    assertSame(Type.TYPE_VIDEO_PAL, Type.getInstance(Rate.PAL, false));
+    assertSame(Type.TYPE_VIDEO_NTSC_DROP_FRAME, Type.getInstance(Rate.NTSC, true));
+    try {
+      Type.getInstance(Rate.PAL, true);
+      fail();
+    } catch (NumberFormatException expected) {
+    }
+  }
+
+  public void testLongRunsStayExact() {
+    Timecode s = new Timecode(Type.TYPE_AUDIO_CD);
+    s.setHours(10);
+    s.setFrames(1);
+    assertEquals(10L * 3600 * 44100 + 588, s.toSamples());
+    assertEquals(10 * 3600 * 75 + 1, s.toFrames(), 0);
+    s.setCode(0);
+    s.setSamples(10L * 3600 * 44100 + 588);
+    s.normalize();
+    assertEquals("10:00:00:01", s.getCode());
+  }
+
+  public void testNtscDoesNotDrift() throws TimecodeException {
+    Timecode s = new Timecode(Type.TYPE_VIDEO_NTSC);
+    assertEquals(Rate.NTSC, s.getRate());
+    s.setHours(10);
+    assertEquals(36000 * 30000 / 1001d, s.toFrames(), 1e-6);
+    assertEquals(36000L * 30000000 / 1001, s.toSamples());
+    assertEquals(36000, s.toDoubleSeconds(), 0);
+    // Normalizing drops no more than the part of a frame left over from the last second
+    s.setCode(1078921);
+    assertEquals(1078921, s.toFrames(), 1);
+    assertEquals("09:59:59:29", s.getCode());
+    // Setting the float rate picks the exact one back up, as XMLDecoder does
+    s.setFramesPerSecond(29.97F);
+    s.setSamplesPerSecond(29970F);
+    assertEquals(Rate.NTSC, s.getRate());
+    assertEquals(Rate.of(30000000, 1001), s.getSampleRate());
+  }
+
+  public void testLabelsAreWallClockUnlikeFrames() throws TimecodeException {
+    // Timecode's non-drop-frame fields are wall-clock time, Frames counts 30 to a labelled second
+    Timecode ntsc = new Timecode("01:00:00:00", Type.TYPE_VIDEO_NTSC);
+    assertEquals(3600 * 30000 / 1001d, ntsc.toFrames(), 1e-6);
+    assertEquals(3600, ntsc.toDoubleSeconds(), 0);
+    assertEquals(108000, Frames.parse("01:00:00:00", Rate.NTSC).getCount());
+    // At whole rates, and for drop-frame labels, they agree
+    assertEquals(Frames.parse("01:00:00:00", Rate.PAL).getCount(), new Timecode("01:00:00:00", Type.TYPE_VIDEO_PAL).toFrames(), 0);
+    assertEquals(Frames.parse("01:00:00;00", Rate.NTSC).getCount(), new Timecode("01:00:00;00", Type.TYPE_VIDEO_NTSC_DROP_FRAME).toFrames(), 0);
+  }
+
+  public void testOddFloatRatesFallBackToFloats() {
+    Timecode s = new Timecode(Type.TYPE_VIDEO_PAL);
+    // Any float is accepted, as it always was
+    s.setFramesPerSecond(0);
+    s.setSamplesPerSecond(Float.NaN);
+    assertNull(s.getRate());
+    s.setFramesPerSecond(12.5F);
+    s.setSamplesPerSecond(12500F);
+    assertNull(s.getRate());
+    assertNull(s.getSampleRate());
+    s.setCode(25);
+    assertEquals("00:00:02:00", s.getCode());
+    assertEquals(25, s.toFrames(), 0);
+    assertEquals(2, s.toDoubleSeconds(), 0);
+    assertEquals(25000, s.toSamples());
+    // and a usual rate picks the exact one back up
+    s.setFramesPerSecond(25F);
+    s.setSamplesPerSecond(25000F);
+    assertSame(Rate.PAL, s.getRate());
+    assertEquals(50000, s.toSamples());
+  }
+
+  public void testDropFrame() throws TimecodeException {
+    Timecode s = new Timecode(Type.TYPE_VIDEO_NTSC_DROP_FRAME);
+    assertTrue(s.isDropFrame());
+    s.setCode(1800);
+    assertEquals("00:01:00;02", s.getCode());
+    assertEquals(1800, s.toFrames(), 0);
+    s.setCode("00:10:00;00");
+    assertEquals(17982, s.toFrames(), 0);
+    s.setCode("01:00:00:00");
+    assertEquals("01:00:00;00", s.getCode());
+    assertEquals(107892, s.toFrames(), 0);
+    assertEquals(107892L * 1000, s.toSamples());
+    assertEquals(107892 * 1001 / 30000d, s.toDoubleSeconds(), 1e-9);
+    // Drop-frame labels keep up with the clock
+    s.setCode(3600F);
+    assertEquals("01:00:00;00", s.getCode());
+
+    // A drop-frame label on a non-drop-frame timecode is counted out as drop-frame, which is a
+    // fraction of a frame short of ten minutes
+    Timecode nonDrop = new Timecode("00:10:00;00", Type.TYPE_VIDEO_NTSC);
+    assertEquals(17982, nonDrop.toFrames(), 1);
+    assertEquals("00:09:59:29", nonDrop.getCode());
+  }
+
   public void testToMMSS() {
     Timecode s = new Timecode(0);
     assertEquals("00:00", s.toMMSS());
@@ -0,0 +1,81 @@
+package com.pelzer.util;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+public class TimerRegistryTest extends TestCase {
+  @Override
+  protected void tearDown() throws Exception {
+    TimerRegistry.remove("test.timer");
+    TimerRegistry.remove("test.counter");
+  }
+
+  public void testTimer() throws Exception {
+    TimerRegistry.Timer timer = TimerRegistry.timer("test.timer");
+    assertSame(timer, TimerRegistry.timer("test.timer"));
+    timer.record(1000);
+    timer.record(3000);
+    try (TimerRegistry.Scope scope = timer.time()) {
+      Thread.sleep(5);
+    }
+    LatencyHistogram snapshot = timer.snapshot();
+    assertEquals(3, snapshot.getCount());
+    assertEquals(1000, snapshot.getMin());
+    assertTrue(snapshot.getMax() >= 5000000);
+    assertEquals(3, TimerRegistry.snapshotTimers().get("test.timer").getCount());
+
+    timer.setEnabled(false);
+    timer.record(1000);
+    try (TimerRegistry.Scope scope = timer.time()) {
+      assertEquals(0, scope.getElapsedNanos());
+    }
+    assertEquals(3, timer.getCount());
+    timer.setEnabled(true);
+    timer.reset();
+    assertEquals(0, timer.getCount());
+  }
+
+  public void testCounterFromManyThreads() throws Exception {
+    final TimerRegistry.Counter counter = TimerRegistry.counter("test.counter");
+    final TimerRegistry.Timer timer = TimerRegistry.timer("test.timer");
+    Thread threads[] = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            counter.increment();
+            timer.record(j);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    assertEquals(40000, counter.get());
+    assertEquals(40000, timer.getCount());
+    assertEquals(Long.valueOf(40000), TimerRegistry.snapshotCounters().get("test.counter"));
+    counter.setEnabled(false);
+    counter.add(5);
+    assertEquals(40000, counter.get());
+  }
+
+  public void testJMX() throws Exception {
+    TimerRegistry.timer("test.timer").record(2000);
+    TimerRegistry.counter("test.counter").add(7);
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName timerName = new ObjectName("com.pelzer.util:type=Timer,name=\"test.timer\"");
+    assertEquals(1L, server.getAttribute(timerName, "Count"));
+    assertEquals(2.0, (Double) server.getAttribute(timerName, "MaxMicros"), 0.1);
+    assertEquals(7L, server.getAttribute(new ObjectName("com.pelzer.util:type=Counter,name=\"test.counter\""), "Value"));
+
+    TimerRegistry.remove("test.timer");
+    assertFalse(server.isRegistered(timerName));
+    assertNull(TimerRegistry.snapshotTimers().get("test.timer"));
+  }
+}
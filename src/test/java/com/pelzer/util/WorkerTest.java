@@ -0,0 +1,215 @@
+package com.pelzer.util;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class WorkerTest extends TestCase {
+  public void testStopDoesNotWaitOutTheInterval() throws Exception {
+    final CountDownLatch ran = new CountDownLatch(1);
+    final AtomicInteger rounds = new AtomicInteger();
+    Worker worker = new Worker("slow", 1, TimeUnit.HOURS) {
+      @Override
+      protected void work() {
+        rounds.incrementAndGet();
+        ran.countDown();
+      }
+    };
+    worker.start();
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    assertTrue(worker.isRunning());
+    long start = System.nanoTime();
+    worker.stop();
+    assertTrue(worker.awaitTermination(5, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    assertTrue(worker.isTerminated());
+    assertFalse(worker.isRunning());
+    assertEquals(1, rounds.get());
+  }
+
+  public void testWakeUpRunsAnotherRound() throws Exception {
+    final AtomicInteger rounds = new AtomicInteger();
+    Worker worker = new Worker("idle") {
+      @Override
+      protected void work() {
+        rounds.incrementAndGet();
+      }
+    };
+    worker.start();
+    waitFor(rounds, 1);
+    worker.wakeUp();
+    waitFor(rounds, 2);
+    Thread.sleep(50);
+    assertEquals("an idle worker shouldn't run without being woken", 2, rounds.get());
+    worker.stop();
+    assertTrue(worker.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  public void testFailuresDontStopTheWorker() throws Exception {
+    final AtomicInteger failures = new AtomicInteger();
+    Worker worker = new Worker("failing", 1, TimeUnit.MILLISECONDS) {
+      @Override
+      protected void work() throws Exception {
+        throw new Exception("expected");
+      }
+
+      @Override
+      protected void failed(Exception ex) {
+        failures.incrementAndGet();
+      }
+    };
+    worker.start();
+    waitFor(failures, 3);
+    worker.stop();
+    assertTrue(worker.awaitTermination(5, TimeUnit.SECONDS));
+    try {
+      worker.start();
+      fail("A worker can only be started once");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  public void testQueueWorkerProcessesEverythingSubmittedBeforeStop() throws Exception {
+    final List<Integer> processed = new CopyOnWriteArrayList<Integer>();
+    QueueWorker<Integer> worker = new QueueWorker<Integer>("queue") {
+      @Override
+      protected void process(Integer item) throws Exception {
+        if (item == 3)
+          throw new Exception("expected");
+        processed.add(item);
+      }
+
+      @Override
+      protected void failed(Exception ex) {
+      }
+    };
+    worker.start();
+    for (int i = 0; i < 100; i++)
+      assertTrue(worker.submit(i));
+    worker.stop();
+    assertFalse(worker.submit(100));
+    assertTrue(worker.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(99, processed.size());
+    assertEquals(Integer.valueOf(99), processed.get(98));
+    assertEquals(0, worker.getBacklog());
+  }
+
+  public void testSubmitRacingStopIsNeverLost() throws Exception {
+    for (int run = 0; run < 20; run++) {
+      final Set<Integer> processed = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+      final QueueWorker<Integer> worker = new QueueWorker<Integer>("racing") {
+        @Override
+        protected void process(Integer item) {
+          processed.add(item);
+        }
+      };
+      worker.start();
+      final Set<Integer> accepted = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+      final CountDownLatch go = new CountDownLatch(1);
+      Thread submitters[] = new Thread[2];
+      for (int t = 0; t < submitters.length; t++) {
+        final int base = t * 100000;
+        submitters[t] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              go.await();
+            } catch (InterruptedException ignored) {
+            }
+            for (int i = base; i < base + 2000; i++)
+              if (worker.submit(i))
+                accepted.add(i);
+          }
+        };
+        submitters[t].start();
+      }
+      go.countDown();
+      Thread.yield();
+      worker.stop();
+      for (Thread submitter : submitters)
+        submitter.join();
+      assertTrue(worker.awaitTermination(5, TimeUnit.SECONDS));
+      assertEquals("every accepted item, and only those, should be processed", accepted, processed);
+    }
+  }
+
+  public void testGroupShutdownInterruptsStragglers() throws Exception {
+    final AtomicInteger threads = new AtomicInteger();
+    WorkerGroup group = new WorkerGroup(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "group-" + threads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    final CountDownLatch stuck = new CountDownLatch(1);
+    Worker polite = group.start(new Worker("polite") {
+      @Override
+      protected void work() {
+      }
+    });
+    Worker stubborn = group.start(new Worker("stubborn") {
+      @Override
+      protected void work() throws InterruptedException {
+        stuck.countDown();
+        Thread.sleep(TimeUnit.HOURS.toMillis(1));
+      }
+
+      @Override
+      protected void failed(Exception ex) {
+      }
+    });
+    assertTrue(stuck.await(5, TimeUnit.SECONDS));
+    assertEquals(2, threads.get());
+
+    List<Worker> stragglers = group.shutdown(100, TimeUnit.MILLISECONDS);
+    assertEquals(1, stragglers.size());
+    assertSame(stubborn, stragglers.get(0));
+    assertTrue(polite.isTerminated());
+    assertTrue(stubborn.awaitTermination(5, TimeUnit.SECONDS));
+    try {
+      group.start(new Worker("late") {
+        @Override
+        protected void work() {
+        }
+      });
+      fail("A shut down group shouldn't start workers");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  public void testKillableThreadPauseReturnsOnKill() throws Exception {
+    final AtomicInteger rounds = new AtomicInteger();
+    KillableThread thread = new KillableThread("killable") {
+      @Override
+      public void run() {
+        while (!die) {
+          rounds.incrementAndGet();
+          pause(TimeUnit.HOURS.toMillis(1));
+        }
+      }
+    };
+    thread.start();
+    waitFor(rounds, 1);
+    thread.kill();
+    assertTrue(thread.waitFor(5, TimeUnit.SECONDS));
+    assertTrue(thread.die);
+    assertEquals(1, rounds.get());
+  }
+
+  private static void waitFor(AtomicInteger value, int atLeast) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (value.get() < atLeast) {
+      assertTrue("Timed out waiting for " + atLeast, System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+  }
+}
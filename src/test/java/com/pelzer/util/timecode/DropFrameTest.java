@@ -0,0 +1,83 @@
+package com.pelzer.util.timecode;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class DropFrameTest extends TestCase {
+  private static final Rate NTSC_HD = Rate.NTSC_HD;
+
+  public void testSupportedRates() {
+    assertTrue(DropFrame.isSupported(Rate.NTSC));
+    assertTrue(DropFrame.isSupported(NTSC_HD));
+    assertFalse(DropFrame.isSupported(Rate.FILM_NTSC));
+    assertFalse(DropFrame.isSupported(Rate.PAL));
+    assertEquals(2, DropFrame.getDroppedPerMinute(Rate.NTSC));
+    assertEquals(4, DropFrame.getDroppedPerMinute(NTSC_HD));
+    try {
+      DropFrame.toLabelCount(1, Rate.PAL);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testLabels() {
+    assertEquals(1799, DropFrame.toFrames(0, 0, 59, 29, Rate.NTSC));
+    assertEquals(1800, DropFrame.toFrames(0, 1, 0, 2, Rate.NTSC));
+    assertEquals(17982, DropFrame.toFrames(0, 10, 0, 0, Rate.NTSC));
+    // Ten hours of drop-frame labels is ten hours of NTSC frames, to the frame
+    assertEquals(1078920, DropFrame.toFrames(10, 0, 0, 0, Rate.NTSC));
+    assertEquals(Rate.NTSC.fromSeconds(36000), DropFrame.toFrames(10, 0, 0, 0, Rate.NTSC), 1);
+
+    assertEquals("00:00:59;29", Frames.of(1799, Rate.NTSC).toDropFrameString());
+    assertEquals("00:01:00;02", Frames.of(1800, Rate.NTSC).toDropFrameString());
+    assertEquals("00:10:00;00", Frames.of(17982, Rate.NTSC).toDropFrameString());
+    assertEquals("10:00:00;00", Frames.ofDropFrame(10, 0, 0, 0, Rate.NTSC).toDropFrameString());
+    assertEquals("00:01:00;04", Frames.of(3600, NTSC_HD).toDropFrameString());
+    assertEquals("-00:01:00;02", Frames.of(-1800, Rate.NTSC).toDropFrameString());
+    // The same frame labelled without dropping
+    assertEquals("00:01:00:00", Frames.of(1800, Rate.NTSC).toString());
+  }
+
+  public void testParse() {
+    assertEquals(Frames.of(1800, Rate.NTSC), Frames.parse("00:01:00;02", Rate.NTSC));
+    assertEquals(Frames.of(1802, Rate.NTSC), Frames.parse("00:01:00:02", Rate.NTSC));
+    // Drop-frame labels at rates that don't drop are read as they are
+    assertEquals(Frames.of(1502, Rate.PAL), Frames.parse("00:01:00;02", Rate.PAL));
+  }
+
+  public void testValid() {
+    assertTrue(DropFrame.isValid(0, 0, 0, Rate.NTSC));
+    assertFalse(DropFrame.isValid(1, 0, 0, Rate.NTSC));
+    assertFalse(DropFrame.isValid(1, 0, 1, Rate.NTSC));
+    assertTrue(DropFrame.isValid(1, 0, 2, Rate.NTSC));
+    assertTrue(DropFrame.isValid(10, 0, 0, Rate.NTSC));
+    assertFalse(DropFrame.isValid(11, 0, 3, NTSC_HD));
+    assertTrue(DropFrame.isValid(11, 1, 0, Rate.NTSC));
+  }
+
+  public void testRoundTrip() {
+    Random random = new Random(41);
+    TimecodeParser parser = new TimecodeParser();
+    for (int i = 0; i < 5000; i++) {
+      long count = random.nextBoolean() ? random.nextInt(40000) : random.nextInt(Integer.MAX_VALUE);
+      Rate rate = random.nextBoolean() ? Rate.NTSC : NTSC_HD;
+      long label = DropFrame.toLabelCount(count, rate);
+      assertEquals(count, DropFrame.fromLabelCount(label, rate));
+      String code = TimecodeFormatter.format(count, rate, true);
+      assertTrue(code, parser.parse(code));
+      assertTrue(code, DropFrame.isValid(parser.getMinutes(), parser.getSeconds(), parser.getFrames(), rate));
+      assertEquals(code, count, parser.toFrames(rate));
+    }
+    // Every frame of the first eleven minutes gets the next label along
+    long previous = -1;
+    for (long count = 0; count < 11 * 1800; count++) {
+      long label = DropFrame.toLabelCount(count, Rate.NTSC);
+      long expectedLabel = previous + 1;
+      if (expectedLabel % 1800 == 0 && expectedLabel % 18000 != 0)
+        expectedLabel += 2;
+      assertEquals(expectedLabel, label);
+      previous = label;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package com.pelzer.util.timecode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import junit.framework.TestCase;
+
+public class FramesTest extends TestCase {
+  public void testRatesAreInterned() throws Exception {
+    assertSame(Rate.NTSC, Rate.of(30000, 1001));
+    assertSame(Rate.NTSC, Rate.of(60000, 2002));
+    assertSame(Rate.PAL, Rate.of(25));
+    assertEquals("30000/1001", Rate.NTSC.toString());
+    assertEquals(30, Rate.NTSC.getNominalFramesPerSecond());
+    assertEquals(24, Rate.FILM.getNominalFramesPerSecond());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(Frames.of(1234, Rate.NTSC));
+    out.close();
+    Frames copy = (Frames) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertSame(Rate.NTSC, copy.getRate());
+    assertEquals(Frames.of(1234, Rate.NTSC), copy);
+  }
+
+  public void testSmallValuesAreCached() {
+    assertSame(Frames.of(0, Rate.PAL), Frames.of(0, Rate.PAL));
+    assertSame(Frames.of(24, Rate.PAL), Frames.of(20, Rate.PAL).add(4));
+    assertNotSame(Frames.of(0, Rate.PAL), Frames.of(0, Rate.FILM));
+  }
+
+  public void testLabels() {
+    Frames code = Frames.of(1, 2, 3, 4, Rate.PAL);
+    assertEquals(((3600 + 120 + 3) * 25) + 4, code.getCount());
+    assertEquals(1, code.getHours());
+    assertEquals(2, code.getMinutes());
+    assertEquals(3, code.getSeconds());
+    assertEquals(4, code.getFrames());
+    assertEquals("01:02:03:04", code.toString());
+    assertEquals("00:01:15:00", Frames.of(0, 0, 75, 0, Rate.PAL).toString());
+    assertEquals("-00:00:01:05", Frames.of(-30, Rate.PAL).toString());
+    assertEquals("123:00:00:00", Frames.of(123, 0, 0, 0, Rate.FILM).toString());
+    assertEquals("00:00:01:005", Frames.of(1005, Rate.MILLISECONDS).toString());
+  }
+
+  public void testArithmetic() {
+    Frames start = Frames.of(1, 0, 0, 0, Rate.PAL);
+    Frames end = start.add(Frames.ofSeconds(90, Rate.PAL));
+    assertEquals("01:01:30:00", end.toString());
+    assertEquals(Frames.ofSeconds(90, Rate.PAL), end.subtract(start));
+    assertEquals(-start.getCount(), start.negate().getCount());
+    assertEquals(start.getCount() * 3, start.multiply(3).getCount());
+    assertEquals(24, Frames.of(25, Rate.PAL).scale(24, 25).getCount());
+    assertEquals(-2, Frames.of(-3, Rate.PAL).scale(1, 2).getCount());
+    // Adding across rates converts the other value first
+    assertEquals(Frames.of(50, Rate.PAL), Frames.of(25, Rate.PAL).add(Frames.of(24, Rate.FILM)));
+  }
+
+  public void testConversionsAreExact() {
+    // Ten hours of NTSC is 1078920 frames, which is exactly 35999.964 seconds
+    Frames tenHours = Frames.of(1078920, Rate.NTSC);
+    assertEquals(35999964000000L, tenHours.toNanos());
+    assertEquals(35999964, tenHours.toMillis());
+    assertEquals(35999.964, tenHours.toSeconds(), 1e-9);
+    assertEquals(tenHours, Frames.ofNanos(tenHours.toNanos(), Rate.NTSC));
+    assertEquals(863136, tenHours.convert(Rate.FILM_NTSC).getCount());
+    assertEquals(1601600, Frames.of(1000, Rate.NTSC).convert(Rate.SAMPLES_48000).getCount());
+    // Rounds down: frame 1 at 25fps starts 0.04s in, which is inside frame 0 at 24fps
+    assertEquals(0, Frames.of(1, Rate.PAL).convert(Rate.FILM).getCount());
+    assertEquals(-1, Frames.of(-1, Rate.PAL).convert(Rate.FILM).getCount());
+    // No overflow on the way
+    long huge = Long.MAX_VALUE / 2;
+    assertEquals(huge, Frames.of(huge, Rate.PAL).convert(Rate.PAL_HD).convert(Rate.PAL).getCount());
+  }
+
+  public void testCompare() {
+    assertTrue(Frames.of(25, Rate.PAL).compareTo(Frames.of(24, Rate.FILM)) == 0);
+    assertFalse(Frames.of(25, Rate.PAL).equals(Frames.of(24, Rate.FILM)));
+    assertTrue(Frames.of(1001, Rate.NTSC).compareTo(Frames.of(1000, Rate.FPS_30)) > 0);
+    assertTrue(Frames.of(1000, Rate.FPS_30).compareTo(Frames.of(1001, Rate.NTSC)) < 0);
+    assertTrue(Frames.of(1000, Rate.FPS_30).compareTo(Frames.of(1000, Rate.NTSC)) < 0);
+    assertTrue(Frames.of(-1, Rate.PAL).compareTo(Frames.of(0, Rate.PAL)) < 0);
+    assertEquals(Frames.of(300, Rate.PAL).hashCode(), Frames.of(300, Rate.PAL).hashCode());
+  }
+}
@@ -0,0 +1,97 @@
+package com.pelzer.util.timecode;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+import com.pelzer.util.Timecode;
+
+public class TimecodeArraysTest extends TestCase {
+  private final Random random = new Random(42);
+
+  private long[] randomCounts(int length, long bound) {
+    long counts[] = new long[length];
+    for (int i = 0; i < length; i++)
+      counts[i] = (long) ((random.nextDouble() * 2 - 1) * bound);
+    return counts;
+  }
+
+  public void testMatchesRate() {
+    Rate rates[] = { Rate.NTSC, Rate.PAL, Rate.FILM_NTSC, Rate.SAMPLES_48000, Rate.MILLISECONDS };
+    long counts[] = randomCounts(1000, 10000000000L);
+    long out[] = new long[counts.length];
+    double seconds[] = new double[counts.length];
+    for (Rate from : rates) {
+      TimecodeArrays.toSeconds(counts, 0, from, seconds, 0, counts.length);
+      for (int i = 0; i < counts.length; i++)
+        assertEquals(from.toSeconds(counts[i]), seconds[i], 0);
+      TimecodeArrays.fromSeconds(seconds, 0, from, out, 0, counts.length);
+      for (int i = 0; i < counts.length; i++)
+        assertEquals(from.fromSeconds(seconds[i]), out[i]);
+      for (Rate to : rates) {
+        TimecodeArrays.convert(counts, 0, from, out, 0, to, counts.length);
+        for (int i = 0; i < counts.length; i++)
+          assertEquals(from + " to " + to, to.convert(counts[i], from), out[i]);
+      }
+    }
+    // Big enough that the multiply overflows a long on the way
+    long huge[] = { Long.MAX_VALUE / 3, -Long.MAX_VALUE / 3, 7 };
+    TimecodeArrays.convert(huge, 0, Rate.PAL, out, 0, Rate.PAL_HD, 3);
+    assertEquals(Long.MAX_VALUE / 3 * 2, out[0]);
+    TimecodeArrays.convert(huge, 0, Rate.PAL_HD, out, 0, Rate.NTSC, 3);
+    assertEquals(Rate.NTSC.convert(huge[1], Rate.PAL_HD), out[1]);
+  }
+
+  public void testSamples() {
+    long frames[] = { 0, 1, 25, -1 };
+    long samples[] = new long[frames.length];
+    TimecodeArrays.toSamples(frames, 0, Rate.PAL, samples, 0, Timecode.Type.TYPE_AUDIO_CD, frames.length);
+    assertTrue(Arrays.equals(new long[] { 0, 1764, 44100, -1764 }, samples));
+    TimecodeArrays.fromSamples(samples, 0, Timecode.Type.TYPE_AUDIO_CD, frames, 0, Rate.AUDIO_CD, frames.length);
+    assertTrue(Arrays.equals(new long[] { 0, 3, 75, -3 }, frames));
+
+    // Video types count 1000 samples to a frame
+    frames = new long[] { 1078920 };
+    TimecodeArrays.toSamples(frames, 0, Rate.NTSC, samples, 1, Timecode.Type.TYPE_VIDEO_NTSC, 1);
+    assertEquals(1078920000L, samples[1]);
+  }
+
+  public void testLabels() {
+    long frames[] = { 0, 1799, 1800, -30, 1078920 };
+    char out[] = new char[frames.length * 12];
+    int ends[] = new int[frames.length];
+    int end = TimecodeArrays.formatLabels(frames, 0, Rate.NTSC, true, out, 0, ends, 0, frames.length);
+    assertEquals("00:00:00;0000:00:59;2900:01:00;02-00:00:01;0010:00:00;00", new String(out, 0, end));
+    assertEquals(22, ends[1]);
+
+    long parsed[] = new long[frames.length];
+    assertEquals(frames.length, TimecodeArrays.parseLabels(out, 0, ends, 0, Rate.NTSC, parsed, 0, frames.length));
+    assertTrue(Arrays.equals(frames, parsed));
+
+    // A label that doesn't fill its slot is malformed
+    ends[2]++;
+    assertEquals(2, TimecodeArrays.parseLabels(out, 0, ends, 0, Rate.NTSC, parsed, 0, frames.length));
+  }
+
+  public void testParallel() {
+    int length = TimecodeArrays.PARALLEL_THRESHOLD * 4 + 3;
+    long counts[] = randomCounts(length, 100000000);
+    long sequential[] = new long[length];
+    long parallel[] = new long[length];
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      TimecodeArrays.convert(counts, 0, Rate.NTSC, sequential, 0, Rate.SAMPLES_48000, length);
+      TimecodeArrays.convert(counts, 0, Rate.NTSC, parallel, 0, Rate.SAMPLES_48000, length, pool);
+      assertTrue(Arrays.equals(sequential, parallel));
+
+      double seconds[] = new double[length];
+      TimecodeArrays.toSeconds(counts, 0, Rate.NTSC, seconds, 0, length, pool);
+      TimecodeArrays.fromSeconds(seconds, 0, Rate.NTSC, parallel, 0, length, pool);
+      assertTrue(Arrays.equals(counts, parallel));
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
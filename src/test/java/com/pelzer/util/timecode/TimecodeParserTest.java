@@ -0,0 +1,173 @@
+package com.pelzer.util.timecode;
+
+import java.io.StringWriter;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.pelzer.util.Timecode;
+
+public class TimecodeParserTest extends TestCase {
+  private final TimecodeParser parser = new TimecodeParser();
+
+  public void testParse() {
+    assertTrue(parser.parse("01:02:03:04"));
+    assertEquals(1, parser.getHours());
+    assertEquals(2, parser.getMinutes());
+    assertEquals(3, parser.getSeconds());
+    assertEquals(4, parser.getFrames());
+    assertFalse(parser.hasSamples());
+    assertFalse(parser.isDropFrame());
+    assertEquals(11, parser.getEnd());
+    assertEquals(((3600 + 120 + 3) * 25) + 4, parser.toFrames(Rate.PAL));
+
+    assertTrue(parser.parse("  00|01|12|34|0567"));
+    assertEquals(34, parser.getFrames());
+    assertEquals(567, parser.getSamples());
+    assertTrue(parser.parse("00a01b12c34"));
+    assertEquals(12, parser.getSeconds());
+
+    assertTrue(parser.parse("01:00:00;02"));
+    assertTrue(parser.isDropFrame());
+    assertEquals(2, parser.getFrames());
+
+    // Ranges can be picked out of a longer line. Any delimiter can start the samples field, so
+    // without the end index the space and the next code's hours would be read as samples.
+    String line = "001  AX  V  C  01:00:00:00 01:00:05:00";
+    assertTrue(parser.parse(line, 15, 26));
+    assertEquals(26, parser.getEnd());
+    assertTrue(parser.parse(line, 26, line.length()));
+    assertEquals(5, parser.getSeconds());
+    assertTrue(parser.parse(line, 15, line.length()));
+    assertEquals(1, parser.getSamples());
+    // A trailing delimiter isn't part of the code
+    assertTrue(parser.parse("01:02:03:04:"));
+    assertEquals(11, parser.getEnd());
+    assertFalse(parser.hasSamples());
+
+    char chars[] = "xx10:20:30:40xx".toCharArray();
+    assertTrue(parser.parse(chars, 2, 13));
+    assertEquals(40, parser.getFrames());
+    assertEquals(13, parser.getEnd());
+  }
+
+  public void testErrors() {
+    assertFalse(parser.parse("01:02:03"));
+    assertEquals(8, parser.getErrorIndex());
+    assertEquals(-1, parser.getEnd());
+    assertEquals("Malformed timecode '01:02:03', expected a delimiter at index 8", parser.getError());
+    assertFalse(parser.parse("01::03:04"));
+    assertEquals(3, parser.getErrorIndex());
+    assertFalse(parser.parse(""));
+    assertFalse(parser.parse("01:02:03:99999999999"));
+    assertEquals("Malformed timecode '01:02:03:99999999999', number is too large at index 18", parser.getError());
+    assertFalse(parser.parse("-1:02:03:04"));
+    assertTrue(parser.parse("01:02:03:04"));
+    assertNull(parser.getError());
+    assertEquals(-1, parser.getErrorIndex());
+
+    char chars[] = "ab01:0".toCharArray();
+    assertFalse(parser.parse(chars, 2, 6));
+    assertEquals(6, parser.getErrorIndex());
+    chars[2] = 'z';
+    assertEquals("Malformed timecode '01:0', expected a delimiter at index 4", parser.getError());
+
+    try {
+      Frames.parse("01:02", Rate.PAL);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    assertEquals(Frames.of(1, 2, 3, 4, Rate.PAL), Frames.parse("01:02:03:04", Rate.PAL));
+  }
+
+  public void testFormat() throws Exception {
+    char out[] = new char[TimecodeFormatter.MAX_LENGTH];
+    assertEquals("01:02:03:04", new String(out, 0, TimecodeFormatter.format(1, 2, 3, 4, -1, false, out, 0)));
+    assertEquals("01:02:03;04:0005", new String(out, 0, TimecodeFormatter.format(1, 2, 3, 4, 5, true, out, 0)));
+    assertEquals("123:02:03:04", new String(out, 0, TimecodeFormatter.format(123, 2, 3, 4, -1, false, out, 0)));
+    assertEquals("01:02:03:04", TimecodeFormatter.format(Frames.of(1, 2, 3, 4, Rate.PAL).getCount(), Rate.PAL));
+    assertEquals("-00:00:01:05", TimecodeFormatter.format(-30, Rate.PAL));
+    assertEquals("00:00:01:005", TimecodeFormatter.format(1005, Rate.MILLISECONDS));
+    assertEquals("00:00:01:00005", TimecodeFormatter.format(48005, Rate.SAMPLES_48000));
+
+    StringBuilder builder = new StringBuilder("at ");
+    TimecodeFormatter.format(90 * 25, Rate.PAL, builder);
+    assertEquals("at 00:01:30:00", builder.toString());
+    StringWriter writer = new StringWriter();
+    TimecodeFormatter.format(0, 0, 1, 2, -1, true, writer);
+    assertEquals("00:00:01;02", writer.toString());
+  }
+
+  public void testRoundTrip() {
+    Random random = new Random(40);
+    for (int i = 0; i < 1000; i++) {
+      long count = random.nextInt(Integer.MAX_VALUE);
+      Rate rate = random.nextBoolean() ? Rate.PAL : Rate.NTSC;
+      String code = TimecodeFormatter.format(count, rate);
+      assertTrue(code, parser.parse(code));
+      assertEquals(code, count, parser.toFrames(rate));
+    }
+  }
+
+  /** Timecode.setCode() should read codes exactly the way it did before it used the parser. */
+  public void testLegacyTimecodeParsing() throws Exception {
+    Random random = new Random(40);
+    String alphabet = "0123456789:;| x";
+    for (int i = 0; i < 2000; i++) {
+      StringBuilder code = new StringBuilder();
+      int length = random.nextInt(18);
+      for (int j = 0; j < length; j++)
+        code.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      String expected = oldParse(code.toString());
+      String actual;
+      try {
+        Timecode timecode = new Timecode(code.toString());
+        actual = timecode.getCodeWithSamples() + "@" + timecode.getFramesPerSecond();
+      } catch (Timecode.TimecodeException ex) {
+        actual = "error";
+      }
+      assertEquals("'" + code + "'", expected, actual);
+    }
+  }
+
+  /** Timecode.setCode() and getToken() as they were. */
+  private static String oldParse(String timecode) {
+    Timecode old = new Timecode();
+    try {
+      old.setHours(oldToken(timecode, 0));
+      old.setMinutes(oldToken(timecode, 1));
+      old.setSeconds(oldToken(timecode, 2));
+      old.setFrames(oldToken(timecode, 3));
+    } catch (IllegalArgumentException ex) {
+      return "error";
+    }
+    try {
+      old.setSamples(oldToken(timecode, 4));
+      old.setFramesPerSecond(30);
+    } catch (IllegalArgumentException ignored) {
+    }
+    old.normalize();
+    return old.getCodeWithSamples() + "@" + old.getFramesPerSecond();
+  }
+
+  private static int oldToken(String inString, int index) {
+    inString = inString.trim();
+    String valid = "0123456789";
+    String token = "";
+    int count = 0;
+    for (int i = 0; i < inString.length(); i++) {
+      char current = inString.charAt(i);
+      if (valid.indexOf(current) > -1) {
+        token += current;
+      } else {
+        count++;
+        if (count > index)
+          break;
+        token = "";
+      }
+    }
+    if (count < index || token.equals(""))
+      throw new IllegalArgumentException();
+    return Integer.parseInt(token);
+  }
+}
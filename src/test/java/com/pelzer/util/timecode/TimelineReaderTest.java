@@ -0,0 +1,106 @@
+package com.pelzer.util.timecode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TimelineReaderTest extends TestCase {
+  private static final String EDL = "TITLE: REEL 1\r\n" + "FCM: NON-DROP FRAME\r\n" + "\r\n"
+      + "001  AX       V     C        00:00:00:00 00:00:05:00 01:00:00:00 01:00:05:00\r\n"
+      + "* FROM CLIP NAME: intro.mov\r\n"
+      + "002  AX       V     D    012 00:00:10:00 00:00:12:00 01:00:05:00 01:00:07:00\r\n"
+      + "M2   AX       050.0                00:00:10:00\r\n"
+      + "FCM: DROP FRAME\r\n"
+      + "003  BL       V     C        00:00:00:00 00:00:01:00 00:01:00:02 00:01:01:00\r\n"
+      + "004  BL       V     C        00:00:00:00 00:00:01:00 00:10:00;00 00:10:01;00";
+
+  private static final String SRT = "1\n00:00:01,000 --> 00:00:04,500\nHello\n\n"
+      + "2\n00:01:00,040 --> 00:01:02,000\nTwo\nlines\n";
+
+  private static final String VTT = "\uFEFFWEBVTT\n\nNOTE a comment\n\n"
+      + "00:01.000 --> 00:04.000 align:start\n<v Roger>Hi\n\n"
+      + "intro\n01:00:00.5 --> 01:00:01.250\nLater\n";
+
+  private final List<long[]> events = new ArrayList<long[]>();
+  private final TimelineReader.Listener listener = new TimelineReader.Listener() {
+    public void event(long start, long end) {
+      events.add(new long[] { start, end });
+    }
+  };
+
+  private void assertEvent(int index, long start, long end) {
+    assertEquals("start of " + index, start, events.get(index)[0]);
+    assertEquals("end of " + index, end, events.get(index)[1]);
+  }
+
+  public void testEDL() throws IOException {
+    TimelineReader reader = new TimelineReader(TimelineReader.Format.EDL, Rate.NTSC);
+    assertEquals(4, reader.read(new StringReader(EDL), listener));
+    assertEvent(0, 108000, 108150);
+    assertEvent(1, 108150, 108210);
+    // Drop frame from the FCM line, and from the ';'
+    assertEvent(2, 1800, 1828);
+    assertEvent(3, 17982, 18012);
+
+    events.clear();
+    reader = new TimelineReader(TimelineReader.Format.EDL, Rate.PAL);
+    reader.read(new StringReader(EDL), listener);
+    assertEvent(2, 1502, 1525);
+  }
+
+  public void testSubtitles() throws IOException {
+    TimelineReader reader = new TimelineReader(TimelineReader.Format.SRT, Rate.MILLISECONDS);
+    assertEquals(2, reader.read(new StringReader(SRT), listener));
+    assertEvent(0, 1000, 4500);
+    assertEvent(1, 60040, 62000);
+
+    events.clear();
+    reader = new TimelineReader(TimelineReader.Format.WEBVTT, Rate.PAL);
+    assertEquals(2, reader.read(new StringReader(VTT), listener));
+    assertEvent(0, 25, 100);
+    assertEvent(1, 90012, 90031);
+  }
+
+  public void testMappedFile() throws IOException {
+    File file = File.createTempFile("timeline", ".edl");
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(EDL.getBytes("UTF-8"));
+      out.close();
+      TimelineReader reader = new TimelineReader(TimelineReader.Format.EDL, Rate.NTSC);
+      assertEquals(4, reader.read(file, listener));
+      assertEvent(0, 108000, 108150);
+      assertEvent(3, 17982, 18012);
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testLongLinesAndErrors() throws IOException {
+    StringBuilder srt = new StringBuilder();
+    for (int i = 0; i < 20000; i++)
+      srt.append('x');
+    srt.append("\n00:00:01,000 --> 00:00:02,000\n");
+    TimelineReader reader = new TimelineReader(TimelineReader.Format.SRT, Rate.MILLISECONDS);
+    assertEquals(1, reader.read(new StringReader(srt.toString()), listener));
+    assertEvent(0, 1000, 2000);
+
+    try {
+      reader.read(new StringReader("1\n00:00:01 --> 00:00:02,000\n"), listener);
+      fail();
+    } catch (TimelineReader.TimelineException expected) {
+      assertEquals(2, expected.getLine());
+    }
+    try {
+      new TimelineReader(TimelineReader.Format.EDL, Rate.PAL).read(new StringReader("001 AX V C 00:00:00:00 00:00:01:00 01:00:00:00 01:00\n"), listener);
+      fail();
+    } catch (TimelineReader.TimelineException expected) {
+      assertEquals(1, expected.getLine());
+    }
+  }
+}